@@ -0,0 +1,118 @@
+package com.hct.elasticsearch.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hct.elasticsearch.config.properties.BulkIngestorProperties;
+import com.hct.elasticsearch.config.properties.BulkLoadProperties;
+import com.hct.elasticsearch.config.properties.ElasticSearchMetricsProperties;
+import com.hct.elasticsearch.config.properties.FakeElasticSearchProperties;
+import com.hct.elasticsearch.config.properties.IndexMetadataCacheProperties;
+import com.hct.elasticsearch.config.properties.QueryCacheProperties;
+import com.hct.elasticsearch.config.properties.QueryConfigurationProperties;
+import com.hct.elasticsearch.dto.BulkIngestResult;
+import com.hct.elasticsearch.dto.ElasticSearchQueryResponse;
+import com.hct.elasticsearch.fake.FakeElasticSearchServer;
+import com.hct.elasticsearch.metrics.ElasticSearchMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Reload of an index one saveDocument call per document against a bulk load session, both against
+ * {@link FakeElasticSearchServer} with a per request latency standing for the network and cluster round-trip.
+ * The fake does not model refresh or replication cost, so the gap measured here is the lower bound.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BulkLoadBenchmark {
+
+    private static final String INDEX = "es_test";
+    private static final String TYPE = "doc";
+
+    @Param({"1000"})
+    private int documents;
+
+    @Param({"0", "1"})
+    private long latencyMillis;
+
+    private FakeElasticSearchServer server;
+    private RestHighLevelClient client;
+    private BulkIngestor bulkIngestor;
+    private SearchTemplateRegistry searchTemplateRegistry;
+    private QueryResultCache queryResultCache;
+    private ElasticSearchApiService service;
+    private BulkLoader bulkLoader;
+    private List<ElasticSearchQueryResponse> sources;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = FakeElasticSearchServer.start(FakeElasticSearchProperties.builder().latencyMillis(latencyMillis).build());
+        client = new RestHighLevelClient(RestClient.builder(server.getHttpHost()));
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        QueryConfigurationProperties queryConfigurationProperties = QueryConfigurationProperties.builder()
+                .defaultIndex(INDEX)
+                .defaultType(TYPE)
+                .templateRefreshIntervalMillis(0)
+                .build();
+        IndexMetadataCache indexMetadataCache = new IndexMetadataCache(client, IndexMetadataCacheProperties.builder().build());
+        bulkIngestor = new BulkIngestor(client, BulkIngestorProperties.builder().build());
+        searchTemplateRegistry = new SearchTemplateRegistry(client, objectMapper, queryConfigurationProperties);
+        queryResultCache = new QueryResultCache(QueryCacheProperties.builder().enabled(false).build(), objectMapper);
+        service = new ElasticSearchApiService(client, objectMapper, bulkIngestor, queryConfigurationProperties,
+                searchTemplateRegistry, queryResultCache, indexMetadataCache,
+                new ElasticSearchMetrics(new SimpleMeterRegistry(), ElasticSearchMetricsProperties.builder().build()),
+                HttpCompression.disabled(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
+        bulkLoader = new BulkLoader(client, objectMapper, bulkIngestor,
+                BulkLoadProperties.builder().directory(Files.createTempDirectory("bulk-load").toString()).build(),
+                queryResultCache, indexMetadataCache, Optional.empty());
+        sources = IntStream.range(0, documents)
+                .mapToObj(i -> ElasticSearchQueryResponse.builder()
+                        .index(INDEX)
+                        .type(TYPE)
+                        .id(String.valueOf(i))
+                        .source("{\"my_zip\":\"" + (10000 + i) + "\",\"counter\":" + i + "}")
+                        .build())
+                .collect(Collectors.toList());
+        service.saveDocument(INDEX, TYPE, "0", sources.get(0).getSource());
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        searchTemplateRegistry.close();
+        queryResultCache.close();
+        bulkIngestor.close();
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public int perDocument() throws IOException {
+        for (ElasticSearchQueryResponse source : sources) {
+            service.saveDocument(INDEX, TYPE, source.getId(), source.getSource());
+        }
+        return sources.size();
+    }
+
+    @Benchmark
+    public BulkIngestResult bulkLoadSession() throws IOException {
+        return bulkLoader.load(INDEX, sources.stream(), false);
+    }
+}
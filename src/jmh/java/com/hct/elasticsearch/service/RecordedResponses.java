@@ -0,0 +1,88 @@
+package com.hct.elasticsearch.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import org.apache.commons.io.IOUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Elasticsearch 6.6 responses recorded from a live cluster, scaled to a given number of hits
+ * and _source size so the benchmarks can compare small and large result sets.
+ */
+class RecordedResponses {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final byte[] search;
+    private final byte[] get;
+    private final byte[] script;
+    private final byte[] acknowledged;
+
+    RecordedResponses(int hits, int sourceBytes) throws IOException {
+        ObjectNode searchResponse = (ObjectNode) OBJECT_MAPPER.readTree(load("search-response.json"));
+        ObjectNode hitsNode = (ObjectNode) searchResponse.get("hits");
+        ObjectNode recordedHit = (ObjectNode) hitsNode.get("hits").get(0);
+
+        ArrayNode scaledHits = OBJECT_MAPPER.createArrayNode();
+        for (int i = 0; i < hits; i++) {
+            ObjectNode hit = recordedHit.deepCopy();
+            hit.put("_id", recordedHit.get("_id").asText() + i);
+            pad((ObjectNode) hit.get("_source"), sourceBytes);
+            scaledHits.add(hit);
+        }
+        hitsNode.put("total", hits);
+        hitsNode.set("hits", scaledHits);
+        this.search = OBJECT_MAPPER.writeValueAsBytes(searchResponse);
+
+        ObjectNode getResponse = (ObjectNode) OBJECT_MAPPER.readTree(load("get-response.json"));
+        pad((ObjectNode) getResponse.get("_source"), sourceBytes);
+        this.get = OBJECT_MAPPER.writeValueAsBytes(getResponse);
+
+        this.script = load("script-response.json");
+        this.acknowledged = load("acknowledged-response.json");
+    }
+
+    byte[] search() {
+        return search;
+    }
+
+    byte[] get() {
+        return get;
+    }
+
+    byte[] script() {
+        return script;
+    }
+
+    byte[] acknowledged() {
+        return acknowledged;
+    }
+
+    String getSource() throws IOException {
+        JsonNode source = OBJECT_MAPPER.readTree(get).get("_source");
+        return OBJECT_MAPPER.writeValueAsString(source);
+    }
+
+    private static void pad(ObjectNode source, int sourceBytes) throws IOException {
+        int missing = sourceBytes - OBJECT_MAPPER.writeValueAsBytes(source).length;
+        if (missing > 0) {
+            char[] padding = new char[missing];
+            Arrays.fill(padding, 'x');
+            source.put("my_description", new String(padding));
+        }
+    }
+
+    private static byte[] load(String name) throws IOException {
+        try (InputStream in = RecordedResponses.class.getResourceAsStream("/recorded/" + name)) {
+            if (in == null) {
+                throw new IOException("missing recorded response:" + name);
+            }
+            return IOUtils.toByteArray(in);
+        }
+    }
+}
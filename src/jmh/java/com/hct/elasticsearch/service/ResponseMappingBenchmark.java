@@ -0,0 +1,89 @@
+package com.hct.elasticsearch.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.hct.elasticsearch.dto.ElasticSearchQueryResponse;
+import com.hct.elasticsearch.dto.RawSource;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.common.xcontent.DeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.search.SearchHits;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Mapping of search responses into {@link ElasticSearchQueryResponse}s, from already parsed
+ * {@link SearchHits} and straight from the raw response body.
+ */
+@State(Scope.Benchmark)
+public class ResponseMappingBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int hits;
+
+    @Param({"256", "4096"})
+    private int sourceBytes;
+
+    private byte[] searchResponseBody;
+    private SearchHits searchHits;
+    private byte[] source;
+    private SearchHitStreamDecoder decoder;
+
+    @Setup
+    public void setUp() throws IOException {
+        RecordedResponses responses = new RecordedResponses(hits, sourceBytes);
+        searchResponseBody = responses.search();
+        searchHits = parse(searchResponseBody).getHits();
+        source = responses.getSource().getBytes("UTF-8");
+        decoder = new SearchHitStreamDecoder(new JsonFactory());
+    }
+
+    @Benchmark
+    public List<ElasticSearchQueryResponse> convertSearchHits() {
+        return ElasticSearchResponseConverter.convert(searchHits);
+    }
+
+    @Benchmark
+    public List<ElasticSearchQueryResponse> parseAndConvertSearchResponse() throws IOException {
+        return ElasticSearchResponseConverter.convert(parse(searchResponseBody).getHits());
+    }
+
+    @Benchmark
+    public List<ElasticSearchQueryResponse> decodeResponseBody() throws IOException {
+        return decoder.decode(new ByteArrayInputStream(searchResponseBody));
+    }
+
+    @Benchmark
+    public void decodeResponseBodyAndReadSources(Blackhole blackhole) throws IOException {
+        for (ElasticSearchQueryResponse hit : decoder.decode(new ByteArrayInputStream(searchResponseBody))) {
+            blackhole.consume(hit.getSource());
+        }
+    }
+
+    @Benchmark
+    public ElasticSearchQueryResponse buildQueryResponse() {
+        return ElasticSearchQueryResponse.builder()
+                .index("es_test")
+                .type("doc")
+                .id("Jx3dW2kBv9rPp1x5mQ4A")
+                .score(1.2876821f)
+                .rawSource(RawSource.of(source))
+                .build();
+    }
+
+    private static SearchResponse parse(byte[] body) throws IOException {
+        try (XContentParser parser = XContentType.JSON.xContent()
+                .createParser(NamedXContentRegistry.EMPTY, DeprecationHandler.THROW_UNSUPPORTED_OPERATION, body)) {
+            return SearchResponse.fromXContent(parser);
+        }
+    }
+}
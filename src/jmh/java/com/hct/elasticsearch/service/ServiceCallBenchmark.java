@@ -0,0 +1,110 @@
+package com.hct.elasticsearch.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hct.elasticsearch.config.properties.BulkIngestorProperties;
+import com.hct.elasticsearch.config.properties.ElasticSearchMetricsProperties;
+import com.hct.elasticsearch.config.properties.IndexMetadataCacheProperties;
+import com.hct.elasticsearch.config.properties.QueryCacheProperties;
+import com.hct.elasticsearch.config.properties.QueryConfigurationProperties;
+import com.hct.elasticsearch.dto.ElasticSearchQueryResponse;
+import com.hct.elasticsearch.metrics.ElasticSearchMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Full service calls through the high and low level clients against {@link StubElasticSearchServer},
+ * with the query result cache disabled so that every call makes its round-trip.
+ */
+@State(Scope.Benchmark)
+public class ServiceCallBenchmark {
+
+    private static final String INDEX = "es_test";
+    private static final String TYPE = "doc";
+    private static final String TEMPLATE = "es_test_template";
+
+    @Param({"10", "100", "1000"})
+    private int hits;
+
+    @Param({"256", "4096"})
+    private int sourceBytes;
+
+    private StubElasticSearchServer server;
+    private RestHighLevelClient client;
+    private BulkIngestor bulkIngestor;
+    private SearchTemplateRegistry searchTemplateRegistry;
+    private QueryResultCache queryResultCache;
+    private ElasticSearchApiService service;
+    private Map<String, Object> parameters;
+
+    @Setup
+    public void setUp() throws IOException {
+        server = new StubElasticSearchServer(new RecordedResponses(hits, sourceBytes));
+        client = new RestHighLevelClient(RestClient.builder(server.getHttpHost()));
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        QueryConfigurationProperties queryConfigurationProperties = QueryConfigurationProperties.builder()
+                .defaultIndex(INDEX)
+                .defaultType(TYPE)
+                .storedTemplateId(TEMPLATE)
+                .templateRefreshIntervalMillis(0)
+                .build();
+
+        bulkIngestor = new BulkIngestor(client, BulkIngestorProperties.builder().build());
+        searchTemplateRegistry = new SearchTemplateRegistry(client, objectMapper, queryConfigurationProperties);
+        queryResultCache = new QueryResultCache(QueryCacheProperties.builder().enabled(false).build(), objectMapper);
+        service = new ElasticSearchApiService(client, objectMapper, bulkIngestor, queryConfigurationProperties,
+                searchTemplateRegistry, queryResultCache,
+                new IndexMetadataCache(client, IndexMetadataCacheProperties.builder().build()),
+                new ElasticSearchMetrics(new SimpleMeterRegistry(),
+                        ElasticSearchMetricsProperties.builder().slowOperationThresholdMillis(0).build()),
+                HttpCompression.disabled(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
+        parameters = Collections.singletonMap("my_zip", "94105");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        searchTemplateRegistry.close();
+        queryResultCache.close();
+        bulkIngestor.close();
+        client.close();
+        server.close();
+    }
+
+    @Benchmark
+    public List<ElasticSearchQueryResponse> querySearchAll() {
+        return service.querySearchAll(INDEX);
+    }
+
+    @Benchmark
+    public List<ElasticSearchQueryResponse> queryMatches() {
+        return service.queryMatches(INDEX, "my_zip", "94105");
+    }
+
+    @Benchmark
+    public List<ElasticSearchQueryResponse> queryStoredTemplate() {
+        return service.query(INDEX, TEMPLATE, parameters);
+    }
+
+    @Benchmark
+    public ElasticSearchQueryResponse getDocumentById() {
+        return service.getDocumentById(INDEX, TYPE, "Jx3dW2kBv9rPp1x5mQ4A");
+    }
+
+    @Benchmark
+    public void upsertTemplate() throws IOException {
+        service.upsertTemplate(TEMPLATE, "{\"query\":{\"match\":{\"my_zip\":\"{{my_zip}}\"}}}");
+    }
+}
@@ -0,0 +1,89 @@
+package com.hct.elasticsearch.service;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpHost;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-process HTTP server answering the few endpoints the service calls with recorded responses,
+ * so full client round-trips can be benchmarked without a cluster.
+ */
+class StubElasticSearchServer implements AutoCloseable {
+
+    private static final byte[] NOT_FOUND = ("{\"error\":{\"root_cause\":[],\"type\":\"resource_not_found_exception\"," +
+            "\"reason\":\"no recorded response\"},\"status\":404}").getBytes(StandardCharsets.UTF_8);
+
+    private final RecordedResponses responses;
+    private final HttpServer server;
+    private final ExecutorService executor;
+
+    StubElasticSearchServer(RecordedResponses responses) throws IOException {
+        this.responses = responses;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        this.executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), runnable -> {
+            Thread thread = new Thread(runnable, "stub-elasticsearch");
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+        server.start();
+    }
+
+    HttpHost getHttpHost() {
+        return new HttpHost(server.getAddress().getHostString(), server.getAddress().getPort(), "http");
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (InputStream requestBody = exchange.getRequestBody()) {
+            // drained so the connection can be kept alive
+            IOUtils.skip(requestBody, Long.MAX_VALUE);
+        }
+
+        String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        String[] segments = path.substring(1).split("/");
+
+        if ("HEAD".equals(method)) {
+            exchange.sendResponseHeaders(200, -1);
+            exchange.close();
+            return;
+        }
+        if (path.endsWith("/_search") || path.endsWith("/_search/template")) {
+            respond(exchange, 200, responses.search());
+        }
+        else if (path.startsWith("/_scripts/")) {
+            respond(exchange, 200, "GET".equals(method) ? responses.script() : responses.acknowledged());
+        }
+        else if ("GET".equals(method) && segments.length == 3) {
+            respond(exchange, 200, responses.get());
+        }
+        else {
+            respond(exchange, 404, NOT_FOUND);
+        }
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
@@ -0,0 +1,31 @@
+package com.hct.elasticsearch.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.elasticsearch.script.mustache.MustacheScriptEngine;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * The JSON body sent by {@link ElasticSearchApiService#upsertTemplate}.
+ */
+@State(Scope.Benchmark)
+public class TemplateSerializationBenchmark {
+
+    private static final String SOURCE = "{\"query\":{\"bool\":{\"must\":[" +
+            "{\"match\":{\"my_zip\":\"{{zip}}\"}},{\"match\":{\"my_city\":\"{{city}}\"}}]}}," +
+            "\"size\":\"{{size}}{{^size}}10{{/size}}\"}";
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    @Benchmark
+    public String serializeUpsertScriptRequest() throws JsonProcessingException {
+        return objectMapper.writeValueAsString(ElasticSearchApiService.UpsertScriptRequest.builder()
+                .script(ElasticSearchApiService.ElasticSearchScript.builder()
+                        .lang(MustacheScriptEngine.NAME)
+                        .source(SOURCE)
+                        .build())
+                .build());
+    }
+}
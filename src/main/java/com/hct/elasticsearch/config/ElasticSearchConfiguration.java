@@ -1,8 +1,42 @@
 package com.hct.elasticsearch.config;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hct.elasticsearch.config.properties.AdmissionControlProperties;
+import com.hct.elasticsearch.config.properties.BulkIngestorProperties;
 import com.hct.elasticsearch.config.properties.ElasticSearchProperties;
+import com.hct.elasticsearch.config.properties.FakeElasticSearchProperties;
+import com.hct.elasticsearch.config.properties.GetCoalescerProperties;
+import com.hct.elasticsearch.config.properties.HttpCompressionProperties;
+import com.hct.elasticsearch.config.properties.QueryConfigurationProperties;
+import com.hct.elasticsearch.config.properties.ReadResilienceProperties;
+import com.hct.elasticsearch.config.properties.RoutingProperties;
+import com.hct.elasticsearch.config.properties.UpdateCoalescerProperties;
+import com.hct.elasticsearch.config.properties.WarmUpProperties;
+import com.hct.elasticsearch.config.properties.WorkloadRecorderProperties;
+import com.hct.elasticsearch.config.properties.WriteBehindProperties;
+import com.hct.elasticsearch.fake.FakeElasticSearchServer;
+import com.hct.elasticsearch.metrics.ElasticSearchMetrics;
+import com.hct.elasticsearch.service.AdmissionController;
+import com.hct.elasticsearch.service.BulkIngestor;
+import com.hct.elasticsearch.service.ElasticSearchApiService;
+import com.hct.elasticsearch.service.FieldRoutingStrategy;
+import com.hct.elasticsearch.service.GetCoalescer;
+import com.hct.elasticsearch.service.HttpCompression;
+import com.hct.elasticsearch.service.QueryResultCache;
+import com.hct.elasticsearch.service.ReadResilience;
+import com.hct.elasticsearch.service.RoutingStrategy;
+import com.hct.elasticsearch.service.SearchTemplateRegistry;
+import com.hct.elasticsearch.service.UpdateCoalescer;
+import com.hct.elasticsearch.service.WarmUp;
+import com.hct.elasticsearch.workload.WorkloadRecorder;
+import com.hct.elasticsearch.writebehind.WriteBehindLog;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.http.Header;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpHeaders;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
@@ -11,32 +45,54 @@ import org.apache.http.config.RegistryBuilder;
 import org.apache.http.conn.ssl.NoopHostnameVerifier;
 import org.apache.http.conn.ssl.TrustSelfSignedStrategy;
 import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
 import org.apache.http.nio.conn.NoopIOSessionStrategy;
 import org.apache.http.nio.conn.SchemeIOSessionStrategy;
 import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
 import org.apache.http.ssl.SSLContexts;
+import org.elasticsearch.client.HasAttributeNodeSelector;
+import org.elasticsearch.client.NodeSelector;
 import org.elasticsearch.client.RestClient;
 import org.elasticsearch.client.RestClientBuilder;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.client.sniff.ElasticsearchNodesSniffer;
+import org.elasticsearch.client.sniff.SniffOnFailureListener;
+import org.elasticsearch.client.sniff.Sniffer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.List;
+
 @Configuration
 @Slf4j
 public class ElasticSearchConfiguration {
 
+    private static final String ATTRIBUTE_NODE_SELECTOR_PREFIX = "attribute:";
+
     private ElasticSearchProperties elasticSearchProperties;
+    private final SniffOnFailureListener sniffOnFailureListener = new SniffOnFailureListener();
 
     public ElasticSearchConfiguration(ElasticSearchProperties elasticSearchProperties) {
         this.elasticSearchProperties = elasticSearchProperties;
     }
 
-    @Bean(destroyMethod = "close")
-    public RestHighLevelClient elasticSearchClient() throws Exception {
+    // shut down by the http client when the RestHighLevelClient is closed
+    @Bean(destroyMethod = "")
+    public PoolingNHttpClientConnectionManager elasticSearchConnectionManager() throws Exception {
 
-        final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
-        credentialsProvider.setCredentials(AuthScope.ANY,
-                new UsernamePasswordCredentials(elasticSearchProperties.getUsername(), elasticSearchProperties.getPassword()));
+        IOReactorConfig ioReactorConfig = IOReactorConfig.custom()
+                .setIoThreadCount(elasticSearchProperties.getIoThreadCount())
+                .setConnectTimeout(elasticSearchProperties.getConnectTimeoutMillis())
+                .setSoTimeout(elasticSearchProperties.getSocketTimeoutMillis())
+                .setSoKeepAlive(true)
+                .build();
 
         //ECDHE_RSA
         Registry<SchemeIOSessionStrategy> sessionStrategyRegistry = RegistryBuilder.<SchemeIOSessionStrategy>create()
@@ -46,16 +102,188 @@ public class ElasticSearchConfiguration {
                         new NoopHostnameVerifier()) )
                 .build();
 
+        PoolingNHttpClientConnectionManager connectionManager = new PoolingNHttpClientConnectionManager(
+                new DefaultConnectingIOReactor(ioReactorConfig), sessionStrategyRegistry);
+        connectionManager.setMaxTotal(elasticSearchProperties.getMaxConnTotal());
+        connectionManager.setDefaultMaxPerRoute(elasticSearchProperties.getMaxConnPerRoute());
+        return connectionManager;
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "elasticsearch.fake", name = "enabled", havingValue = "true")
+    public FakeElasticSearchServer fakeElasticSearchServer(FakeElasticSearchProperties fakeElasticSearchProperties) throws IOException {
+        return FakeElasticSearchServer.start(fakeElasticSearchProperties);
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "elasticsearch.workload", name = "record-file")
+    public WorkloadRecorder workloadRecorder(WorkloadRecorderProperties workloadRecorderProperties) throws IOException {
+        return new WorkloadRecorder(Paths.get(workloadRecorderProperties.getRecordFile()));
+    }
+
+    @Bean
+    public HttpCompression httpCompression(HttpCompressionProperties httpCompressionProperties, ElasticSearchMetrics elasticSearchMetrics) {
+        return new HttpCompression(httpCompressionProperties, elasticSearchMetrics);
+    }
+
+    @Bean(destroyMethod = "close")
+    public RestHighLevelClient elasticSearchClient(PoolingNHttpClientConnectionManager elasticSearchConnectionManager,
+                                                   ElasticSearchMetrics elasticSearchMetrics,
+                                                   ObjectProvider<FakeElasticSearchServer> fakeElasticSearchServer,
+                                                   ObjectProvider<WorkloadRecorder> workloadRecorder) {
+
+        final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+        credentialsProvider.setCredentials(AuthScope.ANY,
+                new UsernamePasswordCredentials(elasticSearchProperties.getUsername(), elasticSearchProperties.getPassword()));
+
+        long keepAliveMillis = elasticSearchProperties.getKeepAliveMillis();
+
         RestClientBuilder builder = RestClient
-                .builder(new HttpHost(elasticSearchProperties.getHost(), elasticSearchProperties.getPort(), elasticSearchProperties.getScheme()))
+                .builder(nodes(fakeElasticSearchServer.getIfAvailable()))
+                .setMaxRetryTimeoutMillis(elasticSearchProperties.getMaxRetryTimeoutMillis())
+                .setNodeSelector(nodeSelector())
+                .setRequestConfigCallback(
+                        requestConfigBuilder -> requestConfigBuilder
+                                .setConnectTimeout(elasticSearchProperties.getConnectTimeoutMillis())
+                                .setSocketTimeout(elasticSearchProperties.getSocketTimeoutMillis())
+                                .setConnectionRequestTimeout(elasticSearchProperties.getConnectionRequestTimeoutMillis())
+                )
                 .setHttpClientConfigCallback(
                         httpClientBuilder -> httpClientBuilder
                                 .setDefaultCredentialsProvider(credentialsProvider)
-                                .setSSLStrategy(sessionStrategyRegistry.lookup(elasticSearchProperties.getScheme().toLowerCase()))
+                                // the pool carries the io reactor settings and the ssl strategy
+                                .setConnectionManager(elasticSearchConnectionManager)
+                                .setKeepAliveStrategy((response, context) -> {
+                                    long serverKeepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                                    return serverKeepAlive > 0 ? Math.min(serverKeepAlive, keepAliveMillis) : keepAliveMillis;
+                                })
+                                .addInterceptorFirst((HttpRequestInterceptor) (request, context) -> {
+                                    WorkloadRecorder recorder = workloadRecorder.getIfAvailable();
+                                    if (recorder != null) {
+                                        recorder.process(request, context);
+                                    }
+                                })
+                                .addInterceptorLast((HttpRequestInterceptor) (request, context) -> {
+                                    if (request instanceof HttpEntityEnclosingRequest && ((HttpEntityEnclosingRequest) request).getEntity() != null) {
+                                        elasticSearchMetrics.recordRequestBytes(((HttpEntityEnclosingRequest) request).getEntity().getContentLength());
+                                    }
+                                })
+                                .addInterceptorLast((HttpResponseInterceptor) (response, context) -> {
+                                    Header contentLength = response.getFirstHeader(HttpHeaders.CONTENT_LENGTH);
+                                    if (contentLength != null) {
+                                        try {
+                                            elasticSearchMetrics.recordResponseBytes(Long.parseLong(contentLength.getValue()));
+                                        }
+                                        catch (NumberFormatException ignored) {
+                                        }
+                                    }
+                                })
                 );
 
+        if (elasticSearchProperties.isSniff()) {
+            builder.setFailureListener(sniffOnFailureListener);
+        }
+
         return new RestHighLevelClient(builder);
 
     }
 
-}
\ No newline at end of file
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "elasticsearch", name = "sniff", havingValue = "true")
+    public Sniffer elasticSearchSniffer(RestHighLevelClient elasticSearchClient) {
+        RestClient restClient = elasticSearchClient.getLowLevelClient();
+        ElasticsearchNodesSniffer.Scheme scheme = "https".equalsIgnoreCase(elasticSearchProperties.getScheme())
+                ? ElasticsearchNodesSniffer.Scheme.HTTPS
+                : ElasticsearchNodesSniffer.Scheme.HTTP;
+
+        Sniffer sniffer = Sniffer.builder(restClient)
+                .setSniffIntervalMillis(elasticSearchProperties.getSniffIntervalMillis())
+                .setSniffAfterFailureDelayMillis(elasticSearchProperties.getSniffAfterFailureDelayMillis())
+                .setNodesSniffer(new ElasticsearchNodesSniffer(restClient, elasticSearchProperties.getSniffRequestTimeoutMillis(), scheme))
+                .build();
+        sniffOnFailureListener.setSniffer(sniffer);
+        return sniffer;
+    }
+
+    @Bean(destroyMethod = "close")
+    public BulkIngestor bulkIngestor(RestHighLevelClient elasticSearchClient, BulkIngestorProperties bulkIngestorProperties,
+                                     HttpCompression httpCompression) {
+        return new BulkIngestor(elasticSearchClient, bulkIngestorProperties, httpCompression);
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "elasticsearch.update-coalescer", name = "enabled", havingValue = "true")
+    public UpdateCoalescer updateCoalescer(BulkIngestor bulkIngestor, ObjectMapper objectMapper,
+                                           UpdateCoalescerProperties updateCoalescerProperties) {
+        return new UpdateCoalescer(bulkIngestor, objectMapper, updateCoalescerProperties);
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "elasticsearch.get-coalescer", name = "enabled", havingValue = "true")
+    public GetCoalescer getCoalescer(RestHighLevelClient elasticSearchClient, GetCoalescerProperties getCoalescerProperties) {
+        return new GetCoalescer(elasticSearchClient, getCoalescerProperties);
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "elasticsearch.resilience", name = "enabled", havingValue = "true")
+    public ReadResilience readResilience(ReadResilienceProperties readResilienceProperties, ElasticSearchMetrics elasticSearchMetrics) {
+        return new ReadResilience(readResilienceProperties, elasticSearchMetrics);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "elasticsearch.admission", name = "enabled", havingValue = "true")
+    public AdmissionController admissionController(AdmissionControlProperties admissionControlProperties, ElasticSearchMetrics elasticSearchMetrics) {
+        return new AdmissionController(admissionControlProperties, elasticSearchMetrics);
+    }
+
+    @Bean
+    @ConditionalOnProperty(prefix = "elasticsearch.routing", name = "enabled", havingValue = "true")
+    public RoutingStrategy routingStrategy(ObjectMapper objectMapper, RoutingProperties routingProperties) {
+        return new FieldRoutingStrategy(objectMapper.getFactory(), routingProperties);
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "elasticsearch.write-behind", name = "enabled", havingValue = "true")
+    public WriteBehindLog writeBehindLog(RestHighLevelClient elasticSearchClient, WriteBehindProperties writeBehindProperties) throws IOException {
+        return WriteBehindLog.open(elasticSearchClient, writeBehindProperties);
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(prefix = "elasticsearch.warm-up", name = "enabled", havingValue = "true")
+    public WarmUp warmUp(RestHighLevelClient elasticSearchClient, ElasticSearchApiService elasticSearchApiService,
+                         SearchTemplateRegistry searchTemplateRegistry, QueryResultCache queryResultCache,
+                         QueryConfigurationProperties queryConfigurationProperties, WarmUpProperties warmUpProperties) {
+        return new WarmUp(elasticSearchClient, elasticSearchApiService, searchTemplateRegistry, queryResultCache,
+                queryConfigurationProperties, warmUpProperties);
+    }
+
+    private HttpHost[] nodes(FakeElasticSearchServer fakeElasticSearchServer) {
+        if (fakeElasticSearchServer != null) {
+            return new HttpHost[] { fakeElasticSearchServer.getHttpHost() };
+        }
+        List<String> nodes = elasticSearchProperties.getNodes();
+        if (nodes == null || nodes.isEmpty()) {
+            return new HttpHost[] {
+                    new HttpHost(elasticSearchProperties.getHost(), elasticSearchProperties.getPort(), elasticSearchProperties.getScheme())
+            };
+        }
+        return nodes.stream().map(HttpHost::create).toArray(HttpHost[]::new);
+    }
+
+    private NodeSelector nodeSelector() {
+        String nodeSelector = elasticSearchProperties.getNodeSelector().trim();
+        if ("any".equalsIgnoreCase(nodeSelector)) {
+            return NodeSelector.ANY;
+        }
+        if ("skip-dedicated-masters".equalsIgnoreCase(nodeSelector)) {
+            return NodeSelector.SKIP_DEDICATED_MASTERS;
+        }
+        if (nodeSelector.startsWith(ATTRIBUTE_NODE_SELECTOR_PREFIX) && nodeSelector.indexOf('=') > ATTRIBUTE_NODE_SELECTOR_PREFIX.length()) {
+            String attribute = nodeSelector.substring(ATTRIBUTE_NODE_SELECTOR_PREFIX.length());
+            int separator = attribute.indexOf('=');
+            return new HasAttributeNodeSelector(attribute.substring(0, separator), attribute.substring(separator + 1));
+        }
+        throw new IllegalArgumentException("unknown elasticsearch.node-selector: " + nodeSelector);
+    }
+
+}
@@ -0,0 +1,37 @@
+package com.hct.elasticsearch.config;
+
+import com.hct.elasticsearch.config.properties.WebStreamingProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+/**
+ * Streamed responses are written by a bounded pool instead of the thread per request default of Spring MVC.
+ */
+@Configuration
+public class WebConfiguration implements WebMvcConfigurer {
+
+    private WebStreamingProperties webStreamingProperties;
+
+    public WebConfiguration(WebStreamingProperties webStreamingProperties) {
+        this.webStreamingProperties = webStreamingProperties;
+    }
+
+    @Bean
+    public ThreadPoolTaskExecutor streamingTaskExecutor() {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setCorePoolSize(webStreamingProperties.getThreads());
+        executor.setMaxPoolSize(webStreamingProperties.getThreads());
+        executor.setQueueCapacity(webStreamingProperties.getQueueCapacity());
+        executor.setThreadNamePrefix("streaming-");
+        return executor;
+    }
+
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(streamingTaskExecutor());
+        configurer.setDefaultTimeout(webStreamingProperties.getTimeoutMillis());
+    }
+}
@@ -0,0 +1,56 @@
+package com.hct.elasticsearch.config.properties;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Configuration
+@ConfigurationProperties(prefix = "elasticsearch.admission")
+@Validated
+public class AdmissionControlProperties {
+
+    // adaptive concurrency limits for the write and search calls of the service
+    @Builder.Default
+    private boolean enabled = false;
+
+    // concurrent calls allowed per operation type, moved by AIMD between the min and max
+    @Min(1)
+    @Builder.Default
+    private int initialLimit = 20;
+    @Min(1)
+    @Builder.Default
+    private int minLimit = 1;
+    @Min(1)
+    @Builder.Default
+    private int maxLimit = 200;
+
+    // the limit is multiplied by this on a 429 or a call slower than latencyThresholdMillis
+    @DecimalMin("0.1")
+    @DecimalMax("0.99")
+    @Builder.Default
+    private double backoffRatio = 0.9;
+    @Min(1)
+    @Builder.Default
+    private long latencyThresholdMillis = 1000;
+
+    // calls waiting for a slot, further calls are shed at once
+    @Min(0)
+    @Builder.Default
+    private int maxQueued = 100;
+    // queued calls are shed when no slot frees up in time
+    @Min(0)
+    @Builder.Default
+    private long maxWaitMillis = 500;
+}
@@ -0,0 +1,54 @@
+package com.hct.elasticsearch.config.properties;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.Min;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Configuration
+@ConfigurationProperties(prefix = "elasticsearch.bulk")
+@Validated
+public class BulkIngestorProperties {
+
+    // flush once this many actions are buffered, -1 disables
+    @Builder.Default
+    private int bulkActions = 1000;
+
+    // flush once the buffered requests reach this size in bytes, -1 disables
+    @Builder.Default
+    private long bulkSizeBytes = 5 * 1024 * 1024;
+
+    // flush whatever is buffered at this interval, <= 0 disables
+    @Builder.Default
+    private long flushIntervalMillis = 1000;
+
+    // number of bulks allowed to be in flight while new actions are buffered
+    @Min(0)
+    @Builder.Default
+    private int concurrentRequests = 2;
+
+    // actions accepted but not yet acknowledged; add() blocks beyond this
+    @Min(1)
+    @Builder.Default
+    private int maxPendingActions = 10000;
+
+    // retries of items rejected with 429 by the cluster
+    @Min(0)
+    @Builder.Default
+    private int maxRetries = 8;
+
+    @Builder.Default
+    private long initialBackoffMillis = 50;
+
+    @Builder.Default
+    private long closeTimeoutMillis = 30000;
+}
@@ -0,0 +1,32 @@
+package com.hct.elasticsearch.config.properties;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotEmpty;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Configuration
+@ConfigurationProperties(prefix = "elasticsearch.bulk-load")
+@Validated
+public class BulkLoadProperties {
+
+    // holds one marker per running bulk load with the settings to restore, must survive restarts
+    @NotEmpty
+    @Builder.Default
+    private String directory = "bulk-load";
+
+    // segments per shard left by the force merge that optionally ends a bulk load
+    @Min(1)
+    @Builder.Default
+    private int forceMergeMaxSegments = 1;
+}
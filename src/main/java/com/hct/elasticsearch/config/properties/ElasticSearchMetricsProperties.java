@@ -0,0 +1,27 @@
+package com.hct.elasticsearch.config.properties;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Configuration
+@ConfigurationProperties(prefix = "elasticsearch.metrics")
+@Validated
+public class ElasticSearchMetricsProperties {
+
+    // operations slower than this are logged with their index, template and parameters, <= 0 disables
+    @Builder.Default
+    private long slowOperationThresholdMillis = 1000;
+
+    // include the query parameters in the slow operation log
+    @Builder.Default
+    private boolean logSlowOperationParameters = true;
+}
@@ -8,8 +8,11 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.validation.annotation.Validated;
 
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotEmpty;
 import javax.validation.constraints.NotNull;
+import java.util.ArrayList;
+import java.util.List;
 
 @Data
 @AllArgsConstructor
@@ -20,7 +23,7 @@ import javax.validation.constraints.NotNull;
 @Validated
 public class ElasticSearchProperties {
 
-    @NotEmpty
+    // single node, used when no nodes are configured
     private String host;
     @NotEmpty
     private String scheme;
@@ -31,4 +34,45 @@ public class ElasticSearchProperties {
     private String username;
     @NotEmpty
     private String password;
-}
\ No newline at end of file
+
+    // cluster nodes as scheme://host:port, take precedence over host/port/scheme
+    @Builder.Default
+    private List<String> nodes = new ArrayList<>();
+
+    @Min(1)
+    @Builder.Default
+    private int maxConnTotal = 100;
+    @Min(1)
+    @Builder.Default
+    private int maxConnPerRoute = 50;
+    @Min(1)
+    @Builder.Default
+    private int ioThreadCount = Runtime.getRuntime().availableProcessors();
+
+    @Builder.Default
+    private int connectTimeoutMillis = 1000;
+    @Builder.Default
+    private int socketTimeoutMillis = 30000;
+    // time to wait for a pooled connection before failing the request
+    @Builder.Default
+    private int connectionRequestTimeoutMillis = 1000;
+    // upper bound for idle pooled connections, the server's Keep-Alive header wins when shorter
+    @Builder.Default
+    private long keepAliveMillis = 60000;
+    @Builder.Default
+    private int maxRetryTimeoutMillis = 30000;
+
+    // any, skip-dedicated-masters or attribute:<name>=<value>; roles and attributes are only known with sniffing
+    @NotEmpty
+    @Builder.Default
+    private String nodeSelector = "any";
+
+    @Builder.Default
+    private boolean sniff = false;
+    @Builder.Default
+    private int sniffIntervalMillis = 5 * 60 * 1000;
+    @Builder.Default
+    private int sniffAfterFailureDelayMillis = 60 * 1000;
+    @Builder.Default
+    private long sniffRequestTimeoutMillis = 1000;
+}
@@ -0,0 +1,56 @@
+package com.hct.elasticsearch.config.properties;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Configuration
+@ConfigurationProperties(prefix = "elasticsearch.fake")
+@Validated
+public class FakeElasticSearchProperties {
+
+    // start the in-memory stand-in and point the client at it instead of elasticsearch.host/nodes
+    @Builder.Default
+    private boolean enabled = false;
+
+    // 0 picks a free port
+    @Builder.Default
+    @Min(0)
+    private int port = 0;
+
+    @Builder.Default
+    @Min(1)
+    private int threads = 16;
+
+    // added to every response
+    @Builder.Default
+    @Min(0)
+    private long latencyMillis = 0;
+
+    // uniformly distributed extra latency on top of latency-millis
+    @Builder.Default
+    @Min(0)
+    private long latencyJitterMillis = 0;
+
+    // share of the requests answered with error-status instead of being served
+    @Builder.Default
+    @DecimalMin("0.0")
+    @DecimalMax("1.0")
+    private double errorRate = 0.0;
+
+    @Builder.Default
+    @Min(400)
+    private int errorStatus = 503;
+}
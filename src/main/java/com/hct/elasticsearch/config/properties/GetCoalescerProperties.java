@@ -0,0 +1,35 @@
+package com.hct.elasticsearch.config.properties;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.Min;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Configuration
+@ConfigurationProperties(prefix = "elasticsearch.get-coalescer")
+@Validated
+public class GetCoalescerProperties {
+
+    // collect concurrent getDocumentById calls into _mget requests
+    @Builder.Default
+    private boolean enabled = false;
+
+    // a batch is sent this long after its first get, the extra latency of a lone get
+    @Min(1)
+    @Builder.Default
+    private long windowMillis = 2;
+
+    // a batch is sent at once when this many distinct documents are waiting
+    @Min(1)
+    @Builder.Default
+    private int maxBatchSize = 100;
+}
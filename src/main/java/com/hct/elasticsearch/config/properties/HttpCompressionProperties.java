@@ -0,0 +1,41 @@
+package com.hct.elasticsearch.config.properties;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Configuration
+@ConfigurationProperties(prefix = "elasticsearch.compression")
+@Validated
+public class HttpCompressionProperties {
+
+    // gzip bulk and search request bodies, the nodes inflate them whatever their http.compression setting
+    @Builder.Default
+    private boolean requestsEnabled = false;
+
+    // smaller bodies are sent as they are, gzip costs more than it saves on them
+    @Min(0)
+    @Builder.Default
+    private int minRequestBytes = 4096;
+
+    // deflater level, 1 is the fastest and already gets most of the gain on json
+    @Min(1)
+    @Max(9)
+    @Builder.Default
+    private int level = 1;
+
+    // send Accept-Encoding: gzip and inflate the responses while they are read, needs http.compression on the cluster nodes
+    @Builder.Default
+    private boolean responsesEnabled = false;
+}
@@ -0,0 +1,29 @@
+package com.hct.elasticsearch.config.properties;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Configuration
+@ConfigurationProperties(prefix = "query.index-metadata")
+@Validated
+public class IndexMetadataCacheProperties {
+
+    @Builder.Default
+    private long maximumSize = 1000;
+
+    @Builder.Default
+    private long ttlMillis = 5 * 60 * 1000;
+
+    // how long an index is known to be missing before it is looked up again
+    @Builder.Default
+    private long negativeTtlMillis = 10 * 1000;
+}
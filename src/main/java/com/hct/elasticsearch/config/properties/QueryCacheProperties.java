@@ -0,0 +1,38 @@
+package com.hct.elasticsearch.config.properties;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Configuration
+@ConfigurationProperties(prefix = "query.cache")
+@Validated
+public class QueryCacheProperties {
+
+    @Builder.Default
+    private boolean enabled = false;
+
+    // entry count bound, used when no weight bound is set
+    @Builder.Default
+    private long maximumSize = 10000;
+
+    // bound on the summed _source bytes of the cached results, <= 0 bounds by entry count instead
+    @Builder.Default
+    private long maximumWeightBytes = 0;
+
+    @Builder.Default
+    private long ttlMillis = 60000;
+
+    // index refresh interval: writes invalidate a second time once it elapsed, dropping results
+    // that were loaded before the write became searchable. <= 0 disables
+    @Builder.Default
+    private long indexRefreshIntervalMillis = 1000;
+}
@@ -8,6 +8,7 @@ import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.validation.annotation.Validated;
 
+import javax.validation.constraints.Min;
 import javax.validation.constraints.NotNull;
 
 @Data
@@ -28,4 +29,37 @@ public class QueryConfigurationProperties {
     @NotNull
     private String storedTemplateId;
 
+    @Min(1)
+    @Builder.Default
+    private int streamPageSize = 1000;
+
+    // search_after sort field of single slice streams, a keyword field with doc values holding one unique value
+    // per document; not _id, which 6.x sorts through heap fielddata. Unset, the streams use a scroll sorted by _doc
+    private String streamSortField;
+
+    @Builder.Default
+    private long scrollKeepAliveMillis = 60000;
+
+    // background refresh of the cached stored templates, <= 0 disables
+    @Builder.Default
+    private long templateRefreshIntervalMillis = 60000;
+
+    // sub-queries per msearch request, larger argument maps are split into parallel batches
+    @Min(1)
+    @Builder.Default
+    private int multiSearchBatchSize = 50;
+
+    // max_concurrent_searches of each msearch request, 0 leaves it to the cluster
+    @Min(0)
+    @Builder.Default
+    private int multiSearchMaxConcurrentSearchRequests = 0;
+
+    // render stored templates client side and send the query inline
+    @Builder.Default
+    private boolean renderTemplatesLocally = false;
+
+    // typed queries decode the sources of pages with at least this many hits in parallel, <= 0 never
+    @Builder.Default
+    private int typedDecodeParallelThreshold = 256;
+
 }
\ No newline at end of file
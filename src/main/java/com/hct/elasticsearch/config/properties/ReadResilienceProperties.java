@@ -0,0 +1,76 @@
+package com.hct.elasticsearch.config.properties;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.DecimalMax;
+import javax.validation.constraints.DecimalMin;
+import javax.validation.constraints.Min;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Configuration
+@ConfigurationProperties(prefix = "elasticsearch.resilience")
+@Validated
+public class ReadResilienceProperties {
+
+    // hedging, retries and circuit breaking of getDocumentById, query, queryMatches and querySearchAll
+    @Builder.Default
+    private boolean enabled = false;
+
+    // a duplicate request is sent once a read has been running for this latency percentile
+    @Builder.Default
+    private boolean hedgingEnabled = true;
+    @DecimalMin("0.5")
+    @DecimalMax("0.999")
+    @Builder.Default
+    private double hedgePercentile = 0.95;
+    // no hedging until an operation has this many latency samples
+    @Min(1)
+    @Builder.Default
+    private int hedgeMinSamples = 100;
+    @Min(0)
+    @Builder.Default
+    private long hedgeMinDelayMillis = 5;
+    // the percentile is taken over latencies of this last window
+    @Min(100)
+    @Builder.Default
+    private long hedgeWindowMillis = 30000;
+    // threads running hedged reads, reads are not hedged while they are all busy
+    @Min(1)
+    @Builder.Default
+    private int hedgeThreads = 32;
+
+    // retries of 429, 502, 503, 504 and connection failures, with full jitter backoff
+    @Min(0)
+    @Builder.Default
+    private int maxRetries = 2;
+    @Builder.Default
+    private long retryBaseDelayMillis = 20;
+    @Builder.Default
+    private long retryMaxDelayMillis = 500;
+    // retries allowed per read, so that retries can not multiply the load of a struggling cluster
+    @DecimalMin("0.0")
+    @Builder.Default
+    private double retryBudgetRatio = 0.1;
+
+    // per index breaker, opened when this share of the last breakerWindowSize reads failed
+    @DecimalMin(value = "0.0", inclusive = false)
+    @DecimalMax("1.0")
+    @Builder.Default
+    private double breakerFailureRateThreshold = 0.5;
+    @Min(1)
+    @Builder.Default
+    private int breakerWindowSize = 20;
+    // reads fail fast for this long before a single probe is let through
+    @Min(1)
+    @Builder.Default
+    private long breakerOpenMillis = 5000;
+}
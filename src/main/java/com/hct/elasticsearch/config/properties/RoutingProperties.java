@@ -0,0 +1,41 @@
+package com.hct.elasticsearch.config.properties;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.NotEmpty;
+import java.util.ArrayList;
+import java.util.List;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Configuration
+@ConfigurationProperties(prefix = "elasticsearch.routing")
+@Validated
+public class RoutingProperties {
+
+    // route the calls made without an explicit routing by the value of a field
+    @Builder.Default
+    private boolean enabled = false;
+
+    // top level field of the documents and parameter of the searches holding the routing, e.g. the tenant
+    @NotEmpty
+    @Builder.Default
+    private String field = "tenant_id";
+
+    // ids of routed documents are made of the routing, this separator and the rest, so every call on them routes alike
+    @NotEmpty
+    @Builder.Default
+    private String idSeparator = ":";
+
+    // indices routed by the field, empty routes them all
+    @Builder.Default
+    private List<String> indices = new ArrayList<>();
+}
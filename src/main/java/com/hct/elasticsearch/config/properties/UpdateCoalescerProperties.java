@@ -0,0 +1,42 @@
+package com.hct.elasticsearch.config.properties;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.Min;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Configuration
+@ConfigurationProperties(prefix = "elasticsearch.update-coalescer")
+@Validated
+public class UpdateCoalescerProperties {
+
+    // merge partial updates of the same document and send them through the bulk ingestor
+    @Builder.Default
+    private boolean enabled = false;
+
+    // buffered updates are sent at this interval
+    @Min(1)
+    @Builder.Default
+    private long windowMillis = 200;
+
+    // buffered updates are sent as soon as this many distinct documents are waiting
+    @Min(1)
+    @Builder.Default
+    private int maxBufferedDocuments = 1000;
+
+    @Min(0)
+    @Builder.Default
+    private int retryOnConflict = 3;
+
+    @Builder.Default
+    private long closeTimeoutMillis = 30000;
+}
@@ -0,0 +1,67 @@
+package com.hct.elasticsearch.config.properties;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.Min;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Configuration
+@ConfigurationProperties(prefix = "elasticsearch.warm-up")
+@Validated
+public class WarmUpProperties {
+
+    // the warmUp health indicator is OUT_OF_SERVICE until connections, templates and queries are warmed up
+    @Builder.Default
+    private boolean enabled = false;
+
+    // connections opened up front to each node, at most elasticsearch.max-conn-per-route are kept
+    @Min(0)
+    @Builder.Default
+    private int connectionsPerNode = 4;
+
+    // stored templates loaded besides query.stored-template-id
+    @Builder.Default
+    private List<String> templates = new ArrayList<>();
+
+    // representative template queries, each run query-iterations times
+    @Builder.Default
+    private List<Query> queries = new ArrayList<>();
+
+    @Min(0)
+    @Builder.Default
+    private int queryIterations = 100;
+
+    // the application is reported ready after this long even if the warm-up has not finished
+    @Min(1)
+    @Builder.Default
+    private long timeoutMillis = 60000;
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    @Builder
+    public static class Query {
+
+        // query.default-index when empty
+        private String index;
+
+        // query.stored-template-id when empty
+        private String templateId;
+
+        @Builder.Default
+        private Map<String, Object> parameters = new HashMap<>();
+    }
+}
@@ -0,0 +1,46 @@
+package com.hct.elasticsearch.config.properties;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.Min;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Configuration
+@ConfigurationProperties(prefix = "web.streaming")
+@Validated
+public class WebStreamingProperties {
+
+    // threads writing streamed responses, i.e. the max number of concurrent exports
+    @Min(1)
+    @Builder.Default
+    private int threads = 16;
+
+    // streamed responses waiting for a thread, further ones are rejected with 503
+    @Min(0)
+    @Builder.Default
+    private int queueCapacity = 64;
+
+    // hits written between two flushes of the response, the first hit is always flushed right away
+    @Min(1)
+    @Builder.Default
+    private int flushEveryHits = 500;
+
+    // slices an export may ask for, more are cut down to this; each slice is a scroll context and a thread
+    @Min(1)
+    @Builder.Default
+    private int maxSlices = 8;
+
+    // async request timeout, 0 lets exports run for as long as they need
+    @Min(0)
+    @Builder.Default
+    private long timeoutMillis = 0;
+}
@@ -0,0 +1,22 @@
+package com.hct.elasticsearch.config.properties;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Configuration
+@ConfigurationProperties(prefix = "elasticsearch.workload")
+@Validated
+public class WorkloadRecorderProperties {
+
+    // when set, every request sent to Elasticsearch is appended to this ndjson file for WorkloadReplayer
+    private String recordFile;
+}
@@ -0,0 +1,55 @@
+package com.hct.elasticsearch.config.properties;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.validation.annotation.Validated;
+
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotEmpty;
+
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+@Configuration
+@ConfigurationProperties(prefix = "elasticsearch.write-behind")
+@Validated
+public class WriteBehindProperties {
+
+    // saveDocument and updateDocument return once the write is fsynced to the local log, a drainer sends it later
+    @Builder.Default
+    private boolean enabled = false;
+
+    // holds the log segments and the checkpoint, must survive restarts
+    @NotEmpty
+    @Builder.Default
+    private String directory = "write-behind";
+
+    // size of each memory-mapped segment file, also the largest possible record
+    @Min(4096)
+    @Builder.Default
+    private int segmentBytes = 64 * 1024 * 1024;
+
+    // records sent per bulk request by the drainer
+    @Min(1)
+    @Builder.Default
+    private int drainBatchSize = 1000;
+
+    // bytes of records sent per bulk by the drainer, below the http.max_content_length of the cluster
+    @Min(1)
+    @Builder.Default
+    private int drainBatchBytes = 5 * 1024 * 1024;
+
+    // backoff of the drainer while the cluster rejects or fails its bulks
+    @Builder.Default
+    private long drainRetryInitialMillis = 100;
+    @Builder.Default
+    private long drainRetryMaxMillis = 10000;
+
+    @Builder.Default
+    private long closeTimeoutMillis = 30000;
+}
@@ -0,0 +1,29 @@
+package com.hct.elasticsearch.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+
+@Data
+@Builder
+public class BulkIngestResult {
+
+    private long succeeded;
+    private long failed;
+    private List<Failure> failures;
+
+    public boolean hasFailures() {
+        return failed > 0;
+    }
+
+    @Data
+    @Builder
+    public static class Failure {
+        private String index;
+        private String type;
+        private String id;
+        private int status;
+        private String message;
+    }
+}
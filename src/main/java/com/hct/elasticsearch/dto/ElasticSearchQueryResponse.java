@@ -1,8 +1,15 @@
 package com.hct.elasticsearch.dto;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import lombok.Builder;
 import lombok.Data;
 
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
 @Data
 @Builder
 public class ElasticSearchQueryResponse {
@@ -10,6 +17,41 @@ public class ElasticSearchQueryResponse {
     private String id;
     private String index;
     private String type;
+    private Float score;
     private String source;
+    // bytes the source string is lazily decoded from, when the hit came from Elasticsearch
+    @JsonIgnore
+    private RawSource rawSource;
+    // doc value and stored fields asked for by a Projection
+    private Map<String, List<Object>> fields;
+
+    public String getSource() {
+        if (source == null && rawSource != null) {
+            source = rawSource.asString();
+        }
+        return source;
+    }
+
+    public void setSource(String source) {
+        this.source = source;
+        this.rawSource = null;
+    }
+
+    public void setRawSource(RawSource rawSource) {
+        this.rawSource = rawSource;
+        this.source = null;
+    }
+
+    /**
+     * Writes the source to the stream, passing the raw bytes through when they are available.
+     */
+    public void writeSourceTo(OutputStream out) throws IOException {
+        if (rawSource != null) {
+            rawSource.writeTo(out);
+        }
+        else if (source != null) {
+            out.write(source.getBytes(StandardCharsets.UTF_8));
+        }
+    }
 
-}
\ No newline at end of file
+}
@@ -0,0 +1,24 @@
+package com.hct.elasticsearch.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.Map;
+import java.util.Set;
+
+@Data
+@Builder
+public class IndexMetadata {
+
+    private String index;
+    private boolean exists;
+    // concrete indices behind the name, which may be an alias or a pattern
+    private Set<String> concreteIndices;
+    private Set<String> aliases;
+    // mapping source by type
+    private Map<String, Map<String, Object>> mappings;
+
+    public static IndexMetadata missing(String index) {
+        return IndexMetadata.builder().index(index).exists(false).build();
+    }
+}
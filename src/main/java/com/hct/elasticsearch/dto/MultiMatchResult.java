@@ -0,0 +1,20 @@
+package com.hct.elasticsearch.dto;
+
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.List;
+import java.util.Map;
+
+@Data
+@Builder
+public class MultiMatchResult {
+
+    private List<ElasticSearchQueryResponse> hits;
+    // failure of each sub-query that did not complete, by field
+    private Map<String, Exception> errors;
+
+    public boolean hasErrors() {
+        return errors != null && !errors.isEmpty();
+    }
+}
@@ -0,0 +1,50 @@
+package com.hct.elasticsearch.dto;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import lombok.Builder;
+import lombok.Data;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * What to bring back for each hit: _source filtering, doc value fields and stored fields.
+ * Doc value and stored fields are returned in {@link ElasticSearchQueryResponse#getFields()}.
+ */
+@Data
+@Builder
+public class Projection {
+
+    // _source fields to return, wildcards allowed, empty for all of them
+    @Builder.Default
+    private List<String> includes = Collections.emptyList();
+    @Builder.Default
+    private List<String> excludes = Collections.emptyList();
+    @Builder.Default
+    private boolean fetchSource = true;
+    @Builder.Default
+    private List<String> docValueFields = Collections.emptyList();
+    @Builder.Default
+    private List<String> storedFields = Collections.emptyList();
+
+    public static Projection all() {
+        return Projection.builder().build();
+    }
+
+    public static Projection includes(String... fields) {
+        return Projection.builder().includes(Arrays.asList(fields)).build();
+    }
+
+    public static Projection noSource() {
+        return Projection.builder().fetchSource(false).build();
+    }
+
+    /**
+     * @return true when nothing is filtered out and no field is requested, the default of every query
+     */
+    @JsonIgnore
+    public boolean isAll() {
+        return fetchSource && includes.isEmpty() && excludes.isEmpty() && docValueFields.isEmpty() && storedFields.isEmpty();
+    }
+}
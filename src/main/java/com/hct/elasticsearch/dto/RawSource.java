@@ -0,0 +1,93 @@
+package com.hct.elasticsearch.dto;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A document _source kept as the UTF-8 bytes received from Elasticsearch.
+ * The string view is decoded once on first use, the other views read the bytes directly.
+ */
+public final class RawSource {
+
+    private final BytesReference bytes;
+    private volatile String string;
+
+    private RawSource(BytesReference bytes) {
+        this.bytes = bytes;
+    }
+
+    public static RawSource of(BytesReference bytes) {
+        return bytes == null ? null : new RawSource(bytes);
+    }
+
+    public static RawSource of(byte[] bytes) {
+        return bytes == null ? null : new RawSource(new BytesArray(bytes));
+    }
+
+    public BytesReference bytes() {
+        return bytes;
+    }
+
+    public int length() {
+        return bytes.length();
+    }
+
+    public String asString() {
+        String result = string;
+        if (result == null) {
+            result = bytes.utf8ToString();
+            string = result;
+        }
+        return result;
+    }
+
+    public JsonNode asJsonNode(ObjectMapper objectMapper) throws IOException {
+        BytesRef bytesRef = bytes.toBytesRef();
+        return objectMapper.readValue(bytesRef.bytes, bytesRef.offset, bytesRef.length, JsonNode.class);
+    }
+
+    public <T> T as(Class<T> type, ObjectMapper objectMapper) throws IOException {
+        BytesRef bytesRef = bytes.toBytesRef();
+        return objectMapper.readValue(bytesRef.bytes, bytesRef.offset, bytesRef.length, type);
+    }
+
+    public <T> T as(ObjectReader objectReader) throws IOException {
+        BytesRef bytesRef = bytes.toBytesRef();
+        return objectReader.readValue(bytesRef.bytes, bytesRef.offset, bytesRef.length);
+    }
+
+    /**
+     * Writes the source as is, without decoding it.
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        bytes.writeTo(out);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof RawSource)) {
+            return false;
+        }
+        return bytes.equals(((RawSource) o).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return bytes.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return "RawSource(length=" + length() + ")";
+    }
+}
@@ -0,0 +1,1009 @@
+package com.hct.elasticsearch.fake;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.hct.elasticsearch.config.properties.FakeElasticSearchProperties;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpHost;
+import org.elasticsearch.common.UUIDs;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.TemplateScript;
+import org.elasticsearch.script.mustache.MustacheScriptEngine;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * In-memory stand-in for a single Elasticsearch 6.6 node, answering the REST calls made by the services:
+ * index exists/get/create/delete, index _settings, _refresh and _forcemerge, document index/get/update/delete,
+ * _mget, _bulk, _search, _msearch, _search/template and _scripts.
+ *
+ * Queries are limited to match_all, match, term, ids and bool; documents come back in _id order and only
+ * _id can be used to sort and search_after. Scroll and slices are not supported. Documents are only found with
+ * the routing they were written with, as if every routing had a shard of its own. Every response can be
+ * delayed and a share of them replaced by errors to see how callers behave under a slow or failing cluster.
+ */
+@Slf4j
+public class FakeElasticSearchServer implements AutoCloseable {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+    private static final JsonNodeFactory NODES = JsonNodeFactory.instance;
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+    private static final Map<String, String> COMPILE_OPTIONS =
+            Collections.singletonMap(Script.CONTENT_TYPE_OPTION, XContentType.JSON.mediaType());
+
+    private final FakeElasticSearchProperties properties;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final ConcurrentMap<String, ConcurrentNavigableMap<String, StoredDocument>> indices = new ConcurrentHashMap<>();
+    // index settings set through _settings, keyed without the index. prefix
+    private final ConcurrentMap<String, ObjectNode> settingsByIndex = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, String> scripts = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, TemplateScript.Factory> compiledTemplates = new ConcurrentHashMap<>();
+    private final MustacheScriptEngine mustacheScriptEngine = new MustacheScriptEngine();
+    private final AtomicLong sequenceNumber = new AtomicLong();
+
+    private FakeElasticSearchServer(FakeElasticSearchProperties properties) throws IOException {
+        this.properties = properties;
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), properties.getPort()), 0);
+        AtomicInteger threadSequence = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(properties.getThreads(), runnable -> {
+            Thread thread = new Thread(runnable, "fake-elasticsearch-" + threadSequence.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.createContext("/", this::handle);
+    }
+
+    public static FakeElasticSearchServer start(FakeElasticSearchProperties properties) throws IOException {
+        FakeElasticSearchServer fakeElasticSearchServer = new FakeElasticSearchServer(properties);
+        fakeElasticSearchServer.server.start();
+        log.info("fake elasticsearch listening on " + fakeElasticSearchServer.getHttpHost());
+        return fakeElasticSearchServer;
+    }
+
+    public HttpHost getHttpHost() {
+        InetSocketAddress address = server.getAddress();
+        return new HttpHost(address.getHostString(), address.getPort(), "http");
+    }
+
+    /**
+     * Drops every index and stored script.
+     */
+    public void clear() {
+        indices.clear();
+        settingsByIndex.clear();
+        scripts.clear();
+        compiledTemplates.clear();
+    }
+
+    public int count(String index) {
+        Map<String, StoredDocument> documents = indices.get(index);
+        return documents == null ? 0 : documents.size();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        byte[] body;
+        try (InputStream requestBody = isGzip(exchange.getRequestHeaders().getFirst("Content-Encoding"))
+                ? new GZIPInputStream(exchange.getRequestBody())
+                : exchange.getRequestBody()) {
+            body = IOUtils.toByteArray(requestBody);
+        }
+        String method = exchange.getRequestMethod();
+        try {
+            injectLatency();
+            Reply reply;
+            if (properties.getErrorRate() > 0 && ThreadLocalRandom.current().nextDouble() < properties.getErrorRate()) {
+                reply = error(new FakeException(properties.getErrorStatus(), injectedErrorType(properties.getErrorStatus()), "injected failure", null));
+            }
+            else {
+                reply = route(method, path(exchange), query(exchange), body);
+            }
+            respond(exchange, method, reply);
+        }
+        catch (FakeException fe) {
+            respond(exchange, method, error(fe));
+        }
+        catch (JsonProcessingException jpe) {
+            respond(exchange, method, error(new FakeException(400, "parse_exception", jpe.getOriginalMessage(), null)));
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            exchange.close();
+        }
+        catch (Exception e) {
+            log.warn("fake elasticsearch errors on " + method + " " + exchange.getRequestURI(), e);
+            respond(exchange, method, error(new FakeException(500, "exception", String.valueOf(e.getMessage()), null)));
+        }
+    }
+
+    private Reply route(String method, List<String> path, Map<String, String> query, byte[] body) throws IOException {
+        if (path.isEmpty()) {
+            return ok(info());
+        }
+        String first = path.get(0);
+        if ("_bulk".equals(first)) {
+            return ok(bulk(null, body));
+        }
+        if ("_msearch".equals(first)) {
+            return ok(msearch(null, body, query));
+        }
+        if ("_mget".equals(first)) {
+            return ok(mget(null, body));
+        }
+        if ("_search".equals(first)) {
+            return path.size() > 1 && "template".equals(path.get(1))
+                    ? ok(searchTemplate("_all", body, query))
+                    : ok(search("_all", json(body), query));
+        }
+        if ("_scripts".equals(first) && path.size() == 2) {
+            return script(method, path.get(1), body);
+        }
+
+        switch (path.size()) {
+            case 1:
+                return index(method, first);
+            case 2:
+                if ("_search".equals(path.get(1))) {
+                    return ok(search(first, json(body), query));
+                }
+                if ("_msearch".equals(path.get(1))) {
+                    return ok(msearch(first, body, query));
+                }
+                if ("_mget".equals(path.get(1))) {
+                    return ok(mget(first, body));
+                }
+                if ("_bulk".equals(path.get(1))) {
+                    return ok(bulk(first, body));
+                }
+                if ("_refresh".equals(path.get(1)) || "_forcemerge".equals(path.get(1))) {
+                    resolve(first, false);
+                    return ok(shards(NODES.objectNode()));
+                }
+                if ("_settings".equals(path.get(1))) {
+                    return settings(method, first, body);
+                }
+                if ("POST".equals(method)) {
+                    return write(first, path.get(1), null, json(body), "create".equals(query.get("op_type")), query.get("routing"));
+                }
+                break;
+            case 3:
+                if ("_search".equals(path.get(1)) && "template".equals(path.get(2))) {
+                    return ok(searchTemplate(first, body, query));
+                }
+                return document(method, first, path.get(1), path.get(2), query, body);
+            case 4:
+                if ("_update".equals(path.get(3)) && "POST".equals(method)) {
+                    return update(first, path.get(1), path.get(2), json(body), query.get("routing"));
+                }
+                if ("_create".equals(path.get(3))) {
+                    return write(first, path.get(1), path.get(2), json(body), true, query.get("routing"));
+                }
+                break;
+            default:
+                break;
+        }
+        throw new FakeException(400, "illegal_argument_exception", "no handler found for uri [/" + String.join("/", path) + "] and method [" + method + "]", null);
+    }
+
+    // index level
+
+    private Reply index(String method, String index) {
+        switch (method) {
+            case "HEAD":
+                return new Reply(resolve(index, true).isEmpty() ? 404 : 200, null);
+            case "GET":
+                ObjectNode result = NODES.objectNode();
+                for (String name : resolve(index, false)) {
+                    result.putObject(name).putObject("settings").set("index", indexSettings(name));
+                    result.with(name).putObject("aliases");
+                    result.with(name).putObject("mappings");
+                }
+                return ok(result);
+            case "PUT":
+                if (indices.putIfAbsent(index, new ConcurrentSkipListMap<>()) != null) {
+                    throw new FakeException(400, "resource_already_exists_exception", "index [" + index + "] already exists", index);
+                }
+                return ok(NODES.objectNode().put("acknowledged", true).put("shards_acknowledged", true).put("index", index));
+            case "DELETE":
+                for (String name : resolve(index, false)) {
+                    indices.remove(name);
+                    settingsByIndex.remove(name);
+                }
+                return ok(NODES.objectNode().put("acknowledged", true));
+            default:
+                throw new FakeException(405, "illegal_argument_exception", "method [" + method + "] not allowed on [" + index + "]", index);
+        }
+    }
+
+    private Reply settings(String method, String index, byte[] body) throws IOException {
+        switch (method) {
+            case "GET":
+                ObjectNode result = NODES.objectNode();
+                for (String name : resolve(index, false)) {
+                    result.putObject(name).putObject("settings").set("index", indexSettings(name));
+                }
+                return ok(result);
+            case "PUT":
+                Map<String, JsonNode> updates = new LinkedHashMap<>();
+                flatten("", json(body), updates);
+                for (String name : resolve(index, false)) {
+                    ObjectNode indexSettings = settingsByIndex.computeIfAbsent(name, ignored -> NODES.objectNode());
+                    synchronized (indexSettings) {
+                        updates.forEach((key, value) -> {
+                            String setting = key.startsWith("index.") ? key.substring("index.".length()) : key;
+                            if (value.isNull()) {
+                                indexSettings.remove(setting);
+                            }
+                            else {
+                                indexSettings.put(setting, value.asText());
+                            }
+                        });
+                    }
+                }
+                return ok(NODES.objectNode().put("acknowledged", true));
+            default:
+                throw new FakeException(405, "illegal_argument_exception", "method [" + method + "] not allowed on [" + index + "/_settings]", index);
+        }
+    }
+
+    private ObjectNode indexSettings(String index) {
+        ObjectNode result = NODES.objectNode()
+                .put("number_of_shards", "1")
+                .put("number_of_replicas", "0")
+                .put("provided_name", index);
+        ObjectNode indexSettings = settingsByIndex.get(index);
+        if (indexSettings != null) {
+            synchronized (indexSettings) {
+                result.setAll(indexSettings);
+            }
+        }
+        return result;
+    }
+
+    private static void flatten(String prefix, JsonNode node, Map<String, JsonNode> into) {
+        if (node.isObject()) {
+            node.fields().forEachRemaining(field -> flatten(prefix + field.getKey() + (field.getValue().isObject() ? "." : ""), field.getValue(), into));
+        }
+        else {
+            into.put(prefix, node);
+        }
+    }
+
+    // documents
+
+    private Reply document(String method, String index, String type, String id, Map<String, String> query, byte[] body) throws IOException {
+        switch (method) {
+            case "GET":
+                return get(index, type, id, query.get("routing"));
+            case "HEAD":
+                return new Reply(get(index, type, id, query.get("routing")).status, null);
+            case "PUT":
+            case "POST":
+                return write(index, type, id, json(body), "create".equals(query.get("op_type")), query.get("routing"));
+            case "DELETE":
+                return delete(index, type, id);
+            default:
+                throw new FakeException(405, "illegal_argument_exception", "method [" + method + "] not allowed", index);
+        }
+    }
+
+    private Reply get(String index, String type, String id, String routing) {
+        StoredDocument document = documents(index).get(id);
+        ObjectNode result = NODES.objectNode()
+                .put("_index", index)
+                .put("_type", type)
+                .put("_id", id);
+        // written with another routing, the document is on a shard this get does not look at
+        if (document == null || !Objects.equals(document.routing, routing)) {
+            result.put("found", false);
+            return new Reply(404, result);
+        }
+        result.put("_version", document.version)
+                .put("_seq_no", document.seqNo)
+                .put("_primary_term", 1)
+                .put("found", true)
+                .set("_source", document.source);
+        return ok(result);
+    }
+
+    private ObjectNode mget(String defaultIndex, byte[] body) throws IOException {
+        JsonNode request = json(body);
+        ArrayNode docs = NODES.arrayNode();
+        for (JsonNode item : request.path("docs")) {
+            String index = item.path("_index").asText(defaultIndex);
+            String type = item.path("_type").asText("_doc");
+            String id = item.path("_id").asText();
+            try {
+                docs.add(get(index, type, id, routing(item)).body);
+            }
+            catch (FakeException fe) {
+                docs.addObject()
+                        .put("_index", index)
+                        .put("_type", type)
+                        .put("_id", id)
+                        .set("error", fe.toXContent());
+            }
+        }
+        ObjectNode response = NODES.objectNode();
+        response.set("docs", docs);
+        return response;
+    }
+
+    private Reply write(String index, String type, String id, JsonNode source, boolean create, String routing) {
+        if (!source.isObject()) {
+            throw new FakeException(400, "mapper_parsing_exception", "failed to parse, document is empty", index);
+        }
+        String documentId = id == null ? UUIDs.base64UUID() : id;
+        ConcurrentNavigableMap<String, StoredDocument> documents = indices.computeIfAbsent(index, name -> new ConcurrentSkipListMap<>());
+
+        StoredDocument[] previous = new StoredDocument[1];
+        StoredDocument stored = documents.compute(documentId, (key, existing) -> {
+            if (existing != null && create) {
+                throw new FakeException(409, "version_conflict_engine_exception",
+                        "[" + type + "][" + key + "]: version conflict, document already exists (current version [" + existing.version + "])", index);
+            }
+            previous[0] = existing;
+            return new StoredDocument(type, key, routing, existing == null ? 1 : existing.version + 1, sequenceNumber.getAndIncrement(), (ObjectNode) source);
+        });
+        boolean created = previous[0] == null;
+        return new Reply(created ? 201 : 200, writeResult(index, stored, created ? "created" : "updated"));
+    }
+
+    private Reply update(String index, String type, String id, JsonNode request, String routing) {
+        if (request.has("script")) {
+            throw new FakeException(400, "illegal_argument_exception", "scripted updates are not supported", index);
+        }
+        JsonNode doc = request.path("doc");
+        JsonNode upsert = request.has("upsert") ? request.get("upsert") : request.path("doc_as_upsert").asBoolean() ? doc : null;
+        ConcurrentNavigableMap<String, StoredDocument> documents = documents(index);
+
+        String[] result = new String[1];
+        StoredDocument stored = documents.compute(id, (key, stale) -> {
+            StoredDocument existing = stale != null && Objects.equals(stale.routing, routing) ? stale : null;
+            if (existing == null) {
+                if (upsert == null || !upsert.isObject()) {
+                    throw new FakeException(404, "document_missing_exception", "[" + type + "][" + key + "]: document missing", index);
+                }
+                result[0] = "created";
+                return new StoredDocument(type, key, routing, 1, sequenceNumber.getAndIncrement(), (ObjectNode) upsert.deepCopy());
+            }
+            ObjectNode merged = existing.source.deepCopy();
+            merge(merged, doc);
+            if (merged.equals(existing.source)) {
+                result[0] = "noop";
+                return existing;
+            }
+            result[0] = "updated";
+            return new StoredDocument(existing.type, key, routing, existing.version + 1, sequenceNumber.getAndIncrement(), merged);
+        });
+        return new Reply("created".equals(result[0]) ? 201 : 200, writeResult(index, stored, result[0]));
+    }
+
+    private Reply delete(String index, String type, String id) {
+        StoredDocument removed = documents(index).remove(id);
+        if (removed == null) {
+            return new Reply(404, writeResult(index, new StoredDocument(type, id, null, 1, sequenceNumber.getAndIncrement(), null), "not_found"));
+        }
+        return ok(writeResult(index, new StoredDocument(removed.type, id, removed.routing, removed.version + 1, sequenceNumber.getAndIncrement(), null), "deleted"));
+    }
+
+    private static ObjectNode writeResult(String index, StoredDocument document, String result) {
+        ObjectNode response = NODES.objectNode()
+                .put("_index", index)
+                .put("_type", document.type)
+                .put("_id", document.id)
+                .put("_version", document.version)
+                .put("result", result);
+        shards(response);
+        return response.put("_seq_no", document.seqNo).put("_primary_term", 1);
+    }
+
+    private static void merge(ObjectNode target, JsonNode changes) {
+        Iterator<Map.Entry<String, JsonNode>> fields = changes.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            JsonNode current = target.get(field.getKey());
+            if (current != null && current.isObject() && field.getValue().isObject()) {
+                merge((ObjectNode) current, field.getValue());
+            }
+            else {
+                target.set(field.getKey(), field.getValue().deepCopy());
+            }
+        }
+    }
+
+    private ObjectNode bulk(String defaultIndex, byte[] body) throws IOException {
+        long start = System.nanoTime();
+        ArrayNode items = NODES.arrayNode();
+        boolean errors = false;
+
+        List<JsonNode> lines = ndjson(body);
+        for (int i = 0; i < lines.size(); i++) {
+            Map.Entry<String, JsonNode> action = lines.get(i).fields().next();
+            String opType = action.getKey();
+            JsonNode metadata = action.getValue();
+            String index = metadata.path("_index").asText(defaultIndex);
+            String type = metadata.path("_type").asText("_doc");
+            String id = metadata.hasNonNull("_id") ? metadata.get("_id").asText() : null;
+            JsonNode source = "delete".equals(opType) ? null : lines.get(++i);
+
+            ObjectNode item;
+            try {
+                Reply reply;
+                switch (opType) {
+                    case "index":
+                    case "create":
+                        reply = write(index, type, id, source, "create".equals(opType), routing(metadata));
+                        break;
+                    case "update":
+                        reply = update(index, type, id, source, routing(metadata));
+                        break;
+                    case "delete":
+                        reply = delete(index, type, id);
+                        break;
+                    default:
+                        throw new FakeException(400, "illegal_argument_exception", "unknown bulk action [" + opType + "]", index);
+                }
+                item = ((ObjectNode) reply.body).put("status", reply.status);
+            }
+            catch (FakeException fe) {
+                errors = true;
+                item = NODES.objectNode().put("_index", index).put("_type", type).put("_id", id).put("status", fe.status);
+                item.set("error", fe.toXContent());
+            }
+            items.addObject().set(opType, item);
+        }
+        ObjectNode response = NODES.objectNode()
+                .put("took", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+                .put("errors", errors);
+        response.set("items", items);
+        return response;
+    }
+
+    private static String routing(JsonNode metadata) {
+        JsonNode routing = metadata.hasNonNull("routing") ? metadata.get("routing") : metadata.get("_routing");
+        return routing == null || routing.isNull() ? null : routing.asText();
+    }
+
+    // search
+
+    private ObjectNode msearch(String defaultIndex, byte[] body, Map<String, String> query) throws IOException {
+        long start = System.nanoTime();
+        ArrayNode responses = NODES.arrayNode();
+        List<JsonNode> lines = ndjson(body);
+        for (int i = 0; i + 1 < lines.size(); i += 2) {
+            JsonNode header = lines.get(i);
+            JsonNode indexNode = header.path("index");
+            String index = indexNode.isArray() ? join(indexNode) : indexNode.asText(defaultIndex == null ? "_all" : defaultIndex);
+            try {
+                responses.add(search(index, lines.get(i + 1), query).put("status", 200));
+            }
+            catch (FakeException fe) {
+                responses.addObject().put("status", fe.status).set("error", fe.toXContent());
+            }
+        }
+        ObjectNode response = NODES.objectNode().put("took", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        response.set("responses", responses);
+        return response;
+    }
+
+    private ObjectNode searchTemplate(String index, byte[] body, Map<String, String> query) throws IOException {
+        JsonNode request = json(body);
+        String source;
+        if (request.hasNonNull("id")) {
+            String id = request.get("id").asText();
+            source = scripts.get(id);
+            if (source == null) {
+                throw new FakeException(404, "resource_not_found_exception", "unable to find script [" + id + "] in cluster state", null);
+            }
+        }
+        else if (request.has("source")) {
+            JsonNode inline = request.get("source");
+            source = inline.isTextual() ? inline.asText() : OBJECT_MAPPER.writeValueAsString(inline);
+        }
+        else {
+            throw new FakeException(400, "illegal_argument_exception", "template is missing", null);
+        }
+
+        Map<String, Object> parameters = request.has("params")
+                ? OBJECT_MAPPER.convertValue(request.get("params"), Map.class)
+                : Collections.emptyMap();
+        String rendered = compiledTemplates
+                .computeIfAbsent(source, template -> mustacheScriptEngine.compile("fake", template, TemplateScript.CONTEXT, COMPILE_OPTIONS))
+                .newInstance(parameters)
+                .execute();
+        return search(index, OBJECT_MAPPER.readTree(rendered), query);
+    }
+
+    private ObjectNode search(String index, JsonNode request, Map<String, String> query) {
+        long start = System.nanoTime();
+        if (query.containsKey("scroll") || request.has("slice")) {
+            throw new FakeException(400, "illegal_argument_exception", "scroll and slices are not supported", null);
+        }
+        boolean sortById = sortsById(request.path("sort"));
+        String searchAfter = sortById && request.has("search_after") ? request.get("search_after").path(0).asText() : null;
+        JsonNode queryNode = request.path("query");
+        int from = request.path("from").asInt(0);
+        int size = request.path("size").asInt(10);
+        String routing = query.get("routing");
+
+        List<StoredDocument> matches = new ArrayList<>();
+        List<String> matchedIndices = new ArrayList<>();
+        for (String name : resolve(index, Boolean.parseBoolean(query.get("ignore_unavailable")))) {
+            for (StoredDocument document : documents(name).values()) {
+                if (searchAfter != null && document.id.compareTo(searchAfter) <= 0) {
+                    continue;
+                }
+                if (routing != null && !routing.equals(document.routing)) {
+                    continue;
+                }
+                if (matches(queryNode, document)) {
+                    matches.add(document);
+                    matchedIndices.add(name);
+                }
+            }
+        }
+
+        List<Integer> order = new ArrayList<>(matches.size());
+        for (int i = 0; i < matches.size(); i++) {
+            order.add(i);
+        }
+        if (sortById) {
+            order.sort(Comparator.comparing(i -> matches.get(i).id));
+        }
+
+        ArrayNode hits = NODES.arrayNode();
+        for (int i = from; i < Math.min(from + size, order.size()); i++) {
+            StoredDocument document = matches.get(order.get(i));
+            ObjectNode hit = hits.addObject()
+                    .put("_index", matchedIndices.get(order.get(i)))
+                    .put("_type", document.type)
+                    .put("_id", document.id);
+            if (sortById) {
+                hit.putNull("_score");
+            }
+            else {
+                hit.put("_score", 1.0f);
+            }
+            hit.set("_source", document.source);
+            if (sortById) {
+                hit.putArray("sort").add(document.id);
+            }
+        }
+
+        ObjectNode response = NODES.objectNode()
+                .put("took", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start))
+                .put("timed_out", false);
+        response.putObject("_shards").put("total", 1).put("successful", 1).put("skipped", 0).put("failed", 0);
+        ObjectNode hitsNode = response.putObject("hits").put("total", matches.size());
+        if (sortById || matches.isEmpty()) {
+            hitsNode.putNull("max_score");
+        }
+        else {
+            hitsNode.put("max_score", 1.0f);
+        }
+        hitsNode.set("hits", hits);
+        return response;
+    }
+
+    private static boolean sortsById(JsonNode sort) {
+        if (sort.isMissingNode() || sort.isNull()) {
+            return false;
+        }
+        JsonNode first = sort.isArray() ? sort.path(0) : sort;
+        String field = first.isTextual() ? first.asText() : first.fieldNames().hasNext() ? first.fieldNames().next() : "";
+        switch (field) {
+            case "_id":
+                return true;
+            case "_doc":
+            case "_score":
+            case "":
+                return false;
+            default:
+                throw new FakeException(400, "illegal_argument_exception", "sorting on [" + field + "] is not supported", null);
+        }
+    }
+
+    private boolean matches(JsonNode query, StoredDocument document) {
+        if (query.isMissingNode() || query.size() == 0) {
+            return true;
+        }
+        Map.Entry<String, JsonNode> clause = query.fields().next();
+        JsonNode body = clause.getValue();
+        switch (clause.getKey()) {
+            case "match_all":
+                return true;
+            case "match": {
+                Map.Entry<String, JsonNode> field = body.fields().next();
+                JsonNode value = field.getValue().isObject() ? field.getValue().path("query") : field.getValue();
+                List<String> expected = tokens(value.asText());
+                for (JsonNode actual : values(document.source, field.getKey())) {
+                    for (String token : tokens(actual.asText())) {
+                        if (expected.contains(token)) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            }
+            case "term": {
+                Map.Entry<String, JsonNode> field = body.fields().next();
+                JsonNode value = field.getValue().isObject() ? field.getValue().path("value") : field.getValue();
+                for (JsonNode actual : values(document.source, field.getKey())) {
+                    if (actual.asText().equals(value.asText())) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            case "ids":
+                for (JsonNode id : body.path("values")) {
+                    if (id.asText().equals(document.id)) {
+                        return true;
+                    }
+                }
+                return false;
+            case "bool": {
+                for (JsonNode must : clauses(body.path("must"))) {
+                    if (!matches(must, document)) {
+                        return false;
+                    }
+                }
+                for (JsonNode filter : clauses(body.path("filter"))) {
+                    if (!matches(filter, document)) {
+                        return false;
+                    }
+                }
+                for (JsonNode mustNot : clauses(body.path("must_not"))) {
+                    if (matches(mustNot, document)) {
+                        return false;
+                    }
+                }
+                List<JsonNode> should = clauses(body.path("should"));
+                if (should.isEmpty() || body.has("must") || body.has("filter")) {
+                    return true;
+                }
+                for (JsonNode clauseNode : should) {
+                    if (matches(clauseNode, document)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            default:
+                throw new FakeException(400, "parsing_exception", "query [" + clause.getKey() + "] is not supported", null);
+        }
+    }
+
+    private static List<JsonNode> clauses(JsonNode node) {
+        List<JsonNode> clauses = new ArrayList<>();
+        if (node.isArray()) {
+            node.forEach(clauses::add);
+        }
+        else if (node.isObject()) {
+            clauses.add(node);
+        }
+        return clauses;
+    }
+
+    private static List<JsonNode> values(JsonNode source, String path) {
+        List<JsonNode> current = Collections.singletonList(source);
+        for (String segment : path.split("\\.")) {
+            List<JsonNode> next = new ArrayList<>();
+            for (JsonNode node : current) {
+                JsonNode child = node.path(segment);
+                if (child.isArray()) {
+                    child.forEach(next::add);
+                }
+                else if (!child.isMissingNode() && !child.isNull()) {
+                    next.add(child);
+                }
+            }
+            current = next;
+        }
+        return current;
+    }
+
+    private static List<String> tokens(String text) {
+        List<String> tokens = new ArrayList<>();
+        for (String token : TOKEN_SEPARATOR.split(text.toLowerCase(Locale.ROOT))) {
+            if (!token.isEmpty()) {
+                tokens.add(token);
+            }
+        }
+        return tokens;
+    }
+
+    // scripts
+
+    private Reply script(String method, String id, byte[] body) throws IOException {
+        switch (method) {
+            case "GET": {
+                String source = scripts.get(id);
+                ObjectNode result = NODES.objectNode().put("_id", id).put("found", source != null);
+                if (source == null) {
+                    return new Reply(404, result);
+                }
+                result.putObject("script").put("lang", MustacheScriptEngine.NAME).put("source", source);
+                return ok(result);
+            }
+            case "PUT":
+            case "POST": {
+                JsonNode source = json(body).path("script").path("source");
+                if (source.isMissingNode()) {
+                    throw new FakeException(400, "illegal_argument_exception", "must specify source for stored script", null);
+                }
+                scripts.put(id, source.isTextual() ? source.asText() : OBJECT_MAPPER.writeValueAsString(source));
+                return ok(NODES.objectNode().put("acknowledged", true));
+            }
+            case "DELETE":
+                if (scripts.remove(id) == null) {
+                    throw new FakeException(404, "resource_not_found_exception", "stored script [" + id + "] does not exist", null);
+                }
+                return ok(NODES.objectNode().put("acknowledged", true));
+            default:
+                throw new FakeException(405, "illegal_argument_exception", "method [" + method + "] not allowed", null);
+        }
+    }
+
+    // helpers
+
+    private ConcurrentNavigableMap<String, StoredDocument> documents(String index) {
+        ConcurrentNavigableMap<String, StoredDocument> documents = indices.get(index);
+        if (documents == null) {
+            throw indexNotFound(index);
+        }
+        return documents;
+    }
+
+    private List<String> resolve(String expression, boolean ignoreUnavailable) {
+        List<String> names = new ArrayList<>();
+        for (String part : expression.split(",")) {
+            if ("_all".equals(part) || part.contains("*")) {
+                Pattern pattern = Pattern.compile(("_all".equals(part) ? "*" : part).replace(".", "\\.").replace("*", ".*"));
+                indices.keySet().stream().filter(name -> pattern.matcher(name).matches()).sorted().forEach(names::add);
+            }
+            else if (indices.containsKey(part)) {
+                names.add(part);
+            }
+            else if (!ignoreUnavailable) {
+                throw indexNotFound(part);
+            }
+        }
+        return names;
+    }
+
+    private static FakeException indexNotFound(String index) {
+        return new FakeException(404, "index_not_found_exception", "no such index", index);
+    }
+
+    private static ObjectNode shards(ObjectNode response) {
+        response.putObject("_shards").put("total", 1).put("successful", 1).put("failed", 0);
+        return response;
+    }
+
+    private static ObjectNode info() {
+        ObjectNode info = NODES.objectNode()
+                .put("name", "fake")
+                .put("cluster_name", "fake-elasticsearch")
+                .put("cluster_uuid", "_na_");
+        info.putObject("version")
+                .put("number", "6.6.0")
+                .put("build_flavor", "default")
+                .put("build_type", "tar")
+                .put("build_hash", "a9861f4")
+                .put("build_date", "2019-01-24T11:27:09.439740Z")
+                .put("build_snapshot", false)
+                .put("lucene_version", "7.6.0")
+                .put("minimum_wire_compatibility_version", "5.6.0")
+                .put("minimum_index_compatibility_version", "5.0.0");
+        return info.put("tagline", "You Know, for Search");
+    }
+
+    private static String injectedErrorType(int status) {
+        switch (status) {
+            case 429:
+                return "es_rejected_execution_exception";
+            case 503:
+                return "unavailable_shards_exception";
+            case 504:
+                return "timeout_exception";
+            default:
+                return "exception";
+        }
+    }
+
+    private void injectLatency() throws InterruptedException {
+        long latency = properties.getLatencyMillis();
+        if (properties.getLatencyJitterMillis() > 0) {
+            latency += ThreadLocalRandom.current().nextLong(properties.getLatencyJitterMillis() + 1);
+        }
+        if (latency > 0) {
+            Thread.sleep(latency);
+        }
+    }
+
+    private static JsonNode json(byte[] body) throws IOException {
+        return body.length == 0 ? NODES.objectNode() : OBJECT_MAPPER.readTree(body);
+    }
+
+    private static List<JsonNode> ndjson(byte[] body) throws IOException {
+        List<JsonNode> lines = new ArrayList<>();
+        for (String line : new String(body, StandardCharsets.UTF_8).split("\n")) {
+            if (!line.trim().isEmpty()) {
+                lines.add(OBJECT_MAPPER.readTree(line));
+            }
+        }
+        return lines;
+    }
+
+    private static String join(JsonNode array) {
+        List<String> values = new ArrayList<>();
+        array.forEach(value -> values.add(value.asText()));
+        return String.join(",", values);
+    }
+
+    private static List<String> path(HttpExchange exchange) throws IOException {
+        List<String> segments = new ArrayList<>();
+        for (String segment : exchange.getRequestURI().getRawPath().split("/")) {
+            if (!segment.isEmpty()) {
+                segments.add(URLDecoder.decode(segment, "UTF-8"));
+            }
+        }
+        return segments;
+    }
+
+    private static Map<String, String> query(HttpExchange exchange) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        String rawQuery = exchange.getRequestURI().getRawQuery();
+        if (rawQuery != null) {
+            for (String parameter : rawQuery.split("&")) {
+                int separator = parameter.indexOf('=');
+                String name = separator < 0 ? parameter : parameter.substring(0, separator);
+                String value = separator < 0 ? "" : parameter.substring(separator + 1);
+                parameters.put(URLDecoder.decode(name, "UTF-8"), URLDecoder.decode(value, "UTF-8"));
+            }
+        }
+        return parameters;
+    }
+
+    private static Reply ok(JsonNode body) {
+        return new Reply(200, body);
+    }
+
+    private static Reply error(FakeException fe) {
+        ObjectNode body = NODES.objectNode();
+        body.set("error", fe.toXContent());
+        return new Reply(fe.status, body.put("status", fe.status));
+    }
+
+    private static boolean isGzip(String contentEncoding) {
+        return contentEncoding != null && "gzip".equalsIgnoreCase(contentEncoding.trim());
+    }
+
+    private static void respond(HttpExchange exchange, String method, Reply reply) throws IOException {
+        if ("HEAD".equals(method) || reply.body == null) {
+            exchange.sendResponseHeaders(reply.status, -1);
+            exchange.close();
+            return;
+        }
+        byte[] bytes = OBJECT_MAPPER.writeValueAsBytes(reply.body);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=UTF-8");
+        // like a node with http.compression enabled
+        String acceptEncoding = exchange.getRequestHeaders().getFirst("Accept-Encoding");
+        if (acceptEncoding != null && acceptEncoding.toLowerCase(Locale.ROOT).contains("gzip")) {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream gzip = new GZIPOutputStream(compressed)) {
+                gzip.write(bytes);
+            }
+            bytes = compressed.toByteArray();
+            exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+        }
+        exchange.sendResponseHeaders(reply.status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private static class Reply {
+
+        private final int status;
+        private final JsonNode body;
+
+        Reply(int status, JsonNode body) {
+            this.status = status;
+            this.body = body;
+        }
+    }
+
+    private static class StoredDocument {
+
+        private final String type;
+        private final String id;
+        private final String routing;
+        private final long version;
+        private final long seqNo;
+        // never mutated once stored
+        private final ObjectNode source;
+
+        StoredDocument(String type, String id, String routing, long version, long seqNo, ObjectNode source) {
+            this.type = type;
+            this.id = id;
+            this.routing = routing;
+            this.version = version;
+            this.seqNo = seqNo;
+            this.source = source;
+        }
+    }
+
+    private static class FakeException extends RuntimeException {
+
+        private final int status;
+        private final String type;
+        private final String index;
+
+        FakeException(int status, String type, String reason, String index) {
+            super(reason);
+            this.status = status;
+            this.type = type;
+            this.index = index;
+        }
+
+        ObjectNode toXContent() {
+            ObjectNode cause = NODES.objectNode()
+                    .put("type", type)
+                    .put("reason", getMessage());
+            if (index != null) {
+                cause.put("index_uuid", "_na_").put("index", index);
+            }
+            ObjectNode error = cause.deepCopy();
+            error.putArray("root_cause").add(cause);
+            return error;
+        }
+    }
+}
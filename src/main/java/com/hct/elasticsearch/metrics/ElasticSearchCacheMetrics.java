@@ -0,0 +1,32 @@
+package com.hct.elasticsearch.metrics;
+
+import com.hct.elasticsearch.service.QueryResultCache;
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.springframework.stereotype.Component;
+
+@Component
+public class ElasticSearchCacheMetrics implements MeterBinder {
+
+    private QueryResultCache queryResultCache;
+
+    public ElasticSearchCacheMetrics(QueryResultCache queryResultCache) {
+        this.queryResultCache = queryResultCache;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        FunctionCounter.builder("elasticsearch.query.cache.gets", queryResultCache, cache -> cache.getStats().hitCount())
+                .tag("result", "hit")
+                .register(registry);
+        FunctionCounter.builder("elasticsearch.query.cache.gets", queryResultCache, cache -> cache.getStats().missCount())
+                .tag("result", "miss")
+                .register(registry);
+        FunctionCounter.builder("elasticsearch.query.cache.evictions", queryResultCache, cache -> cache.getStats().evictionCount())
+                .register(registry);
+        Gauge.builder("elasticsearch.query.cache.size", queryResultCache, QueryResultCache::getSize)
+                .register(registry);
+    }
+}
@@ -0,0 +1,36 @@
+package com.hct.elasticsearch.metrics;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.springframework.stereotype.Component;
+
+/**
+ * Gauges over the async http client's connection pool, bound to the registry by Spring Boot.
+ */
+@Component
+public class ElasticSearchConnectionPoolMetrics implements MeterBinder {
+
+    private PoolingNHttpClientConnectionManager elasticSearchConnectionManager;
+
+    public ElasticSearchConnectionPoolMetrics(PoolingNHttpClientConnectionManager elasticSearchConnectionManager) {
+        this.elasticSearchConnectionManager = elasticSearchConnectionManager;
+    }
+
+    @Override
+    public void bindTo(MeterRegistry registry) {
+        Gauge.builder("elasticsearch.client.pool.leased", elasticSearchConnectionManager, cm -> cm.getTotalStats().getLeased())
+                .description("connections currently executing a request")
+                .register(registry);
+        Gauge.builder("elasticsearch.client.pool.available", elasticSearchConnectionManager, cm -> cm.getTotalStats().getAvailable())
+                .description("idle connections kept alive in the pool")
+                .register(registry);
+        Gauge.builder("elasticsearch.client.pool.pending", elasticSearchConnectionManager, cm -> cm.getTotalStats().getPending())
+                .description("requests waiting for a connection")
+                .register(registry);
+        Gauge.builder("elasticsearch.client.pool.max", elasticSearchConnectionManager, cm -> cm.getTotalStats().getMax())
+                .description("maximum number of connections")
+                .register(registry);
+    }
+}
@@ -0,0 +1,255 @@
+package com.hct.elasticsearch.metrics;
+
+import com.hct.elasticsearch.config.properties.ElasticSearchMetricsProperties;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.rest.RestStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Latency, hit count and error meters for the calls made to Elasticsearch, plus the slow operation log.
+ *
+ * Meters are looked up once per tag set and kept, since registering one goes through the registry's lock.
+ */
+@Component
+@Slf4j
+public class ElasticSearchMetrics {
+
+    public static final String REQUESTS = "elasticsearch.client.requests";
+    public static final String ERRORS = "elasticsearch.client.errors";
+    public static final String HITS = "elasticsearch.client.hits";
+    public static final String REQUEST_BYTES = "elasticsearch.client.request.bytes";
+    public static final String RESPONSE_BYTES = "elasticsearch.client.response.bytes";
+    public static final String COMPRESSION_RATIO = "elasticsearch.client.compression.ratio";
+    public static final String COMPRESSION_BYTES = "elasticsearch.client.compression.bytes";
+    public static final String COMPRESSION_TIME = "elasticsearch.client.compression.time";
+    public static final String RESILIENCE = "elasticsearch.client.resilience";
+    public static final String ADMISSION = "elasticsearch.client.admission";
+
+    private MeterRegistry meterRegistry;
+    private ElasticSearchMetricsProperties properties;
+    private final Counter requestBytes;
+    private final Counter responseBytes;
+    private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, DistributionSummary> hits = new ConcurrentHashMap<>();
+    private final ConcurrentMap<List<String>, Counter> errors = new ConcurrentHashMap<>();
+    private final ConcurrentMap<List<String>, Counter> resilience = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, CompressionMeters> compression = new ConcurrentHashMap<>();
+
+    @Autowired
+    public ElasticSearchMetrics(MeterRegistry meterRegistry, ElasticSearchMetricsProperties properties) {
+        this.meterRegistry = meterRegistry;
+        this.properties = properties;
+        this.requestBytes = Counter.builder(REQUEST_BYTES)
+                .description("bytes of the request bodies sent to Elasticsearch")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        this.responseBytes = Counter.builder(RESPONSE_BYTES)
+                .description("bytes of the response bodies received from Elasticsearch")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+    }
+
+    @FunctionalInterface
+    public interface Call<T, E extends Exception> {
+        T call() throws E;
+    }
+
+    /**
+     * @param detail what the call was about, only evaluated when a slow operation is logged
+     */
+    public <T, E extends Exception> T record(String operation, String index, Supplier<?> detail, Call<T, E> call) throws E {
+        long start = System.nanoTime();
+        try {
+            T result = call.call();
+            recordHits(operation, result);
+            return result;
+        }
+        catch (Exception e) {
+            recordError(operation, e);
+            throw e;
+        }
+        finally {
+            stop(operation, index, detail, System.nanoTime() - start);
+        }
+    }
+
+    public <T> CompletableFuture<T> recordAsync(String operation, String index, Supplier<?> detail, Supplier<CompletableFuture<T>> call) {
+        long start = System.nanoTime();
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        }
+        catch (RuntimeException re) {
+            recordError(operation, re);
+            stop(operation, index, detail, System.nanoTime() - start);
+            throw re;
+        }
+        return future.whenComplete((result, throwable) -> {
+            if (throwable != null) {
+                recordError(operation, throwable);
+            }
+            else {
+                recordHits(operation, result);
+            }
+            stop(operation, index, detail, System.nanoTime() - start);
+        });
+    }
+
+    public void recordRequestBytes(long bytes) {
+        if (bytes > 0) {
+            requestBytes.increment(bytes);
+        }
+    }
+
+    public void recordResponseBytes(long bytes) {
+        if (bytes > 0) {
+            responseBytes.increment(bytes);
+        }
+    }
+
+    /**
+     * @param direction request for gzipped bodies sent, response for gzipped bodies received
+     * @param nanos time spent compressing or inflating, which is cpu time as the bodies are in memory
+     */
+    public void recordCompression(String direction, long plainBytes, long compressedBytes, long nanos) {
+        if (plainBytes <= 0 || compressedBytes <= 0) {
+            return;
+        }
+        CompressionMeters meters = compression.computeIfAbsent(direction, CompressionMeters::new);
+        meters.ratio.record((double) plainBytes / compressedBytes);
+        meters.plainBytes.increment(plainBytes);
+        meters.compressedBytes.increment(compressedBytes);
+        meters.time.record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * @param event hedge, hedge_won, retry or rejected by an open circuit breaker
+     */
+    public void recordResilience(String event, String operation) {
+        resilience.computeIfAbsent(Arrays.asList(event, operation), ignored -> Counter.builder(RESILIENCE)
+                .description("hedged, retried and rejected reads")
+                .tag("event", event)
+                .tag("operation", operation)
+                .register(meterRegistry))
+                .increment();
+    }
+
+    public void registerAdmission(String operationType, Supplier<Number> limit, Supplier<Number> inFlight, Supplier<Number> queued) {
+        Gauge.builder(ADMISSION, limit).description("adaptive concurrency limit").tag("type", operationType)
+                .tag("state", "limit").register(meterRegistry);
+        Gauge.builder(ADMISSION, inFlight).description("adaptive concurrency limit").tag("type", operationType)
+                .tag("state", "in_flight").register(meterRegistry);
+        Gauge.builder(ADMISSION, queued).description("adaptive concurrency limit").tag("type", operationType)
+                .tag("state", "queued").register(meterRegistry);
+    }
+
+    public void recordError(String operation, Throwable throwable) {
+        String status = status(throwable);
+        errors.computeIfAbsent(Arrays.asList(operation, status), ignored -> Counter.builder(ERRORS)
+                .tag("operation", operation)
+                .tag("status", status)
+                .register(meterRegistry))
+                .increment();
+    }
+
+    public Timer timer(String operation) {
+        return timers.computeIfAbsent(operation, ignored -> Timer.builder(REQUESTS)
+                .description("latency of the calls made to Elasticsearch")
+                .tag("operation", operation)
+                .publishPercentiles(0.5, 0.95, 0.99)
+                .publishPercentileHistogram()
+                .register(meterRegistry));
+    }
+
+    private void recordHits(String operation, Object result) {
+        if (result instanceof Collection) {
+            hits.computeIfAbsent(operation, ignored -> DistributionSummary.builder(HITS)
+                    .description("hits returned by a call")
+                    .tag("operation", operation)
+                    .publishPercentiles(0.5, 0.95, 0.99)
+                    .register(meterRegistry))
+                    .record(((Collection<?>) result).size());
+        }
+    }
+
+    private void stop(String operation, String index, Supplier<?> detail, long durationNanos) {
+        timer(operation).record(durationNanos, TimeUnit.NANOSECONDS);
+
+        long threshold = properties.getSlowOperationThresholdMillis();
+        long durationMillis = TimeUnit.NANOSECONDS.toMillis(durationNanos);
+        if (threshold > 0 && durationMillis >= threshold) {
+            log.warn("slow elasticsearch operation:{}, took:{}ms, index:{}, detail:{}",
+                    operation, durationMillis, index, properties.isLogSlowOperationParameters() && detail != null ? detail.get() : "-");
+        }
+    }
+
+    private class CompressionMeters {
+
+        private final DistributionSummary ratio;
+        private final Counter plainBytes;
+        private final Counter compressedBytes;
+        private final Timer time;
+
+        CompressionMeters(String direction) {
+            this.ratio = DistributionSummary.builder(COMPRESSION_RATIO)
+                    .description("plain size divided by gzipped size of a body")
+                    .tag("direction", direction)
+                    .register(meterRegistry);
+            this.plainBytes = Counter.builder(COMPRESSION_BYTES)
+                    .description("bytes of the gzipped bodies before and after compression")
+                    .baseUnit("bytes")
+                    .tag("direction", direction)
+                    .tag("encoding", "identity")
+                    .register(meterRegistry);
+            this.compressedBytes = Counter.builder(COMPRESSION_BYTES)
+                    .description("bytes of the gzipped bodies before and after compression")
+                    .baseUnit("bytes")
+                    .tag("direction", direction)
+                    .tag("encoding", "gzip")
+                    .register(meterRegistry);
+            this.time = Timer.builder(COMPRESSION_TIME)
+                    .description("time spent gzipping request bodies and inflating response bodies")
+                    .tag("direction", direction)
+                    .register(meterRegistry);
+        }
+    }
+
+    static String status(Throwable throwable) {
+        Throwable cause = throwable instanceof CompletionException && throwable.getCause() != null ? throwable.getCause() : throwable;
+        if (cause instanceof ResponseException) {
+            RestStatus status = RestStatus.fromCode(((ResponseException) cause).getResponse().getStatusLine().getStatusCode());
+            return status == null ? "UNKNOWN" : status.name();
+        }
+        Throwable unwrapped = ExceptionsHelper.unwrapCause(cause);
+        if (unwrapped instanceof ElasticsearchException) {
+            return ((ElasticsearchException) unwrapped).status().name();
+        }
+        if (unwrapped instanceof IOException) {
+            return "IO_ERROR";
+        }
+        if (unwrapped.getCause() != null && unwrapped.getCause() != unwrapped) {
+            return status(unwrapped.getCause());
+        }
+        return unwrapped.getClass().getSimpleName();
+    }
+}
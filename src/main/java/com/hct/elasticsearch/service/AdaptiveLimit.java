@@ -0,0 +1,97 @@
+package com.hct.elasticsearch.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Concurrency limit with a bounded wait queue, adjusted by additive increase and multiplicative decrease:
+ * every call that used the limit and completed in time adds 1/limit, so the limit grows by about one per
+ * round of calls, and an overload signal multiplies it by the backoff ratio, at most once per round.
+ */
+class AdaptiveLimit {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final long latencyThresholdNanos;
+    private final int maxQueued;
+    private final long maxWaitNanos;
+
+    private double limit;
+    private int inFlight;
+    private int queued;
+    // calls started before the last decrease carry no news about the decreased limit
+    private long lastDecrease;
+
+    AdaptiveLimit(int initialLimit, int minLimit, int maxLimit, double backoffRatio, long latencyThresholdMillis,
+                  int maxQueued, long maxWaitMillis) {
+        this.limit = initialLimit;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.backoffRatio = backoffRatio;
+        this.latencyThresholdNanos = TimeUnit.MILLISECONDS.toNanos(latencyThresholdMillis);
+        this.maxQueued = maxQueued;
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+        this.lastDecrease = System.nanoTime();
+    }
+
+    /**
+     * @return the start time of the admitted call, to hand back to {@link #release(long, boolean)}
+     * @throws AdmissionRejectedException when the queue is full or no slot frees up in time
+     */
+    synchronized long acquire(String operationType) throws InterruptedException {
+        if (inFlight >= (int) limit) {
+            if (queued >= maxQueued) {
+                throw new AdmissionRejectedException(operationType, (int) limit);
+            }
+            queued++;
+            try {
+                long deadline = System.nanoTime() + maxWaitNanos;
+                long remaining = maxWaitNanos;
+                while (inFlight >= (int) limit && remaining > 0) {
+                    TimeUnit.NANOSECONDS.timedWait(this, remaining);
+                    remaining = deadline - System.nanoTime();
+                }
+            }
+            finally {
+                queued--;
+            }
+            if (inFlight >= (int) limit) {
+                throw new AdmissionRejectedException(operationType, (int) limit);
+            }
+        }
+        inFlight++;
+        return System.nanoTime();
+    }
+
+    /**
+     * @param overloaded whether Elasticsearch pushed back, e.g. with a 429
+     */
+    synchronized void release(long start, boolean overloaded) {
+        long now = System.nanoTime();
+        // growing a limit the load does not come close to would only let a later burst through unchecked
+        boolean used = inFlight * 2 >= limit;
+        inFlight--;
+        if (overloaded || now - start > latencyThresholdNanos) {
+            if (start - lastDecrease >= 0) {
+                limit = Math.max(minLimit, limit * backoffRatio);
+                lastDecrease = now;
+            }
+        }
+        else if (used) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+        notifyAll();
+    }
+
+    synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    synchronized int getQueued() {
+        return queued;
+    }
+}
@@ -0,0 +1,131 @@
+package com.hct.elasticsearch.service;
+
+import com.hct.elasticsearch.config.properties.AdmissionControlProperties;
+import com.hct.elasticsearch.metrics.ElasticSearchMetrics;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.rest.RestStatus;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Admission control of the calls the service makes, with one {@link AdaptiveLimit} per operation type.
+ *
+ * Calls beyond the limit wait in a bounded queue for a short while and are shed with
+ * {@link AdmissionRejectedException} after that, so a cluster answering 429 sees the load drop
+ * to what it can take instead of callers retrying at full speed.
+ */
+public class AdmissionController {
+
+    public static final String WRITE = "write";
+    public static final String SEARCH = "search";
+
+    private final AdmissionControlProperties properties;
+    private final ElasticSearchMetrics elasticSearchMetrics;
+    private final Map<String, AdaptiveLimit> limits = new ConcurrentHashMap<>();
+
+    public AdmissionController(AdmissionControlProperties properties, ElasticSearchMetrics elasticSearchMetrics) {
+        this.properties = properties;
+        this.elasticSearchMetrics = elasticSearchMetrics;
+    }
+
+    public <T> T call(String operationType, ElasticSearchMetrics.Call<T, IOException> call) throws IOException {
+        AdaptiveLimit limit = limits.computeIfAbsent(operationType, this::newLimit);
+        long start;
+        try {
+            start = limit.acquire(operationType);
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for admission", ie);
+        }
+        catch (AdmissionRejectedException are) {
+            elasticSearchMetrics.recordError(operationType, are);
+            throw are;
+        }
+
+        boolean overloaded = false;
+        try {
+            return call.call();
+        }
+        catch (IOException | RuntimeException e) {
+            overloaded = isRejectedExecution(e);
+            throw e;
+        }
+        finally {
+            limit.release(start, overloaded);
+        }
+    }
+
+    /**
+     * Admits a call completing asynchronously, which holds its slot until the returned future completes.
+     * The wait for admission happens in the calling thread; a shed call completes exceptionally.
+     *
+     * @param overloaded tells whether a successful response still carries rejections, e.g. msearch items
+     */
+    public <T> CompletableFuture<T> callAsync(String operationType, Supplier<CompletableFuture<T>> call, Predicate<T> overloaded) {
+        AdaptiveLimit limit = limits.computeIfAbsent(operationType, this::newLimit);
+        long start;
+        try {
+            start = limit.acquire(operationType);
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return failed(new IOException("interrupted while waiting for admission", ie));
+        }
+        catch (AdmissionRejectedException are) {
+            elasticSearchMetrics.recordError(operationType, are);
+            return failed(are);
+        }
+
+        CompletableFuture<T> future;
+        try {
+            future = call.get();
+        }
+        catch (RuntimeException re) {
+            limit.release(start, isRejectedExecution(re));
+            throw re;
+        }
+        return future.whenComplete((response, failure) -> limit.release(start, failure == null
+                ? overloaded.test(response)
+                : isRejectedExecution(failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure)));
+    }
+
+    int getLimit(String operationType) {
+        AdaptiveLimit limit = limits.get(operationType);
+        return limit == null ? properties.getInitialLimit() : limit.getLimit();
+    }
+
+    private AdaptiveLimit newLimit(String operationType) {
+        AdaptiveLimit limit = new AdaptiveLimit(properties.getInitialLimit(), properties.getMinLimit(), properties.getMaxLimit(),
+                properties.getBackoffRatio(), properties.getLatencyThresholdMillis(),
+                properties.getMaxQueued(), properties.getMaxWaitMillis());
+        elasticSearchMetrics.registerAdmission(operationType, limit::getLimit, limit::getInFlight, limit::getQueued);
+        return limit;
+    }
+
+    private static <T> CompletableFuture<T> failed(Exception e) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        future.completeExceptionally(e);
+        return future;
+    }
+
+    static boolean isRejectedExecution(Throwable failure) {
+        if (failure instanceof ResponseException) {
+            return ((ResponseException) failure).getResponse().getStatusLine().getStatusCode() == RestStatus.TOO_MANY_REQUESTS.getStatus();
+        }
+        Throwable cause = ExceptionsHelper.unwrapCause(failure);
+        if (cause instanceof ElasticsearchException) {
+            return ((ElasticsearchException) cause).status() == RestStatus.TOO_MANY_REQUESTS;
+        }
+        // the service wraps client failures in plain runtime exceptions
+        return failure.getCause() != null && failure.getCause() != failure && isRejectedExecution(failure.getCause());
+    }
+}
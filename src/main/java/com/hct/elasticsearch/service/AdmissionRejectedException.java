@@ -0,0 +1,11 @@
+package com.hct.elasticsearch.service;
+
+/**
+ * Thrown when a call is shed by the admission control instead of being sent to Elasticsearch.
+ */
+public class AdmissionRejectedException extends RuntimeException {
+
+    public AdmissionRejectedException(String operationType, int limit) {
+        super("too many concurrent " + operationType + " calls, limit:" + limit);
+    }
+}
@@ -0,0 +1,67 @@
+package com.hct.elasticsearch.service;
+
+import com.hct.elasticsearch.dto.BulkIngestResult;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Aggregates the per-item futures of one bulk ingest call without keeping the futures themselves,
+ * so the memory held stays proportional to the failures only.
+ */
+class BulkIngestTracker {
+
+    private long outstanding;
+    private long succeeded;
+    private final List<BulkIngestResult.Failure> failures = new ArrayList<>();
+
+    void track(CompletableFuture<BulkItemResponse> future) {
+        synchronized (this) {
+            outstanding++;
+        }
+        future.whenComplete((item, throwable) -> {
+            synchronized (this) {
+                if (throwable != null) {
+                    failures.add(BulkIngestResult.Failure.builder()
+                            .status(ExceptionsHelper.status(throwable).getStatus())
+                            .message(throwable.getMessage())
+                            .build());
+                }
+                else if (item.isFailed()) {
+                    failures.add(BulkIngestResult.Failure.builder()
+                            .index(item.getIndex())
+                            .type(item.getType())
+                            .id(item.getId())
+                            .status(item.status().getStatus())
+                            .message(item.getFailureMessage())
+                            .build());
+                }
+                else {
+                    succeeded++;
+                }
+                outstanding--;
+                notifyAll();
+            }
+        });
+    }
+
+    synchronized BulkIngestResult await() {
+        try {
+            while (outstanding > 0) {
+                wait();
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while waiting for bulk ingest", ie);
+        }
+        return BulkIngestResult.builder()
+                .succeeded(succeeded)
+                .failed(failures.size())
+                .failures(new ArrayList<>(failures))
+                .build();
+    }
+}
@@ -0,0 +1,302 @@
+package com.hct.elasticsearch.service;
+
+import com.hct.elasticsearch.config.properties.BulkIngestorProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BackoffPolicy;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkProcessor;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.support.WriteRequest;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.ByteSizeUnit;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.common.xcontent.LoggingDeprecationHandler;
+import org.elasticsearch.common.xcontent.NamedXContentRegistry;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Long-lived bulk pipeline on top of {@link BulkProcessor}.
+ *
+ * Every accepted action gets its own future, completed with the item response of the bulk that
+ * finally carried it. Items rejected by the cluster with 429 are re-queued with exponential backoff
+ * while still holding their pending permit, so {@link #add(DocWriteRequest)} blocks callers for as
+ * long as the cluster keeps pushing back.
+ */
+@Slf4j
+public class BulkIngestor implements Closeable {
+
+    private static final ContentType NDJSON = ContentType.create("application/x-ndjson");
+
+    private final BulkProcessor bulkProcessor;
+    private final Semaphore pendingPermits;
+    private final int maxPendingActions;
+    private final int maxRetries;
+    private final long initialBackoffMillis;
+    private final long closeTimeoutMillis;
+    private final boolean flushesOnInterval;
+    private final ScheduledExecutorService retryScheduler;
+    // BulkRequest keeps the request instances we hand over, so they are the natural correlation key
+    private final Map<DocWriteRequest<?>, PendingItem> pending = Collections.synchronizedMap(new IdentityHashMap<>());
+
+    public BulkIngestor(RestHighLevelClient elasticSearchClient, BulkIngestorProperties properties) {
+        this(elasticSearchClient, properties, HttpCompression.disabled());
+    }
+
+    /**
+     * @param httpCompression bulks it says are worth compressing are sent gzipped through the low level client
+     */
+    public BulkIngestor(RestHighLevelClient elasticSearchClient, BulkIngestorProperties properties, HttpCompression httpCompression) {
+        this.maxPendingActions = properties.getMaxPendingActions();
+        this.pendingPermits = new Semaphore(maxPendingActions);
+        this.maxRetries = properties.getMaxRetries();
+        this.initialBackoffMillis = properties.getInitialBackoffMillis();
+        this.closeTimeoutMillis = properties.getCloseTimeoutMillis();
+        this.flushesOnInterval = properties.getFlushIntervalMillis() > 0;
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "bulk-ingestor-retry");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        BulkProcessor.Builder builder = BulkProcessor.builder(
+                (request, listener) -> {
+                    if (httpCompression.shouldCompress(request.estimatedSizeInBytes())) {
+                        bulkCompressed(elasticSearchClient.getLowLevelClient(), httpCompression, request, listener);
+                    }
+                    else {
+                        elasticSearchClient.bulkAsync(request, httpCompression.requestOptions(), listener);
+                    }
+                },
+                new CompletingListener())
+                .setBulkActions(properties.getBulkActions())
+                .setBulkSize(new ByteSizeValue(properties.getBulkSizeBytes(), ByteSizeUnit.BYTES))
+                .setConcurrentRequests(properties.getConcurrentRequests())
+                // retries are done per item by this class, BulkProcessor's own retry reorders the items
+                .setBackoffPolicy(BackoffPolicy.noBackoff());
+        if (flushesOnInterval) {
+            builder.setFlushInterval(TimeValue.timeValueMillis(properties.getFlushIntervalMillis()));
+        }
+        this.bulkProcessor = builder.build();
+    }
+
+    public CompletableFuture<BulkItemResponse> add(DocWriteRequest<?> request) {
+        try {
+            pendingPermits.acquire();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException("interrupted while waiting for bulk capacity", ie);
+        }
+
+        PendingItem item = new PendingItem();
+        pending.put(request, item);
+        try {
+            bulkProcessor.add(request);
+        }
+        catch (RuntimeException re) {
+            pending.remove(request);
+            pendingPermits.release();
+            throw re;
+        }
+        return item.future;
+    }
+
+    public void flush() {
+        bulkProcessor.flush();
+    }
+
+    public int getPendingActions() {
+        return maxPendingActions - pendingPermits.availablePermits();
+    }
+
+    @Override
+    public void close() {
+        try {
+            bulkProcessor.flush();
+            // wait for in-flight bulks and scheduled retries before tearing the processor down
+            if (pendingPermits.tryAcquire(maxPendingActions, closeTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                pendingPermits.release(maxPendingActions);
+            }
+            else {
+                log.warn("bulk ingestor closed with {} pending actions", getPendingActions());
+            }
+            bulkProcessor.awaitClose(closeTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            retryScheduler.shutdownNow();
+            failAll(new IllegalStateException("bulk ingestor closed"));
+        }
+    }
+
+    private static void bulkCompressed(RestClient restClient, HttpCompression httpCompression, BulkRequest bulkRequest,
+                                       ActionListener<BulkResponse> listener) {
+        Request request = new Request(HttpPost.METHOD_NAME, "/_bulk");
+        try {
+            request.setEntity(httpCompression.compress(new ByteArrayEntity(BulkRequestBody.write(bulkRequest), NDJSON)));
+        }
+        catch (IOException ioe) {
+            listener.onFailure(ioe);
+            return;
+        }
+        httpCompression.negotiate(request);
+        if (bulkRequest.timeout() != null) {
+            request.addParameter("timeout", bulkRequest.timeout().getStringRep());
+        }
+        if (bulkRequest.getRefreshPolicy() != WriteRequest.RefreshPolicy.NONE) {
+            request.addParameter("refresh", bulkRequest.getRefreshPolicy().getValue());
+        }
+        restClient.performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                BulkResponse bulkResponse;
+                try (XContentParser parser = XContentType.JSON.xContent().createParser(NamedXContentRegistry.EMPTY,
+                        LoggingDeprecationHandler.INSTANCE, response.getEntity().getContent())) {
+                    bulkResponse = BulkResponse.fromXContent(parser);
+                }
+                catch (Exception e) {
+                    listener.onFailure(e);
+                    return;
+                }
+                listener.onResponse(bulkResponse);
+            }
+
+            @Override
+            public void onFailure(Exception exception) {
+                // same shape as the high level client failures, so rejections are still retried
+                if (exception instanceof ResponseException) {
+                    int status = ((ResponseException) exception).getResponse().getStatusLine().getStatusCode();
+                    exception = new ElasticsearchStatusException(exception.getMessage(), RestStatus.fromCode(status), exception);
+                }
+                listener.onFailure(exception);
+            }
+        });
+    }
+
+    private void complete(DocWriteRequest<?> request, BulkItemResponse itemResponse) {
+        if (itemResponse.isFailed() && itemResponse.status() == RestStatus.TOO_MANY_REQUESTS && scheduleRetry(request)) {
+            return;
+        }
+        PendingItem item = pending.remove(request);
+        if (item != null) {
+            pendingPermits.release();
+            item.future.complete(itemResponse);
+        }
+    }
+
+    private void fail(DocWriteRequest<?> request, Throwable failure) {
+        if (isRejection(failure) && scheduleRetry(request)) {
+            return;
+        }
+        PendingItem item = pending.remove(request);
+        if (item != null) {
+            pendingPermits.release();
+            item.future.completeExceptionally(failure);
+        }
+    }
+
+    private boolean scheduleRetry(DocWriteRequest<?> request) {
+        PendingItem item = pending.get(request);
+        if (item == null || item.attempts >= maxRetries || retryScheduler.isShutdown()) {
+            return false;
+        }
+        long delay = initialBackoffMillis << Math.min(item.attempts, 16);
+        item.attempts++;
+        // never re-add from the response callback: add() may block on the processor's concurrency limit
+        retryScheduler.schedule(() -> {
+            try {
+                bulkProcessor.add(request);
+                // without a flush interval a lone retried item would wait for the next actions to fill a bulk
+                if (!flushesOnInterval) {
+                    bulkProcessor.flush();
+                }
+            }
+            catch (RuntimeException re) {
+                PendingItem removed = pending.remove(request);
+                if (removed != null) {
+                    pendingPermits.release();
+                    removed.future.completeExceptionally(re);
+                }
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    private boolean isRejection(Throwable failure) {
+        Throwable cause = ExceptionsHelper.unwrapCause(failure);
+        return cause instanceof ElasticsearchException
+                && ((ElasticsearchException) cause).status() == RestStatus.TOO_MANY_REQUESTS;
+    }
+
+    private void failAll(Throwable failure) {
+        synchronized (pending) {
+            for (PendingItem item : pending.values()) {
+                item.future.completeExceptionally(failure);
+            }
+            pending.clear();
+        }
+    }
+
+    private class CompletingListener implements BulkProcessor.Listener {
+
+        @Override
+        public void beforeBulk(long executionId, BulkRequest request) {
+            log.debug("executing bulk [{}] with {} actions", executionId, request.numberOfActions());
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, BulkResponse response) {
+            if (response.hasFailures()) {
+                log.warn("bulk [{}] completed with failures: {}", executionId, response.buildFailureMessage());
+            }
+            BulkItemResponse[] items = response.getItems();
+            int i = 0;
+            for (DocWriteRequest<?> docWriteRequest : request.requests()) {
+                complete(docWriteRequest, items[i++]);
+            }
+        }
+
+        @Override
+        public void afterBulk(long executionId, BulkRequest request, Throwable failure) {
+            log.error("bulk [" + executionId + "] failed", failure);
+            for (DocWriteRequest<?> docWriteRequest : request.requests()) {
+                fail(docWriteRequest, failure);
+            }
+        }
+    }
+
+    private static class PendingItem {
+        private final CompletableFuture<BulkItemResponse> future = new CompletableFuture<>();
+        private volatile int attempts;
+    }
+}
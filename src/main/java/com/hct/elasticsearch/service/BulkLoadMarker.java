@@ -0,0 +1,35 @@
+package com.hct.elasticsearch.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.Map;
+
+/**
+ * Settings of the indices as they were before their bulk load, null when they were left to their defaults.
+ * An alias or a pattern loads into every concrete index it resolves to, each one keeps its own settings.
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+@Builder
+class BulkLoadMarker {
+
+    private String index;
+    // keyed by concrete index name
+    private Map<String, OriginalSettings> indices;
+    private boolean forceMerge;
+    private long startedAtMillis;
+
+    @Data
+    @AllArgsConstructor
+    @NoArgsConstructor
+    @Builder
+    static class OriginalSettings {
+
+        private String refreshInterval;
+        private String numberOfReplicas;
+    }
+}
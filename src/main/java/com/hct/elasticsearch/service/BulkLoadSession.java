@@ -0,0 +1,76 @@
+package com.hct.elasticsearch.service;
+
+import com.hct.elasticsearch.dto.BulkIngestResult;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * A bulk load of one index opened by {@link BulkLoader#open(String, boolean)}. Closing it restores the index settings.
+ */
+public class BulkLoadSession implements Closeable {
+
+    private final BulkLoader bulkLoader;
+    private final BulkIngestor bulkIngestor;
+    private final RoutingStrategy routingStrategy;
+    private final BulkLoadMarker marker;
+    private final BulkIngestTracker tracker = new BulkIngestTracker();
+    private boolean closed;
+
+    /**
+     * @param routingStrategy null to route every document by _id
+     */
+    BulkLoadSession(BulkLoader bulkLoader, BulkIngestor bulkIngestor, RoutingStrategy routingStrategy, BulkLoadMarker marker) {
+        this.bulkLoader = bulkLoader;
+        this.bulkIngestor = bulkIngestor;
+        this.routingStrategy = routingStrategy;
+        this.marker = marker;
+    }
+
+    public String getIndex() {
+        return marker.getIndex();
+    }
+
+    /**
+     * Queues a document, blocking while the bulk ingestor has too many pending actions.
+     * It is routed the way the service routes its writes, so that routed reads find it.
+     */
+    public void add(String type, String id, String jsonSource) {
+        String index = marker.getIndex();
+        String documentId = id == null && routingStrategy != null ? routingStrategy.newDocumentId(index, jsonSource) : id;
+        IndexRequest indexRequest = new IndexRequest(index, type, documentId);
+        indexRequest.source(jsonSource, XContentType.JSON);
+        if (routingStrategy != null) {
+            indexRequest.routing(routingStrategy.routeDocument(index, type, documentId, jsonSource));
+        }
+        tracker.track(bulkIngestor.add(indexRequest));
+    }
+
+    /**
+     * Waits until every document added so far has been acknowledged.
+     */
+    public BulkIngestResult await() {
+        bulkIngestor.flush();
+        return tracker.await();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        boolean loaded = false;
+        try {
+            // documents still in flight would otherwise land after the settings are back
+            await();
+            loaded = true;
+        }
+        finally {
+            // an interrupted load still gets its settings back, only the force merge is skipped
+            bulkLoader.finish(marker, loaded && marker.isForceMerge());
+        }
+    }
+}
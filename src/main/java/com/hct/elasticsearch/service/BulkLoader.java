@@ -0,0 +1,282 @@
+package com.hct.elasticsearch.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hct.elasticsearch.config.properties.BulkLoadProperties;
+import com.hct.elasticsearch.dto.BulkIngestResult;
+import com.hct.elasticsearch.dto.ElasticSearchQueryResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.admin.indices.forcemerge.ForceMergeRequest;
+import org.elasticsearch.action.admin.indices.refresh.RefreshRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.settings.Settings;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Runs large ingests as bulk load sessions: refresh and replicas are turned off on the index while
+ * the documents go through the shared {@link BulkIngestor}, then put back, optionally after a force merge.
+ *
+ * The original settings of every concrete index behind the name are written to a marker file before they are touched and the marker is only
+ * deleted once they are restored, so that a session cut short by a crash is restored on the next start.
+ */
+@Component
+@Slf4j
+public class BulkLoader {
+
+    static final String REFRESH_INTERVAL = "index.refresh_interval";
+    static final String NUMBER_OF_REPLICAS = "index.number_of_replicas";
+    private static final String MARKER_SUFFIX = ".json";
+
+    private RestHighLevelClient elasticSearchClient;
+    private ObjectMapper objectMapper;
+    private BulkIngestor bulkIngestor;
+    private QueryResultCache queryResultCache;
+    private IndexMetadataCache indexMetadataCache;
+    private RoutingStrategy routingStrategy;
+    private final BulkLoadProperties properties;
+    private final Path directory;
+    private final ConcurrentMap<String, BulkLoadMarker> running = new ConcurrentHashMap<>();
+
+    @Autowired
+    BulkLoader(RestHighLevelClient elasticSearchClient, ObjectMapper objectMapper, BulkIngestor bulkIngestor,
+               BulkLoadProperties properties, QueryResultCache queryResultCache, IndexMetadataCache indexMetadataCache,
+               Optional<RoutingStrategy> routingStrategy) {
+        this.elasticSearchClient = elasticSearchClient;
+        this.objectMapper = objectMapper;
+        this.bulkIngestor = bulkIngestor;
+        this.properties = properties;
+        this.queryResultCache = queryResultCache;
+        this.indexMetadataCache = indexMetadataCache;
+        this.routingStrategy = routingStrategy.orElse(null);
+        this.directory = Paths.get(properties.getDirectory());
+        restoreAbandoned();
+    }
+
+    /**
+     * Indexes the documents in a single bulk load session of the index and waits until every one of them
+     * has been acknowledged. The settings are restored whether the load succeeds or not.
+     */
+    public BulkIngestResult load(String index, Stream<ElasticSearchQueryResponse> documents, boolean forceMerge) throws IOException {
+        try (BulkLoadSession session = open(index, forceMerge)) {
+            documents.forEach(document -> session.add(document.getType(), document.getId(), document.getSource()));
+            return session.await();
+        }
+    }
+
+    /**
+     * Starts a bulk load of the index, to be closed once every document has been added.
+     */
+    public BulkLoadSession open(String index, boolean forceMerge) throws IOException {
+        if (running.putIfAbsent(index, new BulkLoadMarker()) != null) {
+            throw new IllegalStateException("a bulk load is already running on index:" + index);
+        }
+        BulkLoadMarker marker = null;
+        try {
+            // a marker left behind holds the settings from before the abandoned load, not the current ones
+            marker = readMarker(markerPath(index));
+            if (marker == null) {
+                GetSettingsResponse settings = elasticSearchClient.indices().getSettings(
+                        new GetSettingsRequest().indices(index), RequestOptions.DEFAULT);
+                // an alias or a pattern answers with the settings of each concrete index
+                Map<String, BulkLoadMarker.OriginalSettings> indices = new TreeMap<>();
+                Iterator<String> concreteIndices = settings.getIndexToSettings().keysIt();
+                while (concreteIndices.hasNext()) {
+                    String concreteIndex = concreteIndices.next();
+                    indices.put(concreteIndex, BulkLoadMarker.OriginalSettings.builder()
+                            .refreshInterval(settings.getSetting(concreteIndex, REFRESH_INTERVAL))
+                            .numberOfReplicas(settings.getSetting(concreteIndex, NUMBER_OF_REPLICAS))
+                            .build());
+                }
+                if (indices.isEmpty()) {
+                    throw new IllegalArgumentException("no index matches:" + index);
+                }
+                marker = BulkLoadMarker.builder()
+                        .index(index)
+                        .indices(indices)
+                        .startedAtMillis(System.currentTimeMillis())
+                        .build();
+            }
+            marker.setForceMerge(forceMerge);
+            writeMarker(marker);
+            updateSettings(index, Settings.builder()
+                    .put(REFRESH_INTERVAL, "-1")
+                    .put(NUMBER_OF_REPLICAS, 0)
+                    .build());
+            running.put(index, marker);
+            return new BulkLoadSession(this, bulkIngestor, routingStrategy, marker);
+        }
+        catch (IOException | RuntimeException e) {
+            running.remove(index);
+            if (marker != null && Files.exists(markerPath(index))) {
+                restoreQuietly(marker);
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Restores the settings of the loads a previous run left unfinished.
+     *
+     * @return the restored indices
+     */
+    public List<String> restoreAbandoned() {
+        List<String> restored = new ArrayList<>();
+        if (!Files.isDirectory(directory)) {
+            return restored;
+        }
+        List<Path> markers;
+        try (Stream<Path> files = Files.list(directory)) {
+            markers = files.filter(path -> path.getFileName().toString().endsWith(MARKER_SUFFIX)).collect(Collectors.toList());
+        }
+        catch (IOException ioe) {
+            log.warn("list bulk load markers errors", ioe);
+            return restored;
+        }
+        for (Path path : markers) {
+            try {
+                BulkLoadMarker marker = readMarker(path);
+                if (marker == null || running.containsKey(marker.getIndex())) {
+                    continue;
+                }
+                log.warn("restoring the settings of index:" + marker.getIndex() + " left by an unfinished bulk load");
+                // the documents of an abandoned load are incomplete, merging them is not worth it
+                finish(marker, false);
+                restored.add(marker.getIndex());
+            }
+            catch (Exception e) {
+                log.warn("restore bulk load marker:" + path, e);
+            }
+        }
+        return restored;
+    }
+
+    /**
+     * Restores the settings of the sessions still running when the application stops.
+     */
+    @PreDestroy
+    public void close() {
+        for (BulkLoadMarker marker : new ArrayList<>(running.values())) {
+            if (marker.getIndex() != null) {
+                restoreQuietly(marker);
+            }
+        }
+    }
+
+    void finish(BulkLoadMarker marker, boolean forceMerge) throws IOException {
+        String index = marker.getIndex();
+        try {
+            elasticSearchClient.indices().refresh(new RefreshRequest(index), RequestOptions.DEFAULT);
+            // merged before the replicas are back, so that they copy the merged segments
+            if (forceMerge) {
+                try {
+                    elasticSearchClient.indices().forcemerge(new ForceMergeRequest(index)
+                            .maxNumSegments(properties.getForceMergeMaxSegments()), RequestOptions.DEFAULT);
+                }
+                catch (IOException ioe) {
+                    // a merge outliving the client timeout carries on in the cluster
+                    log.warn("force merge of index:" + index + " errors", ioe);
+                }
+            }
+        }
+        finally {
+            try {
+                for (Map.Entry<String, BulkLoadMarker.OriginalSettings> entry : marker.getIndices().entrySet()) {
+                    updateSettings(entry.getKey(), original(entry.getValue()));
+                }
+                Files.deleteIfExists(markerPath(index));
+            }
+            finally {
+                running.remove(index);
+                queryResultCache.invalidate(index);
+                indexMetadataCache.invalidate(index);
+                for (String concreteIndex : marker.getIndices().keySet()) {
+                    queryResultCache.invalidate(concreteIndex);
+                    indexMetadataCache.invalidate(concreteIndex);
+                }
+            }
+        }
+    }
+
+    private void restoreQuietly(BulkLoadMarker marker) {
+        try {
+            finish(marker, false);
+        }
+        catch (Exception e) {
+            log.error("restore settings of index:" + marker.getIndex() + " errors, they are restored on the next start", e);
+        }
+    }
+
+    private static Settings original(BulkLoadMarker.OriginalSettings settings) {
+        Settings.Builder original = Settings.builder();
+        if (settings.getRefreshInterval() != null) {
+            original.put(REFRESH_INTERVAL, settings.getRefreshInterval());
+        }
+        else {
+            original.putNull(REFRESH_INTERVAL);
+        }
+        if (settings.getNumberOfReplicas() != null) {
+            original.put(NUMBER_OF_REPLICAS, settings.getNumberOfReplicas());
+        }
+        else {
+            original.putNull(NUMBER_OF_REPLICAS);
+        }
+        return original.build();
+    }
+
+    private void updateSettings(String index, Settings settings) throws IOException {
+        elasticSearchClient.indices().putSettings(new UpdateSettingsRequest(index).settings(settings), RequestOptions.DEFAULT);
+    }
+
+    private BulkLoadMarker readMarker(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return null;
+        }
+        return objectMapper.readValue(path.toFile(), BulkLoadMarker.class);
+    }
+
+    /**
+     * The marker is forced, then renamed into place and its directory forced, before any setting is changed:
+     * a crash right after the change must still find it.
+     */
+    private void writeMarker(BulkLoadMarker marker) throws IOException {
+        Files.createDirectories(directory);
+        Path temporary = directory.resolve(marker.getIndex() + MARKER_SUFFIX + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            channel.write(ByteBuffer.wrap(objectMapper.writeValueAsBytes(marker)));
+            channel.force(true);
+        }
+        Files.move(temporary, markerPath(marker.getIndex()), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private Path markerPath(String index) {
+        return directory.resolve(index + MARKER_SUFFIX);
+    }
+}
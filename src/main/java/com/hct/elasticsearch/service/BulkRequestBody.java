@@ -0,0 +1,90 @@
+package com.hct.elasticsearch.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.elasticsearch.action.DocWriteRequest;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.bytes.BytesReference;
+import org.elasticsearch.common.lucene.uid.Versions;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.VersionType;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Writes a {@link BulkRequest} as the ndjson body of the _bulk endpoint, for the bulks sent through
+ * the low level client. Covers the index, create, update and delete actions the service produces.
+ */
+final class BulkRequestBody {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory()
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+    private BulkRequestBody() {
+    }
+
+    static byte[] write(BulkRequest bulkRequest) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                (int) Math.min(Integer.MAX_VALUE - 8, bulkRequest.estimatedSizeInBytes() + 128L * bulkRequest.numberOfActions()));
+        for (DocWriteRequest<?> request : bulkRequest.requests()) {
+            writeMetadata(request, out);
+            out.write('\n');
+            if (request instanceof IndexRequest) {
+                IndexRequest indexRequest = (IndexRequest) request;
+                writeLine(indexRequest.source(), indexRequest.getContentType(), out);
+            }
+            else if (request instanceof UpdateRequest) {
+                writeLine(XContentHelper.toXContent((UpdateRequest) request, XContentType.JSON, false), XContentType.JSON, out);
+            }
+        }
+        return out.toByteArray();
+    }
+
+    private static void writeMetadata(DocWriteRequest<?> request, ByteArrayOutputStream out) throws IOException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out)) {
+            generator.writeStartObject();
+            generator.writeObjectFieldStart(request.opType().getLowercase());
+            generator.writeStringField("_index", request.index());
+            if (request.type() != null) {
+                generator.writeStringField("_type", request.type());
+            }
+            if (request.id() != null) {
+                generator.writeStringField("_id", request.id());
+            }
+            if (request.routing() != null) {
+                generator.writeStringField("routing", request.routing());
+            }
+            if (request.version() != Versions.MATCH_ANY) {
+                generator.writeNumberField("version", request.version());
+            }
+            if (request.versionType() != VersionType.INTERNAL) {
+                generator.writeStringField("version_type", request.versionType().name().toLowerCase(Locale.ROOT));
+            }
+            if (request instanceof IndexRequest && ((IndexRequest) request).getPipeline() != null) {
+                generator.writeStringField("pipeline", ((IndexRequest) request).getPipeline());
+            }
+            if (request instanceof UpdateRequest && ((UpdateRequest) request).retryOnConflict() > 0) {
+                generator.writeNumberField("retry_on_conflict", ((UpdateRequest) request).retryOnConflict());
+            }
+            generator.writeEndObject();
+            generator.writeEndObject();
+        }
+    }
+
+    private static void writeLine(BytesReference source, XContentType contentType, ByteArrayOutputStream out) throws IOException {
+        // ndjson lines can not hold line breaks, pretty printed or non json sources are re-encoded
+        if (contentType != XContentType.JSON || source.indexOf((byte) '\n', 0) >= 0) {
+            out.write(XContentHelper.convertToJson(source, false, contentType).getBytes(StandardCharsets.UTF_8));
+        }
+        else {
+            source.writeTo(out);
+        }
+        out.write('\n');
+    }
+}
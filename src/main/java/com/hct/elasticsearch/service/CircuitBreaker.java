@@ -0,0 +1,103 @@
+package com.hct.elasticsearch.service;
+
+/**
+ * Count based circuit breaker: opens when the failure rate of the last window of calls reaches the threshold,
+ * rejects calls while open, then lets a single probe through and closes again if that probe succeeds.
+ */
+class CircuitBreaker {
+
+    enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final double failureRateThreshold;
+    private final long openNanos;
+    private final boolean[] outcomes;
+
+    private State state = State.CLOSED;
+    private int calls;
+    private int next;
+    private int failures;
+    private long openedAt;
+    private boolean probing;
+
+    CircuitBreaker(double failureRateThreshold, int windowSize, long openMillis) {
+        // a threshold of 0 would open on a window without a single failure
+        if (failureRateThreshold <= 0 || failureRateThreshold > 1) {
+            throw new IllegalArgumentException("failure rate threshold must be in (0, 1]: " + failureRateThreshold);
+        }
+        this.failureRateThreshold = failureRateThreshold;
+        this.openNanos = openMillis * 1_000_000;
+        this.outcomes = new boolean[windowSize];
+    }
+
+    /**
+     * @return whether the call may go ahead, every permitted call must be followed by one {@link #record(boolean)},
+     * or by {@link #release()} when it ended without an outcome
+     */
+    synchronized boolean tryAcquire() {
+        if (state == State.OPEN && System.nanoTime() - openedAt >= openNanos) {
+            state = State.HALF_OPEN;
+            probing = false;
+        }
+        if (state == State.OPEN) {
+            return false;
+        }
+        if (state == State.HALF_OPEN) {
+            if (probing) {
+                return false;
+            }
+            probing = true;
+        }
+        return true;
+    }
+
+    synchronized void record(boolean success) {
+        if (state == State.HALF_OPEN) {
+            if (success) {
+                reset();
+            }
+            else {
+                open();
+            }
+            return;
+        }
+        if (calls == outcomes.length && !outcomes[next]) {
+            failures--;
+        }
+        outcomes[next] = success;
+        if (!success) {
+            failures++;
+        }
+        next = (next + 1) % outcomes.length;
+        calls = Math.min(calls + 1, outcomes.length);
+        if (state == State.CLOSED && calls == outcomes.length && failures >= failureRateThreshold * calls) {
+            open();
+        }
+    }
+
+    /**
+     * Lets the next probe through when the permitted call ended without an outcome, e.g. on an Error.
+     */
+    synchronized void release() {
+        if (state == State.HALF_OPEN) {
+            probing = false;
+        }
+    }
+
+    synchronized State getState() {
+        return state;
+    }
+
+    private void open() {
+        state = State.OPEN;
+        openedAt = System.nanoTime();
+        probing = false;
+    }
+
+    private void reset() {
+        state = State.CLOSED;
+        calls = 0;
+        next = 0;
+        failures = 0;
+        probing = false;
+    }
+}
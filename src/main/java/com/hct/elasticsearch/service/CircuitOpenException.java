@@ -0,0 +1,11 @@
+package com.hct.elasticsearch.service;
+
+/**
+ * Thrown instead of calling Elasticsearch while the circuit breaker of the index is open.
+ */
+public class CircuitOpenException extends RuntimeException {
+
+    public CircuitOpenException(String index) {
+        super("circuit breaker open for index:" + index);
+    }
+}
@@ -1,22 +1,33 @@
 package com.hct.elasticsearch.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.hct.elasticsearch.config.properties.QueryConfigurationProperties;
+import com.hct.elasticsearch.dto.BulkIngestResult;
 import com.hct.elasticsearch.dto.ElasticSearchQueryResponse;
+import com.hct.elasticsearch.dto.IndexMetadata;
+import com.hct.elasticsearch.dto.MultiMatchResult;
+import com.hct.elasticsearch.dto.Projection;
+import com.hct.elasticsearch.dto.RawSource;
+import com.hct.elasticsearch.metrics.ElasticSearchMetrics;
+import com.hct.elasticsearch.writebehind.WriteBehindLog;
 import lombok.Builder;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
-import org.apache.commons.io.IOUtils;
 import org.apache.http.HttpEntity;
-import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.ContentType;
 import org.apache.http.entity.StringEntity;
 import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.ActionListener;
 import org.elasticsearch.action.DocWriteResponse;
 import org.elasticsearch.action.admin.indices.get.GetIndexRequest;
 import org.elasticsearch.action.get.GetRequest;
 import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.index.IndexResponse;
 import org.elasticsearch.action.search.MultiSearchRequest;
@@ -25,29 +36,41 @@ import org.elasticsearch.action.search.SearchRequest;
 import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.action.update.UpdateRequest;
 import org.elasticsearch.action.update.UpdateResponse;
-import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.Request;
 import org.elasticsearch.client.Response;
 import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.UUIDs;
+import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilder;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.rest.RestStatus;
-import org.elasticsearch.script.ScriptType;
 import org.elasticsearch.script.mustache.MustacheScriptEngine;
-import org.elasticsearch.script.mustache.SearchTemplateRequest;
-import org.elasticsearch.script.mustache.SearchTemplateResponse;
-import org.elasticsearch.search.SearchHit;
-import org.elasticsearch.search.SearchHits;
 import org.elasticsearch.search.builder.SearchSourceBuilder;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
-import java.io.StringWriter;
+import java.io.InputStream;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 @Service
 @Slf4j
@@ -55,18 +78,69 @@ public class ElasticSearchApiService {
 
     private RestHighLevelClient elasticSearchClient;
     private ObjectMapper objectMapper;
+    private BulkIngestor bulkIngestor;
+    private QueryConfigurationProperties queryConfigurationProperties;
+    private SearchHitStreamDecoder searchHitStreamDecoder;
+    private TypedSourceReader typedSourceReader;
+    private SearchTemplateRegistry searchTemplateRegistry;
+    private QueryResultCache queryResultCache;
+    private IndexMetadataCache indexMetadataCache;
+    private ElasticSearchMetrics elasticSearchMetrics;
+    private UpdateCoalescer updateCoalescer;
+    private HttpCompression httpCompression;
+    private ReadResilience readResilience;
+    private AdmissionController admissionController;
+    private WriteBehindLog writeBehindLog;
+    private RoutingStrategy routingStrategy;
+    private GetCoalescer getCoalescer;
 
     @Autowired
-    ElasticSearchApiService(RestHighLevelClient elasticSearchClient, ObjectMapper objectMapper) {
+    ElasticSearchApiService(RestHighLevelClient elasticSearchClient, ObjectMapper objectMapper, BulkIngestor bulkIngestor,
+                            QueryConfigurationProperties queryConfigurationProperties, SearchTemplateRegistry searchTemplateRegistry,
+                            QueryResultCache queryResultCache, IndexMetadataCache indexMetadataCache,
+                            ElasticSearchMetrics elasticSearchMetrics, HttpCompression httpCompression,
+                            Optional<UpdateCoalescer> updateCoalescer, Optional<ReadResilience> readResilience,
+                            Optional<AdmissionController> admissionController, Optional<WriteBehindLog> writeBehindLog,
+                            Optional<RoutingStrategy> routingStrategy, Optional<GetCoalescer> getCoalescer) {
         this.elasticSearchClient = elasticSearchClient;
         this.objectMapper = objectMapper;
+        this.bulkIngestor = bulkIngestor;
+        this.queryConfigurationProperties = queryConfigurationProperties;
+        this.searchTemplateRegistry = searchTemplateRegistry;
+        this.queryResultCache = queryResultCache;
+        this.indexMetadataCache = indexMetadataCache;
+        this.elasticSearchMetrics = elasticSearchMetrics;
+        this.httpCompression = httpCompression;
+        this.updateCoalescer = updateCoalescer.orElse(null);
+        this.readResilience = readResilience.orElse(null);
+        this.admissionController = admissionController.orElse(null);
+        this.writeBehindLog = writeBehindLog.orElse(null);
+        this.routingStrategy = routingStrategy.orElse(null);
+        this.getCoalescer = getCoalescer.orElse(null);
+        if (this.writeBehindLog != null) {
+            this.writeBehindLog.onDrained(indices -> indices.forEach(index -> {
+                this.queryResultCache.invalidate(index);
+                // the drained writes may have created the index
+                this.indexMetadataCache.invalidate(index);
+            }));
+        }
+        this.searchHitStreamDecoder = new SearchHitStreamDecoder(objectMapper.getFactory());
+        this.typedSourceReader = new TypedSourceReader(objectMapper, queryConfigurationProperties.getTypedDecodeParallelThreshold());
     }
 
     public boolean hasIndex(String index) {
         try {
             GetIndexRequest request = new GetIndexRequest();
             request.indices(index);
-            return elasticSearchClient.indices().exists(request, RequestOptions.DEFAULT);
+            boolean exists = elasticSearchMetrics.record("exists", index, null,
+                    () -> elasticSearchClient.indices().exists(request, httpCompression.requestOptions()));
+            if (exists) {
+                indexMetadataCache.invalidate(index);
+            }
+            else {
+                indexMetadataCache.markMissing(index);
+            }
+            return exists;
         }
         catch (IOException ioe) {
             log.error("search errors:", ioe);
@@ -74,38 +148,125 @@ public class ElasticSearchApiService {
         }
     }
 
+    public IndexMetadata getIndexMetadata(String index) {
+        return indexMetadataCache.getMetadata(index);
+    }
+
     public List<ElasticSearchQueryResponse> querySearchAll(String index) {
-        if (!hasIndex(index)) {
-            return Collections.EMPTY_LIST;
+        return querySearchAll(index, Projection.all());
+    }
+
+    /**
+     * Same as {@link #querySearchAll(String)} with every _source bound to the given type.
+     */
+    public <T> List<T> querySearchAll(String index, Class<T> type) {
+        return typedSourceReader.read(querySearchAll(index), type);
+    }
+
+    public List<ElasticSearchQueryResponse> querySearchAll(String index, Projection projection) {
+        // a single round-trip: missing indices are learnt from the 404 and remembered for a while
+        if (indexMetadataCache.isKnownMissing(index)) {
+            return Collections.emptyList();
         }
         try {
-            SearchResponse searchResponse = elasticSearchClient.search(new SearchRequest(index), RequestOptions.DEFAULT);
-            return convert(searchResponse.getHits());
+            return elasticSearchMetrics.record("search", index, null, () -> {
+                SearchRequest searchRequest = new SearchRequest(index);
+                if (!Projections.isAll(projection)) {
+                    SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
+                    Projections.apply(searchSourceBuilder, projection);
+                    searchRequest.source(searchSourceBuilder);
+                }
+                SearchResponse searchResponse = read("search", index, () -> elasticSearchClient.search(searchRequest, httpCompression.requestOptions()));
+                return ElasticSearchResponseConverter.convert(searchResponse.getHits());
+            });
 
         }
+        catch (ElasticsearchStatusException ese) {
+            if (IndexMetadataCache.isIndexNotFound(ese)) {
+                indexMetadataCache.markMissing(index);
+                return Collections.emptyList();
+            }
+            throw ese;
+        }
         catch (IOException ioe) {
             log.error("search errors:", ioe);
             throw new RuntimeException(ioe.getMessage());
         }
     }
 
+    /**
+     * Lazily streams every document of the index, paging with search_after on query.stream-sort-field,
+     * or with a scroll when it is not set.
+     * The stream must be closed when it is not consumed to the end.
+     */
+    public Stream<ElasticSearchQueryResponse> streamSearchAll(String index) {
+        return streamSearch(index, QueryBuilders.matchAllQuery(), 1);
+    }
+
+    /**
+     * Lazily streams every document of the index with one scroll per slice running in parallel.
+     * Documents come in no particular order. The stream must be closed when it is not consumed to the end.
+     */
+    public Stream<ElasticSearchQueryResponse> streamSearchAll(String index, int slices) {
+        return streamSearch(index, QueryBuilders.matchAllQuery(), slices);
+    }
+
+    public Stream<ElasticSearchQueryResponse> streamMatches(String index, String field, Object value) {
+        return streamSearch(index, QueryBuilders.matchQuery(field, value), 1);
+    }
+
+    public Stream<ElasticSearchQueryResponse> streamSearch(String index, QueryBuilder query, int slices) {
+        String sortField = queryConfigurationProperties.getStreamSortField();
+        PagedHitIterator iterator = slices > 1 || sortField == null || sortField.isEmpty()
+                ? new SlicedScrollHitIterator(elasticSearchClient, httpCompression.requestOptions(), index, query, Math.max(slices, 1),
+                        queryConfigurationProperties.getStreamPageSize(),
+                        TimeValue.timeValueMillis(queryConfigurationProperties.getScrollKeepAliveMillis()))
+                : new SearchAfterHitIterator(elasticSearchClient, httpCompression.requestOptions(), index, query,
+                        sortField,
+                        queryConfigurationProperties.getStreamPageSize());
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.NONNULL), false)
+                .onClose(iterator::close)
+                .map(ElasticSearchResponseConverter::convert);
+    }
+
     public ElasticSearchQueryResponse getDocumentById(String index, String type, String id) {
+        return getDocumentById(index, type, id, Projection.all());
+    }
+
+    public <T> T getDocumentById(String index, String type, String id, Class<T> sourceType) {
+        return typedSourceReader.read(getDocumentById(index, type, id), sourceType);
+    }
+
+    public ElasticSearchQueryResponse getDocumentById(String index, String type, String id, Projection projection) {
+        return getDocumentById(index, type, id, routeDocument(index, type, id, null), projection);
+    }
+
+    public ElasticSearchQueryResponse getDocumentById(String index, String type, String id, String routing) {
+        return getDocumentById(index, type, id, routing, Projection.all());
+    }
+
+    /**
+     * With the get coalescer enabled, gets of the whole document are sent in _mget batches with the concurrent ones.
+     *
+     * @param routing the routing the document was saved with, null for the default _id routing
+     */
+    public ElasticSearchQueryResponse getDocumentById(String index, String type, String id, String routing, Projection projection) {
 
         GetRequest getRequest = new GetRequest();
         getRequest.index(index);
         getRequest.type(type);
         getRequest.id(id);
+        getRequest.routing(routing);
+        Projections.apply(getRequest, projection);
         try {
-            GetResponse getResponse = elasticSearchClient.get(getRequest, RequestOptions.DEFAULT);
-            if (getResponse == null || !getResponse.isExists()) {
-                return null;
+            if (getCoalescer != null && Projections.isAll(projection)) {
+                MultiGetItemResponse item = elasticSearchMetrics.record("get", index, () -> id,
+                        () -> read("get", index, () -> await(getCoalescer.get(index, type, id, routing))));
+                return convert(item);
             }
-            return ElasticSearchQueryResponse.builder()
-                    .id(getResponse.getId())
-                    .index(getResponse.getIndex())
-                    .type(getResponse.getType())
-                    .source(getResponse.getSourceAsString())
-                    .build();
+            GetResponse getResponse = elasticSearchMetrics.record("get", index, () -> id,
+                    () -> read("get", index, () -> elasticSearchClient.get(getRequest, httpCompression.requestOptions())));
+            return ElasticSearchResponseConverter.convert(getResponse);
         }
         catch (ElasticsearchStatusException ese) {
             log.info("get document by index:" + index +",type:" + type + ",id:" + id, ese);
@@ -116,31 +277,150 @@ public class ElasticSearchApiService {
         }
     }
 
+    public List<ElasticSearchQueryResponse> getDocumentsByIds(String index, String type, List<String> ids) {
+        return getDocumentsByIds(index, type, ids, Projection.all());
+    }
+
+    /**
+     * Fetches the documents in a single _mget. The result is in the order of the ids, with null for the documents
+     * missing or failing, the way {@link #getDocumentById(String, String, String)} returns null for them.
+     */
+    public List<ElasticSearchQueryResponse> getDocumentsByIds(String index, String type, List<String> ids, Projection projection) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        MultiGetRequest multiGetRequest = new MultiGetRequest();
+        for (String id : ids) {
+            MultiGetRequest.Item item = new MultiGetRequest.Item(index, type, id)
+                    .routing(routeDocument(index, type, id, null));
+            Projections.apply(item, projection);
+            multiGetRequest.add(item);
+        }
+        try {
+            MultiGetResponse multiGetResponse = elasticSearchMetrics.record("mget", index, () -> ids.size() + " ids",
+                    () -> read("mget", index, () -> elasticSearchClient.mget(multiGetRequest, httpCompression.requestOptions())));
+            List<ElasticSearchQueryResponse> documents = new ArrayList<>(ids.size());
+            for (MultiGetItemResponse item : multiGetResponse.getResponses()) {
+                documents.add(convert(item));
+            }
+            return documents;
+        }
+        catch (ElasticsearchStatusException ese) {
+            log.info("get documents by index:" + index + ",type:" + type + ",ids:" + ids, ese);
+            return new ArrayList<>(Collections.nCopies(ids.size(), null));
+        }
+        catch (IOException ioe) {
+            throw new RuntimeException("get documents errors", ioe);
+        }
+    }
+
     public void updateDocument(String index, String type, String id, String json) throws IOException {
+        updateDocument(index, type, id, routeDocument(index, type, id, json), json);
+    }
+
+    public void updateDocument(String index, String type, String id, String routing, String json) throws IOException {
+        if (writeBehindLog != null) {
+            writeBehindLog.update(index, type, id, routing, json);
+            return;
+        }
+        if (updateCoalescer != null) {
+            try {
+                updateDocumentCoalesced(index, type, id, routing, json).join();
+            }
+            catch (CompletionException ce) {
+                throw ce.getCause() instanceof RuntimeException ? (RuntimeException) ce.getCause() : ce;
+            }
+            return;
+        }
         UpdateRequest updateRequest = new UpdateRequest(index, type, id);
+        updateRequest.routing(routing);
         updateRequest.doc(json, XContentType.JSON);
-        UpdateResponse updateResponse = elasticSearchClient.update(updateRequest, RequestOptions.DEFAULT);
+        UpdateResponse updateResponse;
+        try {
+            updateResponse = elasticSearchMetrics.record("update", index, () -> id,
+                    () -> write(() -> elasticSearchClient.update(updateRequest, httpCompression.requestOptions())));
+        }
+        finally {
+            queryResultCache.invalidate(index);
+        }
         if (updateResponse.status() != RestStatus.OK) {
             throw new RuntimeException("errors["+ updateResponse.status() +"] occur for updating index:" + index +", type:" + type +", id:" + id + ",json:" + json );
         }
     }
 
+    /**
+     * Queues a partial update to be merged with the other updates of the same document and sent in a bulk.
+     * The future completes once the update is acknowledged. Without the update coalescer the update is sent at once.
+     */
+    public CompletableFuture<Void> updateDocumentCoalesced(String index, String type, String id, String json) {
+        return updateDocumentCoalesced(index, type, id, routeDocument(index, type, id, json), json);
+    }
+
+    public CompletableFuture<Void> updateDocumentCoalesced(String index, String type, String id, String routing, String json) {
+        if (updateCoalescer == null) {
+            try {
+                updateDocument(index, type, id, routing, json);
+                return CompletableFuture.completedFuture(null);
+            }
+            catch (Exception e) {
+                CompletableFuture<Void> failed = new CompletableFuture<>();
+                failed.completeExceptionally(e);
+                return failed;
+            }
+        }
+        return updateCoalescer.update(index, type, id, routing, json)
+                .whenComplete((ignored, failure) -> queryResultCache.invalidate(index));
+    }
+
     public ElasticSearchQueryResponse saveDocument(String index, String type, String jsonSource) throws IOException {
         return saveDocument(index, type, null, jsonSource);
     }
 
+    /**
+     * With the write-behind log enabled the document is acknowledged once it is on local disk,
+     * searches see it after the log has been drained to Elasticsearch.
+     */
     public ElasticSearchQueryResponse saveDocument(String index, String type, String id, String jsonSource) throws IOException {
+        String documentId = id != null ? id : newDocumentId(index, jsonSource);
+        return saveDocument(index, type, documentId, routeDocument(index, type, documentId, jsonSource), jsonSource);
+    }
+
+    /**
+     * @param routing shard routing of the document, which then has to be read and updated with it
+     */
+    public ElasticSearchQueryResponse saveDocument(String index, String type, String id, String routing, String jsonSource) throws IOException {
+        if (writeBehindLog != null) {
+            // the id has to be known before the write is replayed, so that a replay does not duplicate the document
+            String documentId = id != null ? id : UUIDs.base64UUID();
+            writeBehindLog.index(index, type, documentId, routing, jsonSource);
+            return ElasticSearchQueryResponse.builder()
+                    .index(index)
+                    .type(type)
+                    .id(documentId)
+                    .rawSource(RawSource.of(jsonSource.getBytes(StandardCharsets.UTF_8)))
+                    .build();
+        }
         IndexRequest indexRequest = new IndexRequest(index, type, id);
+        indexRequest.routing(routing);
         indexRequest.source(jsonSource, XContentType.JSON);
         ElasticSearchQueryResponse response = saveDocument(indexRequest);
-        response.setSource(jsonSource);
+        // share the request's encoded bytes instead of holding on to the json string as well
+        response.setRawSource(RawSource.of(indexRequest.source()));
         return response;
     }
 
     protected ElasticSearchQueryResponse saveDocument(IndexRequest indexRequest) throws IOException {
 
-        String requestJson = indexRequest.toString();
-        IndexResponse indexResponse = elasticSearchClient.index(indexRequest, RequestOptions.DEFAULT);
+        IndexResponse indexResponse;
+        try {
+            indexResponse = elasticSearchMetrics.record("index", indexRequest.index(), indexRequest::id,
+                    () -> write(() -> elasticSearchClient.index(indexRequest, httpCompression.requestOptions())));
+        }
+        finally {
+            queryResultCache.invalidate(indexRequest.index());
+            // indexing may have created the index
+            indexMetadataCache.invalidate(indexRequest.index());
+        }
 
         if ((indexResponse.getResult() == DocWriteResponse.Result.CREATED &&
                 indexResponse.status() == RestStatus.CREATED) ||
@@ -153,59 +433,239 @@ public class ElasticSearchApiService {
                     .id(indexResponse.getId())
                     .build();
         }
-        throw new RuntimeException("errors["+ indexResponse.status() +"] occur for saving index:" + requestJson);
+        throw new RuntimeException("errors["+ indexResponse.status() +"] occur for saving index:" + indexRequest);
     }
 
-    public List<ElasticSearchQueryResponse> queryMatches(String index, String field, Object value) {
-        SearchRequest searchRequest = buildMatchSearchRequest(index, field, value);
+    public BulkIngestResult saveDocuments(Iterable<ElasticSearchQueryResponse> documents) {
+        return saveDocuments(StreamSupport.stream(documents.spliterator(), false));
+    }
+
+    /**
+     * Indexes the documents through the shared {@link BulkIngestor} and waits until every one of them
+     * has been acknowledged. Each document supplies its own index, type, optional id and source.
+     */
+    public BulkIngestResult saveDocuments(Stream<ElasticSearchQueryResponse> documents) {
+        BulkIngestTracker tracker = new BulkIngestTracker();
+        Set<String> indices = new HashSet<>();
         try {
-            SearchResponse searchResponse = elasticSearchClient.search(searchRequest, RequestOptions.DEFAULT);
-            return convert(searchResponse.getHits());
+            documents.forEach(document -> {
+                String id = document.getId() != null ? document.getId() : newDocumentId(document.getIndex(), document.getSource());
+                IndexRequest indexRequest = new IndexRequest(document.getIndex(), document.getType(), id);
+                indexRequest.source(document.getSource(), XContentType.JSON);
+                indexRequest.routing(routeDocument(document.getIndex(), document.getType(), id, document.getSource()));
+                indices.add(document.getIndex());
+                tracker.track(bulkIngestor.add(indexRequest));
+            });
+            bulkIngestor.flush();
+            return tracker.await();
         }
-        catch (IOException ioe) {
-            throw new RuntimeException("multi search errors", ioe);
+        finally {
+            indices.forEach(queryResultCache::invalidate);
+            indices.forEach(indexMetadataCache::invalidate);
         }
     }
 
+    public List<ElasticSearchQueryResponse> queryMatches(String index, String field, Object value) {
+        return queryMatches(index, field, value, Projection.all());
+    }
+
+    public <T> List<T> queryMatches(String index, String field, Object value, Class<T> type) {
+        return typedSourceReader.read(queryMatches(index, field, value), type);
+    }
+
+    public List<ElasticSearchQueryResponse> queryMatches(String index, String field, Object value, Projection projection) {
+        return queryMatches(index, field, value, routeSearch(index, Collections.singletonMap(field, value)), projection);
+    }
+
+    public List<ElasticSearchQueryResponse> queryMatches(String index, String field, Object value, String routing) {
+        return queryMatches(index, field, value, routing, Projection.all());
+    }
+
+    /**
+     * @param routing searches only the shards of this routing, null searches them all
+     */
+    public List<ElasticSearchQueryResponse> queryMatches(String index, String field, Object value, String routing, Projection projection) {
+        return queryResultCache.get(index, cacheKind("match", projection, routing), field, value, () -> {
+            SearchRequest searchRequest = buildMatchSearchRequest(index, field, value, projection);
+            searchRequest.routing(routing);
+            try {
+                return elasticSearchMetrics.record("search", index, () -> field + "=" + value, () -> {
+                    SearchResponse searchResponse = read("search", index, () -> elasticSearchClient.search(searchRequest, httpCompression.requestOptions()));
+                    return ElasticSearchResponseConverter.convert(searchResponse.getHits());
+                });
+            }
+            catch (IOException ioe) {
+                throw new RuntimeException("multi search errors", ioe);
+            }
+        });
+    }
+
     public List<ElasticSearchQueryResponse> queryMultiMatches(String index, Map<String, Object> arguments) {
+        MultiMatchResult result = queryMultiMatches(index, arguments, false);
+        if (result.hasErrors()) {
+            if (result.getErrors().size() == arguments.size()) {
+                throw new RuntimeException("multi search errors", result.getErrors().values().iterator().next());
+            }
+            log.warn("multi search partially failed on index:" + index + ", fields:" + result.getErrors().keySet());
+        }
+        return result.getHits();
+    }
 
-        List<ElasticSearchQueryResponse> result = new ArrayList<>();
-        try {
-            MultiSearchRequest request = new MultiSearchRequest();
+    /**
+     * Runs one match query per argument, split into bounded msearch batches sent in parallel.
+     * Failed sub-queries are reported per field next to the hits of the others. With deduplicate,
+     * a document matched by several fields is returned once with its best score, best first.
+     */
+    public MultiMatchResult queryMultiMatches(String index, Map<String, Object> arguments, boolean deduplicate) {
+        return queryMultiMatches(index, arguments, deduplicate, Projection.all());
+    }
 
-            for (String argKey : arguments.keySet()) {
-                SearchRequest searchRequest = new SearchRequest(index);
-                SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
-                searchSourceBuilder.query(QueryBuilders.matchQuery(argKey, arguments.get(argKey)));
-                searchRequest.source(searchSourceBuilder);
-                request.add(searchRequest);
+    public MultiMatchResult queryMultiMatches(String index, Map<String, Object> arguments, boolean deduplicate, Projection projection) {
+
+        List<Map.Entry<String, Object>> entries = new ArrayList<>(arguments.entrySet());
+        List<List<ElasticSearchQueryResponse>> hitsPerEntry = new ArrayList<>(Collections.nCopies(entries.size(), null));
+        Exception[] errorsPerEntry = new Exception[entries.size()];
+
+        int batchSize = queryConfigurationProperties.getMultiSearchBatchSize();
+        List<CompletableFuture<Void>> batches = new ArrayList<>();
+        for (int from = 0; from < entries.size(); from += batchSize) {
+            int offset = from;
+            int to = Math.min(from + batchSize, entries.size());
+
+            MultiSearchRequest request = new MultiSearchRequest();
+            if (queryConfigurationProperties.getMultiSearchMaxConcurrentSearchRequests() > 0) {
+                request.maxConcurrentSearchRequests(queryConfigurationProperties.getMultiSearchMaxConcurrentSearchRequests());
+            }
+            for (Map.Entry<String, Object> entry : entries.subList(from, to)) {
+                request.add(buildMatchSearchRequest(index, entry.getKey(), entry.getValue(), projection));
             }
 
-            MultiSearchResponse multiSearchResponse = elasticSearchClient.msearch(request, RequestOptions.DEFAULT);
-            for (MultiSearchResponse.Item item : multiSearchResponse.getResponses()) {
-                result.addAll(convert(item.getResponse().getHits()));
+            CompletableFuture<Void> batch = new CompletableFuture<>();
+            batches.add(elasticSearchMetrics.recordAsync("msearch", index, () -> to - offset + " queries", () -> batch));
+            msearch(request).whenComplete((multiSearchResponse, failure) -> {
+                if (failure != null) {
+                    Exception e = failure instanceof CompletionException && failure.getCause() instanceof Exception
+                            ? (Exception) failure.getCause()
+                            : failure instanceof Exception ? (Exception) failure : new RuntimeException(failure);
+                    for (int i = offset; i < to; i++) {
+                        errorsPerEntry[i] = e;
+                    }
+                }
+                else {
+                    MultiSearchResponse.Item[] items = multiSearchResponse.getResponses();
+                    for (int i = 0; i < items.length; i++) {
+                        if (items[i].isFailure()) {
+                            errorsPerEntry[offset + i] = items[i].getFailure();
+                        }
+                        else {
+                            hitsPerEntry.set(offset + i, ElasticSearchResponseConverter.convert(items[i].getResponse().getHits()));
+                        }
+                    }
+                }
+                batch.complete(null);
+            });
+        }
+        CompletableFuture.allOf(batches.toArray(new CompletableFuture[0])).join();
+
+        Map<String, Exception> errors = new LinkedHashMap<>();
+        List<ElasticSearchQueryResponse> hits = new ArrayList<>();
+        for (int i = 0; i < entries.size(); i++) {
+            if (errorsPerEntry[i] != null) {
+                errors.put(entries.get(i).getKey(), errorsPerEntry[i]);
+            }
+            else if (hitsPerEntry.get(i) != null) {
+                hits.addAll(hitsPerEntry.get(i));
             }
         }
-        catch (IOException ioe) {
-            throw new RuntimeException("multi search errors", ioe);
+        return MultiMatchResult.builder()
+                .hits(deduplicate ? deduplicate(hits) : hits)
+                .errors(errors)
+                .build();
+    }
+
+    private List<ElasticSearchQueryResponse> deduplicate(List<ElasticSearchQueryResponse> hits) {
+        Map<String, ElasticSearchQueryResponse> best = new LinkedHashMap<>();
+        for (ElasticSearchQueryResponse hit : hits) {
+            best.merge(hit.getIndex() + "/" + hit.getId(), hit, (current, candidate) -> score(candidate) > score(current) ? candidate : current);
         }
+        List<ElasticSearchQueryResponse> result = new ArrayList<>(best.values());
+        result.sort((left, right) -> Float.compare(score(right), score(left)));
         return result;
     }
 
+    private static float score(ElasticSearchQueryResponse hit) {
+        return hit.getScore() == null ? 0f : hit.getScore();
+    }
+
     public List<ElasticSearchQueryResponse> query(String index , String templateId, Map<String, Object> parameters) {
+        return query(index, templateId, parameters, Projection.all());
+    }
 
-        try {
-            SearchTemplateRequest request = new SearchTemplateRequest();
-            request.setRequest(new SearchRequest(index));
+    /**
+     * Same as {@link #query(String, String, Map)} with every _source bound to the given type,
+     * decoded from the response bytes without going through a String.
+     */
+    public <T> List<T> query(String index , String templateId, Map<String, Object> parameters, Class<T> type) {
+        return typedSourceReader.read(query(index, templateId, parameters), type);
+    }
 
-            request.setScriptType(ScriptType.STORED);
-            request.setScript(templateId);
+    /**
+     * Stored templates rendered by the cluster can only have their _source cut down, through filter_path.
+     * Doc value and stored fields need the template to be rendered locally.
+     */
+    public List<ElasticSearchQueryResponse> query(String index , String templateId, Map<String, Object> parameters, Projection projection) {
+        return query(index, templateId, parameters, routeSearch(index, parameters), projection);
+    }
+
+    public List<ElasticSearchQueryResponse> query(String index , String templateId, Map<String, Object> parameters, String routing) {
+        return query(index, templateId, parameters, routing, Projection.all());
+    }
 
-            request.setScriptParams(parameters);
+    public List<ElasticSearchQueryResponse> query(String index , String templateId, Map<String, Object> parameters, String routing, Projection projection) {
+        return queryResultCache.get(index, cacheKind("template", projection, routing), templateId, parameters,
+                () -> executeQuery(index, templateId, parameters, routing, projection));
+    }
 
-            SearchTemplateResponse response = elasticSearchClient.searchTemplate(request, RequestOptions.DEFAULT);
-            return convert(response.getResponse().getHits());
+    private List<ElasticSearchQueryResponse> executeQuery(String index , String templateId, Map<String, Object> parameters, String routing, Projection projection) {
 
+        try {
+            Request request;
+            if (queryConfigurationProperties.isRenderTemplatesLocally()) {
+                request = new Request(HttpPost.METHOD_NAME, "/" + index + "/_search");
+                String body = searchTemplateRegistry.render(templateId, parameters);
+                if (!Projections.isAll(projection)) {
+                    ObjectNode searchBody = (ObjectNode) objectMapper.readTree(body);
+                    Projections.apply(searchBody, projection);
+                    body = objectMapper.writeValueAsString(searchBody);
+                }
+                request.setEntity(new StringEntity(body, ContentType.APPLICATION_JSON));
+            }
+            else {
+                // raw search template request: hits are decoded straight from the response stream
+                Map<String, Object> body = new HashMap<>();
+                body.put("id", templateId);
+                if (parameters != null) {
+                    body.put("params", parameters);
+                }
+                request = new Request(HttpPost.METHOD_NAME, "/" + index + "/_search/template");
+                request.setEntity(new ByteArrayEntity(objectMapper.writeValueAsBytes(body), ContentType.APPLICATION_JSON));
+                if (!Projections.isAll(projection)) {
+                    request.addParameter("filter_path", Projections.filterPath(projection));
+                }
+            }
+
+            if (routing != null) {
+                request.addParameter("routing", routing);
+            }
+            httpCompression.compress(request);
+            httpCompression.negotiate(request);
+            Request searchRequest = request;
+            return elasticSearchMetrics.record("search_template", index, () -> templateId + parameters,
+                    () -> read("search_template", index, () -> convert(elasticSearchClient.getLowLevelClient().performRequest(searchRequest))));
+
+        }
+        catch (CircuitOpenException | AdmissionRejectedException e) {
+            throw e;
         }
         catch (Exception ioe) {
             throw new RuntimeException("execute query errors", ioe);
@@ -227,95 +687,115 @@ public class ElasticSearchApiService {
 
         HttpEntity request = new StringEntity(json, ContentType.APPLICATION_JSON);
 
-        Response response = elasticSearchClient.getLowLevelClient().performRequest(
-                HttpPost.METHOD_NAME, endpoint, Collections.EMPTY_MAP, request);
+        Response response = elasticSearchMetrics.record("put_script", null, () -> templateName,
+                () -> elasticSearchClient.getLowLevelClient().performRequest(
+                        HttpPost.METHOD_NAME, endpoint, Collections.EMPTY_MAP, request));
 
         if (response.getStatusLine().getStatusCode() != RestStatus.OK.getStatus()) {
+            searchTemplateRegistry.invalidate(templateName);
             throw new RuntimeException("errors["+ response.getStatusLine().getStatusCode() +"] occur for upserting template:" + templateName + ",json:" + json );
         }
+        searchTemplateRegistry.put(templateName, source);
     }
 
     public String getTemplateSource(String templateName) throws IOException {
-
-        String endpoint = "_scripts/" + templateName;
-
-        Response response = elasticSearchClient.getLowLevelClient().performRequest(
-                HttpGet.METHOD_NAME, endpoint);
-
-        if (response.getStatusLine().getStatusCode() != RestStatus.OK.getStatus()) {
-            throw new RuntimeException("errors to get template source. template name=" + templateName );
-        }
-
-        StringWriter writer = new StringWriter();
-        String encoding = StandardCharsets.UTF_8.name();
-        IOUtils.copy(response.getEntity().getContent(), writer, encoding);
-
-        String json = objectMapper.readTree(writer.toString()).path("script").path("source").asText();
-        return json;
+        return searchTemplateRegistry.getSource(templateName);
     }
 
-    private SearchRequest buildMatchSearchRequest(String index, String field, Object value) {
+    private SearchRequest buildMatchSearchRequest(String index, String field, Object value, Projection projection) {
         SearchRequest searchRequest = new SearchRequest(index);
         SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder();
         searchSourceBuilder.query(QueryBuilders.matchQuery(field, value));
+        Projections.apply(searchSourceBuilder, projection);
         searchRequest.source(searchSourceBuilder);
         return searchRequest;
     }
 
-    private List<ElasticSearchQueryResponse> convert(Response response) throws IOException {
+    private <T> T read(String operation, String index, ElasticSearchMetrics.Call<T, IOException> call) throws IOException {
+        // every attempt and hedge is admitted on its own, so the limit sees each 429 and no slot is held through a backoff
+        ElasticSearchMetrics.Call<T, IOException> admitted = admissionController == null
+                ? call
+                : () -> admissionController.call(AdmissionController.SEARCH, call);
+        return readResilience == null ? admitted.call() : readResilience.call(operation, index, admitted);
+    }
 
-        StringWriter writer = new StringWriter();
-        String encoding = StandardCharsets.UTF_8.name();
-        IOUtils.copy(response.getEntity().getContent(), writer, encoding);
+    private CompletableFuture<MultiSearchResponse> msearch(MultiSearchRequest request) {
+        Supplier<CompletableFuture<MultiSearchResponse>> call = () -> {
+            CompletableFuture<MultiSearchResponse> future = new CompletableFuture<>();
+            elasticSearchClient.msearchAsync(request, httpCompression.requestOptions(), ActionListener.wrap(future::complete, future::completeExceptionally));
+            return future;
+        };
+        // a batch counts as one search call, overloaded when some of its sub-queries were rejected
+        return admissionController == null ? call.get() : admissionController.callAsync(AdmissionController.SEARCH, call,
+                response -> Arrays.stream(response.getResponses())
+                        .anyMatch(item -> item.isFailure() && AdmissionController.isRejectedExecution(item.getFailure())));
+    }
 
-        JsonNode jsonNode = objectMapper.readTree(writer.toString()).get(SearchHits.Fields.HITS);
-        long totalHits = jsonNode.get(SearchHits.Fields.TOTAL).asLong();
+    private <T> T write(ElasticSearchMetrics.Call<T, IOException> call) throws IOException {
+        return admissionController == null ? call.call() : admissionController.call(AdmissionController.WRITE, call);
+    }
 
-        List<ElasticSearchQueryResponse> result = new ArrayList<>();
-        if (totalHits > 0) {
-            for (JsonNode hitNode : jsonNode.get(SearchHits.Fields.HITS)) {
+    private static String cacheKind(String kind, Projection projection, String routing) {
+        String cacheKind = Projections.isAll(projection) ? kind : kind + projection;
+        // the hits of a routed search are those of its shards only
+        return routing == null ? cacheKind : cacheKind + "@" + routing;
+    }
 
-                ElasticSearchQueryResponse row = ElasticSearchQueryResponse.builder()
-                        .id(hitNode.findValue("_id").asText())
-                        .index(hitNode.findValue("_index").asText())
-                        .type(hitNode.findValue("_type").asText())
-                        .source(hitNode.findValue("_source").toString())
-                        .build();
-                result.add(row);
-            }
+    private String routeDocument(String index, String type, String id, String jsonSource) {
+        return routingStrategy == null ? null : routingStrategy.routeDocument(index, type, id, jsonSource);
+    }
+
+    private String newDocumentId(String index, String jsonSource) {
+        return routingStrategy == null ? null : routingStrategy.newDocumentId(index, jsonSource);
+    }
+
+    private String routeSearch(String index, Map<String, Object> parameters) {
+        return routingStrategy == null ? null : routingStrategy.routeSearch(index, parameters);
+    }
+
+    private ElasticSearchQueryResponse convert(MultiGetItemResponse item) {
+        if (item.isFailed()) {
+            log.info("get document by index:" + item.getIndex() + ",type:" + item.getType() + ",id:" + item.getId(),
+                    item.getFailure().getFailure());
+            return null;
         }
-        return result;
+        return ElasticSearchResponseConverter.convert(item.getResponse());
     }
 
-    private List<ElasticSearchQueryResponse> convert(SearchHits hits) {
-        List<ElasticSearchQueryResponse> result = new ArrayList<>();
-        if (hits == null || hits.totalHits == 0) {
-            return result;
+    private static <T> T await(CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
         }
-        for(SearchHit hit: hits) {
-            result.add(convert(hit));
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for the get coalescer", ie);
+        }
+        catch (ExecutionException ee) {
+            if (ee.getCause() instanceof IOException) {
+                throw (IOException) ee.getCause();
+            }
+            if (ee.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) ee.getCause();
+            }
+            throw new RuntimeException(ee.getCause());
         }
-        return result;
     }
 
-    private ElasticSearchQueryResponse convert(SearchHit hit) {
-        return ElasticSearchQueryResponse.builder()
-                .id(hit.getId())
-                .type(hit.getType())
-                .index(hit.getIndex())
-                .source(hit.getSourceAsString())
-                .build();
+    private List<ElasticSearchQueryResponse> convert(Response response) throws IOException {
+        try (InputStream content = response.getEntity().getContent()) {
+            return searchHitStreamDecoder.decode(content);
+        }
     }
 
     @Data
     @Builder
-    private static class UpsertScriptRequest {
+    static class UpsertScriptRequest {
         private ElasticSearchScript script;
     }
 
     @Data
     @Builder
-    private static class ElasticSearchScript {
+    static class ElasticSearchScript {
         private String lang;
         private String source;
     }
@@ -0,0 +1,289 @@
+package com.hct.elasticsearch.service;
+
+import com.hct.elasticsearch.dto.ElasticSearchQueryResponse;
+import com.hct.elasticsearch.dto.RawSource;
+import com.hct.elasticsearch.metrics.ElasticSearchMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.DocWriteResponse;
+import org.elasticsearch.action.admin.indices.get.GetIndexRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.script.mustache.SearchTemplateRequest;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Non-blocking counterpart of {@link ElasticSearchApiService} on top of the client's async HTTP reactor.
+ *
+ * Results are mapped and errors translated the same way as in the blocking service. The futures complete
+ * on the reactor threads, so heavy continuations should be chained with the *Async variants and an executor.
+ */
+@Service
+@Slf4j
+public class ElasticSearchAsyncApiService {
+
+    private RestHighLevelClient elasticSearchClient;
+    private ElasticSearchMetrics elasticSearchMetrics;
+    private QueryResultCache queryResultCache;
+    private IndexMetadataCache indexMetadataCache;
+
+    @Autowired
+    ElasticSearchAsyncApiService(RestHighLevelClient elasticSearchClient, ElasticSearchMetrics elasticSearchMetrics,
+                                 QueryResultCache queryResultCache, IndexMetadataCache indexMetadataCache) {
+        this.elasticSearchClient = elasticSearchClient;
+        this.elasticSearchMetrics = elasticSearchMetrics;
+        this.queryResultCache = queryResultCache;
+        this.indexMetadataCache = indexMetadataCache;
+    }
+
+    public CompletableFuture<Boolean> hasIndex(String index) {
+        GetIndexRequest request = new GetIndexRequest();
+        request.indices(index);
+        return elasticSearchMetrics.recordAsync("exists", index, null, () -> {
+            CompletableFuture<Boolean> future = new CompletableFuture<>();
+            elasticSearchClient.indices().existsAsync(request, RequestOptions.DEFAULT,
+                    completing(future, Function.identity(), e -> translate(e, "search errors:")));
+            return future;
+        });
+    }
+
+    public CompletableFuture<List<ElasticSearchQueryResponse>> querySearchAll(String index) {
+        // a single round-trip: missing indices are learnt from the 404 and remembered for a while
+        if (indexMetadataCache.isKnownMissing(index)) {
+            return CompletableFuture.completedFuture(Collections.emptyList());
+        }
+        CompletableFuture<List<ElasticSearchQueryResponse>> future = new CompletableFuture<>();
+        search(new SearchRequest(index), null, "search errors:").whenComplete((hits, failure) -> {
+            if (failure == null) {
+                future.complete(hits);
+                return;
+            }
+            Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+            if (cause instanceof ElasticsearchStatusException && IndexMetadataCache.isIndexNotFound((ElasticsearchStatusException) cause)) {
+                indexMetadataCache.markMissing(index);
+                future.complete(Collections.emptyList());
+                return;
+            }
+            future.completeExceptionally(cause);
+        });
+        return future;
+    }
+
+    public CompletableFuture<ElasticSearchQueryResponse> getDocumentById(String index, String type, String id) {
+        GetRequest getRequest = new GetRequest();
+        getRequest.index(index);
+        getRequest.type(type);
+        getRequest.id(id);
+
+        return elasticSearchMetrics.recordAsync("get", index, () -> id, () -> {
+            CompletableFuture<ElasticSearchQueryResponse> future = new CompletableFuture<>();
+            elasticSearchClient.getAsync(getRequest, RequestOptions.DEFAULT, new ActionListener<GetResponse>() {
+                @Override
+                public void onResponse(GetResponse getResponse) {
+                    future.complete(ElasticSearchResponseConverter.convert(getResponse));
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    if (e instanceof ElasticsearchStatusException) {
+                        log.info("get document by index:" + index +",type:" + type + ",id:" + id, e);
+                        future.complete(null);
+                        return;
+                    }
+                    future.completeExceptionally(translate(e, "fetch query template errors"));
+                }
+            });
+            return future;
+        });
+    }
+
+    public CompletableFuture<Void> updateDocument(String index, String type, String id, String json) {
+        UpdateRequest updateRequest = new UpdateRequest(index, type, id);
+        updateRequest.doc(json, XContentType.JSON);
+
+        return elasticSearchMetrics.recordAsync("update", index, () -> id, () -> {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            elasticSearchClient.updateAsync(updateRequest, RequestOptions.DEFAULT, completing(future, updateResponse -> {
+                if (updateResponse.status() != RestStatus.OK) {
+                    throw new RuntimeException("errors["+ updateResponse.status() +"] occur for updating index:" + index +", type:" + type +", id:" + id + ",json:" + json );
+                }
+                return null;
+            }, e -> translate(e, "update errors")));
+            return future;
+        }).whenComplete((ignored, failure) -> queryResultCache.invalidate(index));
+    }
+
+    public CompletableFuture<ElasticSearchQueryResponse> saveDocument(String index, String type, String jsonSource) {
+        return saveDocument(index, type, null, jsonSource);
+    }
+
+    public CompletableFuture<ElasticSearchQueryResponse> saveDocument(String index, String type, String id, String jsonSource) {
+        IndexRequest indexRequest = new IndexRequest(index, type, id);
+        indexRequest.source(jsonSource, XContentType.JSON);
+
+        return elasticSearchMetrics.recordAsync("index", index, () -> id, () -> {
+            CompletableFuture<ElasticSearchQueryResponse> future = new CompletableFuture<>();
+            elasticSearchClient.indexAsync(indexRequest, RequestOptions.DEFAULT, completing(future, indexResponse -> {
+                if ((indexResponse.getResult() == DocWriteResponse.Result.CREATED &&
+                        indexResponse.status() == RestStatus.CREATED) ||
+                        (indexResponse.getResult() == DocWriteResponse.Result.UPDATED &&
+                                indexResponse.status() == RestStatus.OK)
+                ) {
+                    return ElasticSearchQueryResponse.builder()
+                            .index(indexResponse.getIndex())
+                            .type(indexResponse.getType())
+                            .id(indexResponse.getId())
+                            .rawSource(RawSource.of(indexRequest.source()))
+                            .build();
+                }
+                throw new RuntimeException("errors["+ indexResponse.status() +"] occur for saving index:" + indexRequest);
+            }, e -> translate(e, "save errors")));
+            return future;
+        }).whenComplete((ignored, failure) -> {
+            queryResultCache.invalidate(index);
+            // indexing may have created the index
+            indexMetadataCache.invalidate(index);
+        });
+    }
+
+    public CompletableFuture<List<ElasticSearchQueryResponse>> queryMatches(String index, String field, Object value) {
+        SearchRequest searchRequest = new SearchRequest(index);
+        searchRequest.source(new SearchSourceBuilder().query(QueryBuilders.matchQuery(field, value)));
+        return search(searchRequest, () -> field + "=" + value, "multi search errors");
+    }
+
+    public CompletableFuture<List<ElasticSearchQueryResponse>> queryMultiMatches(String index, Map<String, Object> arguments) {
+        MultiSearchRequest request = new MultiSearchRequest();
+        for (Map.Entry<String, Object> argument : arguments.entrySet()) {
+            SearchRequest searchRequest = new SearchRequest(index);
+            searchRequest.source(new SearchSourceBuilder().query(QueryBuilders.matchQuery(argument.getKey(), argument.getValue())));
+            request.add(searchRequest);
+        }
+
+        return elasticSearchMetrics.recordAsync("msearch", index, arguments::keySet, () -> {
+            CompletableFuture<List<ElasticSearchQueryResponse>> future = new CompletableFuture<>();
+            elasticSearchClient.msearchAsync(request, RequestOptions.DEFAULT, completing(future, multiSearchResponse -> {
+                List<ElasticSearchQueryResponse> result = new ArrayList<>();
+                for (MultiSearchResponse.Item item : multiSearchResponse.getResponses()) {
+                    if (item.isFailure()) {
+                        log.warn("multi search partially failed on index:" + index, item.getFailure());
+                        continue;
+                    }
+                    result.addAll(ElasticSearchResponseConverter.convert(item.getResponse().getHits()));
+                }
+                return result;
+            }, e -> translate(e, "multi search errors")));
+            return future;
+        });
+    }
+
+    public CompletableFuture<List<ElasticSearchQueryResponse>> query(String index, String templateId, Map<String, Object> parameters) {
+        SearchTemplateRequest request = new SearchTemplateRequest();
+        request.setRequest(new SearchRequest(index));
+        request.setScriptType(ScriptType.STORED);
+        request.setScript(templateId);
+        request.setScriptParams(parameters);
+
+        return elasticSearchMetrics.recordAsync("search_template", index, () -> templateId + parameters, () -> {
+            CompletableFuture<List<ElasticSearchQueryResponse>> future = new CompletableFuture<>();
+            elasticSearchClient.searchTemplateAsync(request, RequestOptions.DEFAULT,
+                    completing(future, response -> ElasticSearchResponseConverter.convert(response.getResponse().getHits()),
+                            e -> new RuntimeException("execute query errors", e)));
+            return future;
+        });
+    }
+
+    /**
+     * Fans the same stored template out over several parameter sets and joins the results in order.
+     */
+    public CompletableFuture<List<List<ElasticSearchQueryResponse>>> queryAll(String index, String templateId, List<Map<String, Object>> parameterSets) {
+        List<CompletableFuture<List<ElasticSearchQueryResponse>>> futures = new ArrayList<>(parameterSets.size());
+        for (Map<String, Object> parameters : parameterSets) {
+            futures.add(query(index, templateId, parameters));
+        }
+        return allOf(futures);
+    }
+
+    /**
+     * Completes with every result in the order of the given futures, or exceptionally with the first failure.
+     */
+    public static <T> CompletableFuture<List<T>> allOf(List<CompletableFuture<T>> futures) {
+        return CompletableFuture.allOf(futures.toArray(new CompletableFuture[0]))
+                .thenApply(ignored -> {
+                    List<T> results = new ArrayList<>(futures.size());
+                    for (CompletableFuture<T> future : futures) {
+                        results.add(future.join());
+                    }
+                    return results;
+                });
+    }
+
+    private CompletableFuture<List<ElasticSearchQueryResponse>> search(SearchRequest searchRequest, Supplier<?> detail, String errorMessage) {
+        return elasticSearchMetrics.recordAsync("search", String.join(",", searchRequest.indices()), detail, () -> {
+            CompletableFuture<List<ElasticSearchQueryResponse>> future = new CompletableFuture<>();
+            elasticSearchClient.searchAsync(searchRequest, RequestOptions.DEFAULT,
+                    completing(future, searchResponse -> ElasticSearchResponseConverter.convert(searchResponse.getHits()),
+                            e -> translate(e, errorMessage)));
+            return future;
+        });
+    }
+
+    /**
+     * Same translation as the blocking service: transport failures become a RuntimeException,
+     * exceptions raised by Elasticsearch itself are passed on unchanged.
+     */
+    private static RuntimeException translate(Exception e, String message) {
+        if (e instanceof IOException) {
+            return new RuntimeException(message, e);
+        }
+        if (e instanceof RuntimeException) {
+            return (RuntimeException) e;
+        }
+        return new RuntimeException(message, e);
+    }
+
+    private static <T, R> ActionListener<T> completing(CompletableFuture<R> future,
+                                                       Function<T, R> mapper,
+                                                       Function<Exception, RuntimeException> errorTranslator) {
+        return new ActionListener<T>() {
+            @Override
+            public void onResponse(T response) {
+                try {
+                    future.complete(mapper.apply(response));
+                }
+                catch (RuntimeException re) {
+                    future.completeExceptionally(re);
+                }
+            }
+
+            @Override
+            public void onFailure(Exception e) {
+                future.completeExceptionally(errorTranslator.apply(e));
+            }
+        };
+    }
+}
@@ -0,0 +1,66 @@
+package com.hct.elasticsearch.service;
+
+import com.hct.elasticsearch.dto.ElasticSearchQueryResponse;
+import com.hct.elasticsearch.dto.RawSource;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.common.document.DocumentField;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHits;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Response mapping shared by the blocking and the asynchronous services.
+ */
+final class ElasticSearchResponseConverter {
+
+    private ElasticSearchResponseConverter() {
+    }
+
+    static List<ElasticSearchQueryResponse> convert(SearchHits hits) {
+        List<ElasticSearchQueryResponse> result = new ArrayList<>();
+        if (hits == null || hits.totalHits == 0) {
+            return result;
+        }
+        for(SearchHit hit: hits) {
+            result.add(convert(hit));
+        }
+        return result;
+    }
+
+    static ElasticSearchQueryResponse convert(SearchHit hit) {
+        return ElasticSearchQueryResponse.builder()
+                .id(hit.getId())
+                .type(hit.getType())
+                .index(hit.getIndex())
+                .score(Float.isNaN(hit.getScore()) ? null : hit.getScore())
+                .rawSource(RawSource.of(hit.getSourceRef()))
+                .fields(fields(hit.getFields()))
+                .build();
+    }
+
+    static ElasticSearchQueryResponse convert(GetResponse getResponse) {
+        if (getResponse == null || !getResponse.isExists()) {
+            return null;
+        }
+        return ElasticSearchQueryResponse.builder()
+                .id(getResponse.getId())
+                .index(getResponse.getIndex())
+                .type(getResponse.getType())
+                .rawSource(RawSource.of(getResponse.getSourceAsBytesRef()))
+                .fields(fields(getResponse.getFields()))
+                .build();
+    }
+
+    private static Map<String, List<Object>> fields(Map<String, DocumentField> documentFields) {
+        if (documentFields == null || documentFields.isEmpty()) {
+            return null;
+        }
+        Map<String, List<Object>> fields = new LinkedHashMap<>();
+        documentFields.forEach((name, field) -> fields.put(name, field.getValues()));
+        return fields;
+    }
+}
@@ -0,0 +1,97 @@
+package com.hct.elasticsearch.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.hct.elasticsearch.config.properties.RoutingProperties;
+import org.elasticsearch.common.UUIDs;
+
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Routes by the value of one field. Documents carry it as the prefix of their id before the id separator, so that
+ * gets and partial updates, which only know the id, route the same way as the writes; a top level field of the same
+ * name in a source must match that prefix. Searches route by the parameter of the same name.
+ */
+public class FieldRoutingStrategy implements RoutingStrategy {
+
+    private final JsonFactory jsonFactory;
+    private final String field;
+    private final String idSeparator;
+    private final Set<String> indices;
+
+    public FieldRoutingStrategy(JsonFactory jsonFactory, RoutingProperties properties) {
+        if (properties.getIdSeparator() == null || properties.getIdSeparator().isEmpty()) {
+            throw new IllegalArgumentException("elasticsearch.routing.id-separator is required, gets and partial updates route by the id prefix");
+        }
+        this.jsonFactory = jsonFactory;
+        this.field = properties.getField();
+        this.idSeparator = properties.getIdSeparator();
+        this.indices = new HashSet<>(properties.getIndices());
+    }
+
+    @Override
+    public String routeDocument(String index, String type, String id, String jsonSource) {
+        if (!isRouted(index)) {
+            return null;
+        }
+        String routing = idPrefix(id);
+        String value = jsonSource == null ? null : topLevelValue(jsonSource);
+        if (value != null && !value.equals(routing)) {
+            throw new IllegalArgumentException(field + ":" + value + " does not match the id:" + id
+                    + ", ids of routed documents are made of the " + field + ", \"" + idSeparator + "\" and the rest");
+        }
+        return routing;
+    }
+
+    @Override
+    public String newDocumentId(String index, String jsonSource) {
+        if (!isRouted(index) || jsonSource == null) {
+            return null;
+        }
+        String value = topLevelValue(jsonSource);
+        return value == null ? null : value + idSeparator + UUIDs.base64UUID();
+    }
+
+    @Override
+    public String routeSearch(String index, Map<String, Object> parameters) {
+        if (!isRouted(index) || parameters == null) {
+            return null;
+        }
+        Object value = parameters.get(field);
+        return value == null ? null : String.valueOf(value);
+    }
+
+    private String idPrefix(String id) {
+        int separator = id == null ? -1 : id.indexOf(idSeparator);
+        return separator > 0 ? id.substring(0, separator) : null;
+    }
+
+    private boolean isRouted(String index) {
+        return indices.isEmpty() || indices.contains(index);
+    }
+
+    private String topLevelValue(String jsonSource) {
+        // streamed so that the rest of a large document is skipped, not parsed into a tree
+        try (JsonParser parser = jsonFactory.createParser(jsonSource)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                return null;
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (field.equals(name)) {
+                    return value.isScalarValue() && value != JsonToken.VALUE_NULL ? parser.getText() : null;
+                }
+                parser.skipChildren();
+            }
+            return null;
+        }
+        catch (IOException ioe) {
+            throw new RuntimeException("invalid document source, routing field:" + field, ioe);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package com.hct.elasticsearch.service;
+
+import com.hct.elasticsearch.config.properties.GetCoalescerProperties;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.action.get.MultiGetResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the gets by id made concurrently into _mget requests: a batch is sent windowMillis after its first get,
+ * or as soon as it holds maxBatchSize documents. Gets of the same document in a batch share its item.
+ *
+ * Futures complete with the item of their document, failed items included, or exceptionally with the failure
+ * of the whole _mget.
+ */
+@Slf4j
+public class GetCoalescer implements Closeable {
+
+    private final RestHighLevelClient elasticSearchClient;
+    private final long windowMillis;
+    private final int maxBatchSize;
+    private final ScheduledExecutorService flusher;
+
+    private final Object lock = new Object();
+    private Map<Key, List<CompletableFuture<MultiGetItemResponse>>> batch = new LinkedHashMap<>();
+    private ScheduledFuture<?> scheduledFlush;
+
+    private final AtomicLong submittedGets = new AtomicLong();
+    private final AtomicLong sentBatches = new AtomicLong();
+
+    public GetCoalescer(RestHighLevelClient elasticSearchClient, GetCoalescerProperties properties) {
+        this.elasticSearchClient = elasticSearchClient;
+        this.windowMillis = properties.getWindowMillis();
+        this.maxBatchSize = properties.getMaxBatchSize();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "get-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public CompletableFuture<MultiGetItemResponse> get(String index, String type, String id, String routing) {
+        CompletableFuture<MultiGetItemResponse> future = new CompletableFuture<>();
+        Map<Key, List<CompletableFuture<MultiGetItemResponse>>> full = null;
+        synchronized (lock) {
+            if (flusher.isShutdown()) {
+                throw new IllegalStateException("get coalescer closed");
+            }
+            batch.computeIfAbsent(new Key(index, type, id, routing), key -> new ArrayList<>(1)).add(future);
+            if (batch.size() >= maxBatchSize) {
+                full = takeBatch();
+            }
+            else if (scheduledFlush == null) {
+                scheduledFlush = flusher.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+        submittedGets.incrementAndGet();
+        if (full != null) {
+            send(full);
+        }
+        return future;
+    }
+
+    /**
+     * Sends the gets collected so far.
+     */
+    public void flush() {
+        Map<Key, List<CompletableFuture<MultiGetItemResponse>>> taken;
+        synchronized (lock) {
+            taken = takeBatch();
+        }
+        if (!taken.isEmpty()) {
+            send(taken);
+        }
+    }
+
+    /**
+     * @return gets accepted so far, compare with {@link #getSentBatches()} to see the batching ratio
+     */
+    public long getSubmittedGets() {
+        return submittedGets.get();
+    }
+
+    public long getSentBatches() {
+        return sentBatches.get();
+    }
+
+    @Override
+    public void close() {
+        synchronized (lock) {
+            flusher.shutdownNow();
+        }
+        flush();
+    }
+
+    private Map<Key, List<CompletableFuture<MultiGetItemResponse>>> takeBatch() {
+        Map<Key, List<CompletableFuture<MultiGetItemResponse>>> taken = batch;
+        batch = new LinkedHashMap<>();
+        if (scheduledFlush != null) {
+            scheduledFlush.cancel(false);
+            scheduledFlush = null;
+        }
+        return taken;
+    }
+
+    private void send(Map<Key, List<CompletableFuture<MultiGetItemResponse>>> taken) {
+        MultiGetRequest multiGetRequest = new MultiGetRequest();
+        List<List<CompletableFuture<MultiGetItemResponse>>> waiting = new ArrayList<>(taken.size());
+        taken.forEach((key, futures) -> {
+            multiGetRequest.add(new MultiGetRequest.Item(key.index, key.type, key.id).routing(key.routing));
+            waiting.add(futures);
+        });
+        sentBatches.incrementAndGet();
+        try {
+            elasticSearchClient.mgetAsync(multiGetRequest, RequestOptions.DEFAULT, new ActionListener<MultiGetResponse>() {
+                @Override
+                public void onResponse(MultiGetResponse multiGetResponse) {
+                    MultiGetItemResponse[] items = multiGetResponse.getResponses();
+                    for (int i = 0; i < waiting.size(); i++) {
+                        MultiGetItemResponse item = items[i];
+                        waiting.get(i).forEach(future -> future.complete(item));
+                    }
+                }
+
+                @Override
+                public void onFailure(Exception e) {
+                    waiting.forEach(futures -> futures.forEach(future -> future.completeExceptionally(e)));
+                }
+            });
+        }
+        catch (Exception e) {
+            log.warn("get coalescer send errors", e);
+            waiting.forEach(futures -> futures.forEach(future -> future.completeExceptionally(e)));
+        }
+    }
+
+    @Value
+    private static class Key {
+        private String index;
+        private String type;
+        private String id;
+        private String routing;
+    }
+}
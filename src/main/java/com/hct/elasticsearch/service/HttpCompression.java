@@ -0,0 +1,216 @@
+package com.hct.elasticsearch.service;
+
+import com.hct.elasticsearch.config.properties.HttpCompressionProperties;
+import com.hct.elasticsearch.metrics.ElasticSearchMetrics;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.protocol.HttpContext;
+import org.elasticsearch.client.HeapBufferedAsyncResponseConsumer;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+
+import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Gzip of the request bodies the service builds itself, and transparent inflating of gzipped responses.
+ *
+ * The high level client of this Elasticsearch version has no compression option, and an interceptor can not
+ * swap the entity of a request the async client already started producing, so request bodies are compressed
+ * where the low level {@link Request}s are built: template searches and large bulks.
+ * Responses are asked for gzipped and inflated through the {@link #requestOptions()} of a call, whose consumer
+ * wraps the body once it is buffered. An interceptor would run before the body is buffered, and the buffered
+ * copy would keep the gzipped bytes.
+ */
+public class HttpCompression {
+
+    static final String GZIP = "gzip";
+    // same limit as the client's default consumer, applied to the body as received
+    private static final int BUFFER_LIMIT_BYTES = 100 * 1024 * 1024;
+
+    private final HttpCompressionProperties properties;
+    private final ElasticSearchMetrics elasticSearchMetrics;
+    private final RequestOptions requestOptions;
+
+    public HttpCompression(HttpCompressionProperties properties, ElasticSearchMetrics elasticSearchMetrics) {
+        this.properties = properties;
+        this.elasticSearchMetrics = elasticSearchMetrics;
+        this.requestOptions = properties.isResponsesEnabled()
+                ? RequestOptions.DEFAULT.toBuilder()
+                        .addHeader(HttpHeaders.ACCEPT_ENCODING, GZIP)
+                        .setHttpAsyncResponseConsumerFactory(InflatingResponseConsumer::new)
+                        .build()
+                : RequestOptions.DEFAULT;
+    }
+
+    public static HttpCompression disabled() {
+        return new HttpCompression(HttpCompressionProperties.builder().build(), null);
+    }
+
+    /**
+     * @param length body size in bytes, negative when unknown
+     */
+    public boolean shouldCompress(long length) {
+        return properties.isRequestsEnabled() && length >= properties.getMinRequestBytes();
+    }
+
+    /**
+     * @return the entity gzipped, or as it is when it is too small or compression is off
+     */
+    public HttpEntity compress(HttpEntity entity) throws IOException {
+        if (entity == null || entity.getContentEncoding() != null || !shouldCompress(entity.getContentLength())) {
+            return entity;
+        }
+        long start = System.nanoTime();
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int) Math.max(256, entity.getContentLength() / 4));
+        try (OutputStream gzip = gzip(out)) {
+            entity.writeTo(gzip);
+        }
+        long nanos = System.nanoTime() - start;
+        elasticSearchMetrics.recordCompression("request", entity.getContentLength(), out.size(), nanos);
+
+        Header contentType = entity.getContentType();
+        ByteArrayEntity compressed = new ByteArrayEntity(out.toByteArray(),
+                contentType == null ? ContentType.APPLICATION_JSON : ContentType.parse(contentType.getValue()));
+        compressed.setContentEncoding(GZIP);
+        return compressed;
+    }
+
+    public void compress(Request request) throws IOException {
+        request.setEntity(compress(request.getEntity()));
+    }
+
+    /**
+     * Options that negotiate gzipped responses and inflate them, the default ones when responses are not compressed.
+     */
+    public RequestOptions requestOptions() {
+        return requestOptions;
+    }
+
+    public void negotiate(Request request) {
+        request.setOptions(requestOptions);
+    }
+
+    private OutputStream gzip(OutputStream out) throws IOException {
+        return new GZIPOutputStream(out, 8192) {
+            {
+                def.setLevel(properties.getLevel());
+            }
+        };
+    }
+
+    /**
+     * Buffers the body like the default consumer, then has a gzipped one inflated while it is read.
+     */
+    private class InflatingResponseConsumer extends HeapBufferedAsyncResponseConsumer {
+
+        InflatingResponseConsumer() {
+            super(BUFFER_LIMIT_BYTES);
+        }
+
+        @Override
+        protected HttpResponse buildResult(HttpContext context) throws Exception {
+            HttpResponse response = super.buildResult(context);
+            Header encoding = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+            if (response.getEntity() != null && encoding != null && GZIP.equalsIgnoreCase(encoding.getValue())) {
+                response.setEntity(new InflatingEntity(response.getEntity()));
+                response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+                response.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+            }
+            return response;
+        }
+    }
+
+    /**
+     * Inflates the body while it is read, nothing is decompressed up front.
+     */
+    private class InflatingEntity extends HttpEntityWrapper {
+
+        InflatingEntity(HttpEntity wrappedEntity) {
+            super(wrappedEntity);
+        }
+
+        @Override
+        public InputStream getContent() throws IOException {
+            return new MeteredInputStream(new GZIPInputStream(wrappedEntity.getContent(), 8192), wrappedEntity.getContentLength());
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            try (InputStream in = getContent()) {
+                byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    out.write(buffer, 0, read);
+                }
+            }
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public Header getContentEncoding() {
+            return null;
+        }
+    }
+
+    /**
+     * Counts the inflated bytes and the time spent inflating them, recorded once the stream is closed.
+     */
+    private class MeteredInputStream extends FilterInputStream {
+
+        private final long compressedBytes;
+        private long plainBytes;
+        private long nanos;
+        private boolean closed;
+
+        MeteredInputStream(InputStream in, long compressedBytes) {
+            super(in);
+            this.compressedBytes = compressedBytes;
+        }
+
+        @Override
+        public int read() throws IOException {
+            long start = System.nanoTime();
+            int read = super.read();
+            nanos += System.nanoTime() - start;
+            if (read != -1) {
+                plainBytes++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            long start = System.nanoTime();
+            int read = super.read(b, off, len);
+            nanos += System.nanoTime() - start;
+            if (read > 0) {
+                plainBytes += read;
+            }
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (!closed) {
+                closed = true;
+                elasticSearchMetrics.recordCompression("response", plainBytes, compressedBytes, nanos);
+            }
+            super.close();
+        }
+    }
+}
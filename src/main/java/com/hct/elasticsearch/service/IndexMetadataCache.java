@@ -0,0 +1,138 @@
+package com.hct.elasticsearch.service;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.hct.elasticsearch.config.properties.IndexMetadataCacheProperties;
+import com.hct.elasticsearch.dto.IndexMetadata;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.admin.indices.get.GetIndexRequest;
+import org.elasticsearch.action.admin.indices.get.GetIndexResponse;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.cluster.metadata.AliasMetaData;
+import org.elasticsearch.cluster.metadata.MappingMetaData;
+import org.elasticsearch.common.collect.ImmutableOpenMap;
+import org.elasticsearch.rest.RestStatus;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches index existence, aliases and mappings, including the fact that an index is missing.
+ *
+ * Read paths do not ask for existence up front: they search directly and report an
+ * index_not_found_exception through {@link #markMissing(String)}.
+ */
+@Component
+public class IndexMetadataCache {
+
+    private static final String INDEX_NOT_FOUND = "index_not_found_exception";
+
+    private RestHighLevelClient elasticSearchClient;
+    private final Cache<String, IndexMetadata> cache;
+
+    @Autowired
+    IndexMetadataCache(RestHighLevelClient elasticSearchClient, IndexMetadataCacheProperties properties) {
+        this.elasticSearchClient = elasticSearchClient;
+        long ttlNanos = TimeUnit.MILLISECONDS.toNanos(properties.getTtlMillis());
+        long negativeTtlNanos = TimeUnit.MILLISECONDS.toNanos(properties.getNegativeTtlMillis());
+        this.cache = Caffeine.newBuilder()
+                .maximumSize(properties.getMaximumSize())
+                .expireAfter(new Expiry<String, IndexMetadata>() {
+                    @Override
+                    public long expireAfterCreate(String index, IndexMetadata metadata, long currentTime) {
+                        return metadata.isExists() ? ttlNanos : negativeTtlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String index, IndexMetadata metadata, long currentTime, long currentDuration) {
+                        return expireAfterCreate(index, metadata, currentTime);
+                    }
+
+                    @Override
+                    public long expireAfterRead(String index, IndexMetadata metadata, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * @return true only when the index was recently found missing
+     */
+    public boolean isKnownMissing(String index) {
+        IndexMetadata metadata = cache.getIfPresent(index);
+        return metadata != null && !metadata.isExists();
+    }
+
+    public IndexMetadata getMetadata(String index) {
+        IndexMetadata metadata = cache.getIfPresent(index);
+        if (metadata == null) {
+            metadata = load(index);
+            cache.put(index, metadata);
+        }
+        return metadata;
+    }
+
+    public void markMissing(String index) {
+        cache.put(index, IndexMetadata.missing(index));
+    }
+
+    public void invalidate(String index) {
+        cache.invalidate(index);
+    }
+
+    public static boolean isIndexNotFound(ElasticsearchStatusException ese) {
+        return ese.status() == RestStatus.NOT_FOUND && ese.getMessage() != null && ese.getMessage().contains(INDEX_NOT_FOUND);
+    }
+
+    private IndexMetadata load(String index) {
+        GetIndexRequest request = new GetIndexRequest();
+        request.indices(index);
+        try {
+            GetIndexResponse response = elasticSearchClient.indices().get(request, RequestOptions.DEFAULT);
+
+            Set<String> aliases = new HashSet<>();
+            Map<String, Map<String, Object>> mappings = new HashMap<>();
+            for (String concreteIndex : response.getIndices()) {
+                List<AliasMetaData> indexAliases = response.getAliases().get(concreteIndex);
+                if (indexAliases != null) {
+                    indexAliases.forEach(alias -> aliases.add(alias.alias()));
+                }
+                ImmutableOpenMap<String, MappingMetaData> indexMappings = response.getMappings().get(concreteIndex);
+                if (indexMappings != null) {
+                    for (Iterator<String> types = indexMappings.keysIt(); types.hasNext(); ) {
+                        String type = types.next();
+                        mappings.putIfAbsent(type, indexMappings.get(type).sourceAsMap());
+                    }
+                }
+            }
+            return IndexMetadata.builder()
+                    .index(index)
+                    .exists(response.getIndices().length > 0)
+                    .concreteIndices(new HashSet<>(Arrays.asList(response.getIndices())))
+                    .aliases(aliases)
+                    .mappings(mappings)
+                    .build();
+        }
+        catch (ElasticsearchStatusException ese) {
+            if (isIndexNotFound(ese)) {
+                return IndexMetadata.missing(index);
+            }
+            throw ese;
+        }
+        catch (IOException ioe) {
+            throw new RuntimeException("get index metadata errors", ioe);
+        }
+    }
+}
@@ -0,0 +1,48 @@
+package com.hct.elasticsearch.service;
+
+import org.elasticsearch.search.SearchHit;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * Iterates over search hits one page at a time, only the current page is held in memory.
+ */
+abstract class PagedHitIterator implements Iterator<SearchHit>, AutoCloseable {
+
+    private SearchHit[] page = new SearchHit[0];
+    private int position;
+    private boolean exhausted;
+
+    /**
+     * @return the next page of hits, or an empty array when there are no more hits
+     */
+    protected abstract SearchHit[] nextPage();
+
+    @Override
+    public boolean hasNext() {
+        while (position >= page.length) {
+            if (exhausted) {
+                return false;
+            }
+            page = nextPage();
+            position = 0;
+            if (page.length == 0) {
+                exhausted = true;
+                close();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public SearchHit next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        return page[position++];
+    }
+
+    @Override
+    public abstract void close();
+}
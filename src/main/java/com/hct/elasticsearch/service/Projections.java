@@ -0,0 +1,123 @@
+package com.hct.elasticsearch.service;
+
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.hct.elasticsearch.dto.Projection;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.MultiGetRequest;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.fetch.subphase.FetchSourceContext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies a {@link Projection} to the different kinds of requests the service sends.
+ */
+final class Projections {
+
+    private static final String HITS = "hits.hits.";
+
+    private Projections() {
+    }
+
+    static boolean isAll(Projection projection) {
+        return projection == null || projection.isAll();
+    }
+
+    static void apply(SearchSourceBuilder searchSourceBuilder, Projection projection) {
+        if (isAll(projection)) {
+            return;
+        }
+        searchSourceBuilder.fetchSource(fetchSourceContext(projection));
+        projection.getDocValueFields().forEach(searchSourceBuilder::docValueField);
+        if (!projection.getStoredFields().isEmpty()) {
+            searchSourceBuilder.storedFields(projection.getStoredFields());
+        }
+    }
+
+    static void apply(GetRequest getRequest, Projection projection) {
+        if (isAll(projection)) {
+            return;
+        }
+        if (!projection.getDocValueFields().isEmpty()) {
+            throw new IllegalArgumentException("doc value fields can not be fetched by id, use stored fields");
+        }
+        getRequest.fetchSourceContext(fetchSourceContext(projection));
+        if (!projection.getStoredFields().isEmpty()) {
+            getRequest.storedFields(projection.getStoredFields().toArray(new String[0]));
+        }
+    }
+
+    static void apply(MultiGetRequest.Item item, Projection projection) {
+        if (isAll(projection)) {
+            return;
+        }
+        if (!projection.getDocValueFields().isEmpty()) {
+            throw new IllegalArgumentException("doc value fields can not be fetched by id, use stored fields");
+        }
+        item.fetchSourceContext(fetchSourceContext(projection));
+        if (!projection.getStoredFields().isEmpty()) {
+            item.storedFields(projection.getStoredFields().toArray(new String[0]));
+        }
+    }
+
+    /**
+     * Adds the projection to a rendered search body.
+     */
+    static void apply(ObjectNode searchBody, Projection projection) {
+        if (isAll(projection)) {
+            return;
+        }
+        if (!projection.isFetchSource()) {
+            searchBody.put("_source", false);
+        }
+        else if (!projection.getIncludes().isEmpty() || !projection.getExcludes().isEmpty()) {
+            ObjectNode source = searchBody.putObject("_source");
+            ArrayNode includes = source.putArray("includes");
+            projection.getIncludes().forEach(includes::add);
+            ArrayNode excludes = source.putArray("excludes");
+            projection.getExcludes().forEach(excludes::add);
+        }
+        if (!projection.getDocValueFields().isEmpty()) {
+            ArrayNode docValueFields = searchBody.putArray("docvalue_fields");
+            projection.getDocValueFields().forEach(docValueFields::add);
+        }
+        if (!projection.getStoredFields().isEmpty()) {
+            ArrayNode storedFields = searchBody.putArray("stored_fields");
+            projection.getStoredFields().forEach(storedFields::add);
+        }
+    }
+
+    /**
+     * A stored template decides what it fetches, so the best that can be done without rendering it
+     * is to cut the unwanted _source fields out of the response with filter_path.
+     */
+    static String filterPath(Projection projection) {
+        if (!projection.getDocValueFields().isEmpty() || !projection.getStoredFields().isEmpty()) {
+            throw new IllegalArgumentException("doc value and stored fields of stored templates need query.render-templates-locally");
+        }
+        List<String> filters = new ArrayList<>();
+        filters.add(HITS + "_id");
+        filters.add(HITS + "_index");
+        filters.add(HITS + "_type");
+        filters.add(HITS + "_score");
+        if (projection.isFetchSource()) {
+            if (projection.getIncludes().isEmpty()) {
+                filters.add(HITS + "_source");
+            }
+            projection.getIncludes().forEach(field -> filters.add(HITS + "_source." + field));
+            projection.getExcludes().forEach(field -> filters.add("-" + HITS + "_source." + field));
+        }
+        return String.join(",", filters);
+    }
+
+    private static FetchSourceContext fetchSourceContext(Projection projection) {
+        if (!projection.isFetchSource()) {
+            return FetchSourceContext.DO_NOT_FETCH_SOURCE;
+        }
+        return new FetchSourceContext(true,
+                projection.getIncludes().toArray(new String[0]),
+                projection.getExcludes().toArray(new String[0]));
+    }
+}
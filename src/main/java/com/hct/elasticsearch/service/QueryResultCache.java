@@ -0,0 +1,215 @@
+package com.hct.elasticsearch.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import com.hct.elasticsearch.config.properties.QueryCacheProperties;
+import com.hct.elasticsearch.dto.ElasticSearchQueryResponse;
+import lombok.Value;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Bounded cache of query results keyed by index, query kind, template or field and canonical parameters.
+ *
+ * Every index has a generation that is part of the key. Writing to an index bumps its generation, so
+ * a result loaded concurrently with the write is never served afterwards.
+ *
+ * Responses are mutable, so the cache keeps its own copies and hands out fresh copies on every hit.
+ */
+@Component
+public class QueryResultCache {
+
+    private static final int ENTRY_OVERHEAD_BYTES = 64;
+
+    private final boolean enabled;
+    private final Cache<Key, List<ElasticSearchQueryResponse>> cache;
+    private final ConcurrentMap<String, AtomicLong> generations = new ConcurrentHashMap<>();
+    private final ObjectWriter canonicalWriter;
+    private final long indexRefreshIntervalMillis;
+    private final ScheduledExecutorService delayedInvalidations;
+    private final Set<String> delayedIndices = ConcurrentHashMap.newKeySet();
+    private final ConcurrentMap<String, Long> lastWrites = new ConcurrentHashMap<>();
+
+    @Autowired
+    QueryResultCache(QueryCacheProperties queryCacheProperties, ObjectMapper objectMapper) {
+        this.enabled = queryCacheProperties.isEnabled();
+        this.canonicalWriter = objectMapper.writer().with(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS);
+        this.indexRefreshIntervalMillis = queryCacheProperties.getIndexRefreshIntervalMillis();
+        this.delayedInvalidations = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "query-cache-invalidation");
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        Caffeine<Object, Object> builder = Caffeine.newBuilder()
+                .expireAfterWrite(queryCacheProperties.getTtlMillis(), TimeUnit.MILLISECONDS)
+                .recordStats();
+        if (queryCacheProperties.getMaximumWeightBytes() > 0) {
+            this.cache = builder
+                    .maximumWeight(queryCacheProperties.getMaximumWeightBytes())
+                    .<Key, List<ElasticSearchQueryResponse>>weigher((key, value) -> weigh(value))
+                    .build();
+        }
+        else {
+            this.cache = builder
+                    .maximumSize(queryCacheProperties.getMaximumSize())
+                    .build();
+        }
+    }
+
+    public List<ElasticSearchQueryResponse> get(String index, String kind, String name, Object parameters,
+                                                Supplier<List<ElasticSearchQueryResponse>> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        AtomicLong generation = generation(index);
+        Key key = new Key(index, generation.get(), kind, name, canonicalize(parameters));
+        List<ElasticSearchQueryResponse> cached = cache.getIfPresent(key);
+        if (cached != null) {
+            return copy(cached);
+        }
+        List<ElasticSearchQueryResponse> result = loader.get();
+        cache.put(key, copy(result));
+        // a write that raced the load has already evicted, so take this entry out again
+        if (generation.get() != key.getGeneration()) {
+            cache.invalidate(key);
+        }
+        return result;
+    }
+
+    public void invalidate(String index) {
+        if (!enabled) {
+            return;
+        }
+        evict(index);
+        if (indexRefreshIntervalMillis > 0) {
+            lastWrites.put(index, System.nanoTime());
+            // one pending task per index, pushed back while writes keep coming
+            if (delayedIndices.add(index)) {
+                delayedInvalidations.schedule(() -> evictAfterRefresh(index), indexRefreshIntervalMillis, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    public void invalidateAll() {
+        generations.values().forEach(AtomicLong::incrementAndGet);
+        cache.invalidateAll();
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+
+    public long getSize() {
+        return cache.estimatedSize();
+    }
+
+    Cache<Key, List<ElasticSearchQueryResponse>> getCache() {
+        return cache;
+    }
+
+    @PreDestroy
+    void close() {
+        delayedInvalidations.shutdownNow();
+    }
+
+    private void evictAfterRefresh(String index) {
+        long sinceLastWrite = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - lastWrites.getOrDefault(index, 0L));
+        if (sinceLastWrite < indexRefreshIntervalMillis) {
+            delayedInvalidations.schedule(() -> evictAfterRefresh(index), indexRefreshIntervalMillis - sinceLastWrite, TimeUnit.MILLISECONDS);
+            return;
+        }
+        delayedIndices.remove(index);
+        evict(index);
+    }
+
+    private void evict(String index) {
+        long current = generation(index).incrementAndGet();
+        cache.asMap().keySet().removeIf(key -> key.getIndex().equals(index) && key.getGeneration() < current);
+    }
+
+    private AtomicLong generation(String index) {
+        return generations.computeIfAbsent(index, ignored -> new AtomicLong());
+    }
+
+    private static List<ElasticSearchQueryResponse> copy(List<ElasticSearchQueryResponse> responses) {
+        List<ElasticSearchQueryResponse> copies = new ArrayList<>(responses.size());
+        for (ElasticSearchQueryResponse response : responses) {
+            copies.add(copy(response));
+        }
+        return copies;
+    }
+
+    private static ElasticSearchQueryResponse copy(ElasticSearchQueryResponse response) {
+        ElasticSearchQueryResponse copy = ElasticSearchQueryResponse.builder()
+                .id(response.getId())
+                .index(response.getIndex())
+                .type(response.getType())
+                .score(response.getScore())
+                .build();
+        // the raw bytes are never written to, only the views decoded from them
+        if (response.getRawSource() != null) {
+            copy.setRawSource(response.getRawSource());
+        }
+        else {
+            copy.setSource(response.getSource());
+        }
+        if (response.getFields() != null) {
+            Map<String, List<Object>> fields = new LinkedHashMap<>();
+            response.getFields().forEach((field, values) -> fields.put(field, values == null ? null : new ArrayList<>(values)));
+            copy.setFields(fields);
+        }
+        return copy;
+    }
+
+    private String canonicalize(Object parameters) {
+        try {
+            return canonicalWriter.writeValueAsString(parameters);
+        }
+        catch (JsonProcessingException jpe) {
+            throw new IllegalArgumentException("query parameters are not serializable: " + parameters, jpe);
+        }
+    }
+
+    private static int weigh(List<ElasticSearchQueryResponse> responses) {
+        long weight = ENTRY_OVERHEAD_BYTES;
+        for (ElasticSearchQueryResponse response : responses) {
+            weight += ENTRY_OVERHEAD_BYTES;
+            if (response.getRawSource() != null) {
+                weight += response.getRawSource().length();
+            }
+            else if (response.getSource() != null) {
+                weight += response.getSource().length();
+            }
+        }
+        return (int) Math.min(weight, Integer.MAX_VALUE);
+    }
+
+    @Value
+    static class Key {
+        private String index;
+        private long generation;
+        private String kind;
+        private String name;
+        private String parameters;
+    }
+}
@@ -0,0 +1,291 @@
+package com.hct.elasticsearch.service;
+
+import com.hct.elasticsearch.config.properties.ReadResilienceProperties;
+import com.hct.elasticsearch.metrics.ElasticSearchMetrics;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.Recorder;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.rest.RestStatus;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+
+/**
+ * Resilience of the read paths: per index circuit breaking, retries with full jitter backoff under a retry budget,
+ * and hedging, where a read still running after the configured latency percentile gets a duplicate request and
+ * the first answer wins. The low level client rotates over the nodes, so the duplicate goes to another node
+ * whenever the cluster has more than one.
+ */
+@Slf4j
+public class ReadResilience implements Closeable {
+
+    private static final int RETRY_TOKENS_CAP = 10;
+
+    private final ReadResilienceProperties properties;
+    private final ElasticSearchMetrics elasticSearchMetrics;
+    private final ThreadPoolExecutor hedgeExecutor;
+    private final Map<String, CircuitBreaker> breakers = new ConcurrentHashMap<>();
+    private final Map<String, LatencyTracker> latencies = new ConcurrentHashMap<>();
+    // retry tokens: every read adds retryBudgetRatio, every retry takes one
+    private final DoubleAdder retryTokens = new DoubleAdder();
+
+    public ReadResilience(ReadResilienceProperties properties, ElasticSearchMetrics elasticSearchMetrics) {
+        this.properties = properties;
+        this.elasticSearchMetrics = elasticSearchMetrics;
+        AtomicInteger threads = new AtomicInteger();
+        // no queue: a read that can not get a thread at once is simply not hedged
+        this.hedgeExecutor = new ThreadPoolExecutor(0, properties.getHedgeThreads(), 60, TimeUnit.SECONDS,
+                new SynchronousQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "elasticsearch-hedge-" + threads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        // enough for a burst of failures right after start up
+        this.retryTokens.add(RETRY_TOKENS_CAP);
+    }
+
+    public <T> T call(String operation, String index, ElasticSearchMetrics.Call<T, IOException> call) throws IOException {
+        CircuitBreaker breaker = breakers.computeIfAbsent(index, key -> new CircuitBreaker(
+                properties.getBreakerFailureRateThreshold(), properties.getBreakerWindowSize(), properties.getBreakerOpenMillis()));
+        depositRetryToken();
+        for (int attempt = 0; ; attempt++) {
+            if (!breaker.tryAcquire()) {
+                elasticSearchMetrics.recordResilience("rejected", operation);
+                throw new CircuitOpenException(index);
+            }
+            boolean recorded = false;
+            try {
+                T result = attempt(operation, call);
+                recorded = true;
+                breaker.record(true);
+                return result;
+            }
+            catch (IOException | RuntimeException e) {
+                boolean retryable = isRetryable(e);
+                // only an unhealthy cluster trips the breaker, not bad requests or missing documents
+                recorded = true;
+                breaker.record(!retryable);
+                if (!retryable || attempt >= properties.getMaxRetries() || !withdrawRetryToken()) {
+                    throw e;
+                }
+                elasticSearchMetrics.recordResilience("retry", operation);
+                backoff(attempt);
+            }
+            finally {
+                if (!recorded) {
+                    breaker.release();
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        hedgeExecutor.shutdownNow();
+    }
+
+    CircuitBreaker.State getBreakerState(String index) {
+        CircuitBreaker breaker = breakers.get(index);
+        return breaker == null ? CircuitBreaker.State.CLOSED : breaker.getState();
+    }
+
+    private <T> T attempt(String operation, ElasticSearchMetrics.Call<T, IOException> call) throws IOException {
+        LatencyTracker latency = latencies.computeIfAbsent(operation, key -> new LatencyTracker());
+        long hedgeDelayNanos = properties.isHedgingEnabled() ? latency.hedgeDelayNanos() : -1;
+        long start = System.nanoTime();
+        if (hedgeDelayNanos < 0) {
+            T result = call.call();
+            latency.record(System.nanoTime() - start);
+            return result;
+        }
+
+        BlockingQueue<Outcome<T>> outcomes = new ArrayBlockingQueue<>(2);
+        // one latency sample per read, taken from its start by the first answer or when the read is given up
+        AtomicBoolean sampled = new AtomicBoolean();
+        Future<?> primary;
+        try {
+            primary = hedgeExecutor.submit(() -> run(call, start, latency, sampled, outcomes, false));
+        }
+        catch (RejectedExecutionException ree) {
+            T result = call.call();
+            latency.record(System.nanoTime() - start);
+            return result;
+        }
+        Future<?> hedge = null;
+        try {
+            Outcome<T> outcome = outcomes.poll(hedgeDelayNanos, TimeUnit.NANOSECONDS);
+            if (outcome == null) {
+                try {
+                    hedge = hedgeExecutor.submit(() -> run(call, start, latency, sampled, outcomes, true));
+                    elasticSearchMetrics.recordResilience("hedge", operation);
+                }
+                catch (RejectedExecutionException ignored) {
+                }
+                outcome = outcomes.take();
+                // a failed first answer still leaves the other request a chance
+                if (outcome.failure != null && hedge != null) {
+                    outcome = outcomes.take();
+                }
+            }
+            if (outcome.hedge && outcome.failure == null) {
+                elasticSearchMetrics.recordResilience("hedge_won", operation);
+            }
+            return outcome.get();
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for " + operation, ie);
+        }
+        finally {
+            primary.cancel(true);
+            if (hedge != null) {
+                hedge.cancel(true);
+            }
+            // a primary that lost or failed took at least this long, leaving it out would bias the percentile low
+            if (sampled.compareAndSet(false, true)) {
+                latency.record(System.nanoTime() - start);
+            }
+        }
+    }
+
+    private static <T> void run(ElasticSearchMetrics.Call<T, IOException> call, long start, LatencyTracker latency,
+                                AtomicBoolean sampled, BlockingQueue<Outcome<T>> outcomes, boolean hedge) {
+        try {
+            T result = call.call();
+            if (sampled.compareAndSet(false, true)) {
+                latency.record(System.nanoTime() - start);
+            }
+            outcomes.offer(new Outcome<>(result, null, hedge));
+        }
+        catch (Exception e) {
+            outcomes.offer(new Outcome<>(null, e, hedge));
+        }
+    }
+
+    private void depositRetryToken() {
+        // capped so that a long healthy period can not fund a retry storm
+        if (retryTokens.sum() < RETRY_TOKENS_CAP) {
+            retryTokens.add(properties.getRetryBudgetRatio());
+        }
+    }
+
+    private boolean withdrawRetryToken() {
+        synchronized (retryTokens) {
+            if (retryTokens.sum() < 1) {
+                return false;
+            }
+            retryTokens.add(-1);
+            return true;
+        }
+    }
+
+    private void backoff(int attempt) throws IOException {
+        long cap = Math.min(properties.getRetryMaxDelayMillis(), properties.getRetryBaseDelayMillis() << Math.min(attempt, 16));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while backing off", ie);
+        }
+    }
+
+    static boolean isRetryable(Throwable failure) {
+        if (failure instanceof ResponseException) {
+            return isRetryable(((ResponseException) failure).getResponse().getStatusLine().getStatusCode());
+        }
+        Throwable cause = ExceptionsHelper.unwrapCause(failure);
+        if (cause instanceof ElasticsearchException) {
+            return isRetryable(((ElasticsearchException) cause).status().getStatus());
+        }
+        // the sync client rethrows connection failures as new exceptions caused by the original one
+        return isConnectionFailure(failure) || isConnectionFailure(failure.getCause());
+    }
+
+    private static boolean isConnectionFailure(Throwable failure) {
+        return failure instanceof ConnectException || failure instanceof SocketTimeoutException;
+    }
+
+    private static boolean isRetryable(int status) {
+        return status == RestStatus.TOO_MANY_REQUESTS.getStatus()
+                || status == RestStatus.BAD_GATEWAY.getStatus()
+                || status == RestStatus.SERVICE_UNAVAILABLE.getStatus()
+                || status == RestStatus.GATEWAY_TIMEOUT.getStatus();
+    }
+
+    /**
+     * Latency percentile of the last window, recomputed once per window.
+     */
+    private class LatencyTracker {
+
+        private final Recorder recorder = new Recorder(3);
+        private Histogram interval;
+        private long windowStart = System.nanoTime();
+        private volatile long hedgeDelayNanos = -1;
+
+        void record(long nanos) {
+            recorder.recordValue(Math.max(1, TimeUnit.NANOSECONDS.toMicros(nanos)));
+        }
+
+        long hedgeDelayNanos() {
+            long now = System.nanoTime();
+            if (now - windowStart >= TimeUnit.MILLISECONDS.toNanos(properties.getHedgeWindowMillis())) {
+                synchronized (this) {
+                    if (now - windowStart >= TimeUnit.MILLISECONDS.toNanos(properties.getHedgeWindowMillis())) {
+                        interval = recorder.getIntervalHistogram(interval);
+                        windowStart = now;
+                        hedgeDelayNanos = interval.getTotalCount() < properties.getHedgeMinSamples()
+                                ? -1
+                                : Math.max(TimeUnit.MILLISECONDS.toNanos(properties.getHedgeMinDelayMillis()),
+                                        TimeUnit.MICROSECONDS.toNanos(interval.getValueAtPercentile(properties.getHedgePercentile() * 100)));
+                    }
+                }
+            }
+            return hedgeDelayNanos;
+        }
+    }
+
+    private static class Outcome<T> {
+
+        private final T result;
+        private final Exception failure;
+        private final boolean hedge;
+
+        Outcome(T result, Exception failure, boolean hedge) {
+            this.result = result;
+            this.failure = failure;
+            this.hedge = hedge;
+        }
+
+        T get() throws IOException {
+            if (failure instanceof IOException) {
+                throw (IOException) failure;
+            }
+            if (failure instanceof RuntimeException) {
+                throw (RuntimeException) failure;
+            }
+            if (failure != null) {
+                throw new IOException(failure);
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.hct.elasticsearch.service;
+
+import java.util.Map;
+
+/**
+ * Derives the shard routing of the calls made without an explicit routing, e.g. the tenant of multi-tenant indices.
+ * A document has to be read and updated with the routing it was written with, or it is looked for on the wrong shard,
+ * so the routing of a document must follow from what every call on it knows: its id.
+ */
+public interface RoutingStrategy {
+
+    /**
+     * @param jsonSource the document or partial document, null for a get
+     * @return the routing of the document, null to route by _id
+     * @throws IllegalArgumentException when the source contradicts the routing carried by the id
+     */
+    String routeDocument(String index, String type, String id, String jsonSource);
+
+    /**
+     * @return the id of a document saved without one, carrying its routing, or null to let Elasticsearch generate it
+     */
+    String newDocumentId(String index, String jsonSource);
+
+    /**
+     * @param parameters the template parameters, or the field and value of a match query
+     * @return the routing of the search, null to search every shard
+     */
+    String routeSearch(String index, Map<String, Object> parameters);
+}
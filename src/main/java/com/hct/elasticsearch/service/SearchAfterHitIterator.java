@@ -0,0 +1,68 @@
+package com.hct.elasticsearch.service;
+
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.sort.SortOrder;
+
+import java.io.IOException;
+
+/**
+ * Pages through a query with search_after, sorted on a field holding one unique value per document.
+ * No server side context is kept between pages.
+ */
+class SearchAfterHitIterator extends PagedHitIterator {
+
+    private final RestHighLevelClient elasticSearchClient;
+    private final RequestOptions requestOptions;
+    private final String index;
+    private final QueryBuilder query;
+    private final String sortField;
+    private final int pageSize;
+    private Object[] searchAfter;
+    private boolean lastPageSeen;
+
+    SearchAfterHitIterator(RestHighLevelClient elasticSearchClient, RequestOptions requestOptions, String index, QueryBuilder query,
+                           String sortField, int pageSize) {
+        this.elasticSearchClient = elasticSearchClient;
+        this.requestOptions = requestOptions;
+        this.index = index;
+        this.query = query;
+        this.sortField = sortField;
+        this.pageSize = pageSize;
+    }
+
+    @Override
+    protected SearchHit[] nextPage() {
+        if (lastPageSeen) {
+            return new SearchHit[0];
+        }
+        SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
+                .query(query)
+                .size(pageSize)
+                .sort(sortField, SortOrder.ASC);
+        if (searchAfter != null) {
+            searchSourceBuilder.searchAfter(searchAfter);
+        }
+        try {
+            SearchHit[] hits = elasticSearchClient.search(new SearchRequest(index).source(searchSourceBuilder), requestOptions)
+                    .getHits().getHits();
+            if (hits.length > 0) {
+                searchAfter = hits[hits.length - 1].getSortValues();
+            }
+            // a short page is the last one, spare the round-trip that would come back empty
+            lastPageSeen = hits.length < pageSize;
+            return hits;
+        }
+        catch (IOException ioe) {
+            throw new RuntimeException("search after errors", ioe);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,166 @@
+package com.hct.elasticsearch.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.hct.elasticsearch.dto.ElasticSearchQueryResponse;
+import com.hct.elasticsearch.dto.RawSource;
+import org.apache.commons.io.IOUtils;
+import org.elasticsearch.search.SearchHits;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes the hits of a raw search response body token by token.
+ *
+ * Only the top level fields of each hit are looked at, so a _source holding an _id field cannot
+ * be mistaken for the hit metadata. _source is not decoded: its byte range in the body is copied as is,
+ * so numbers and the rest of the document come back exactly as stored.
+ */
+class SearchHitStreamDecoder {
+
+    private static final String ID = "_id";
+    private static final String INDEX = "_index";
+    private static final String TYPE = "_type";
+    private static final String SCORE = "_score";
+    private static final String SOURCE = "_source";
+    private static final String FIELDS = "fields";
+
+    private final JsonFactory jsonFactory;
+
+    SearchHitStreamDecoder(JsonFactory jsonFactory) {
+        this.jsonFactory = jsonFactory;
+    }
+
+    List<ElasticSearchQueryResponse> decode(InputStream content) throws IOException {
+        // the client has buffered the whole body already, the byte array gives the parser byte offsets into it
+        return decode(IOUtils.toByteArray(content));
+    }
+
+    List<ElasticSearchQueryResponse> decode(byte[] body) throws IOException {
+        List<ElasticSearchQueryResponse> result = new ArrayList<>();
+        try (JsonParser parser = jsonFactory.createParser(body)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("search response is not a json object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String field = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                if (SearchHits.Fields.HITS.equals(field) && token == JsonToken.START_OBJECT) {
+                    readHits(parser, body, result);
+                }
+                else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        return result;
+    }
+
+    private void readHits(JsonParser parser, byte[] body, List<ElasticSearchQueryResponse> result) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (SearchHits.Fields.HITS.equals(field) && token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    result.add(readHit(parser, body));
+                }
+            }
+            else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private ElasticSearchQueryResponse readHit(JsonParser parser, byte[] body) throws IOException {
+        ElasticSearchQueryResponse.ElasticSearchQueryResponseBuilder hit = ElasticSearchQueryResponse.builder();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            JsonToken token = parser.nextToken();
+            if (ID.equals(field)) {
+                hit.id(parser.getText());
+            }
+            else if (INDEX.equals(field)) {
+                hit.index(parser.getText());
+            }
+            else if (TYPE.equals(field)) {
+                hit.type(parser.getText());
+            }
+            else if (SCORE.equals(field) && token.isNumeric()) {
+                hit.score(parser.getFloatValue());
+            }
+            else if (SOURCE.equals(field) && token == JsonToken.START_OBJECT) {
+                hit.rawSource(RawSource.of(copySource(parser, body)));
+            }
+            else if (FIELDS.equals(field) && token == JsonToken.START_OBJECT) {
+                hit.fields(readFields(parser));
+            }
+            else {
+                parser.skipChildren();
+            }
+        }
+        return hit.build();
+    }
+
+    private Map<String, List<Object>> readFields(JsonParser parser) throws IOException {
+        Map<String, List<Object>> fields = new LinkedHashMap<>();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.getCurrentName();
+            List<Object> values = new ArrayList<>();
+            if (parser.nextToken() == JsonToken.START_ARRAY) {
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    values.add(readValue(parser));
+                }
+            }
+            else {
+                values.add(readValue(parser));
+            }
+            fields.put(field, values);
+        }
+        return fields;
+    }
+
+    private Object readValue(JsonParser parser) throws IOException {
+        switch (parser.getCurrentToken()) {
+            case START_OBJECT:
+                Map<String, Object> object = new LinkedHashMap<>();
+                while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                    String field = parser.getCurrentName();
+                    parser.nextToken();
+                    object.put(field, readValue(parser));
+                }
+                return object;
+            case START_ARRAY:
+                List<Object> array = new ArrayList<>();
+                while (parser.nextToken() != JsonToken.END_ARRAY) {
+                    array.add(readValue(parser));
+                }
+                return array;
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return parser.getNumberValue();
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            default:
+                return null;
+        }
+    }
+
+    private static byte[] copySource(JsonParser parser, byte[] body) throws IOException {
+        long start = parser.getTokenLocation().getByteOffset();
+        parser.skipChildren();
+        long end = parser.getTokenLocation().getByteOffset() + 1;
+        // copied rather than sliced, so that a cached hit does not hold on to the whole response
+        return Arrays.copyOfRange(body, (int) start, (int) end);
+    }
+}
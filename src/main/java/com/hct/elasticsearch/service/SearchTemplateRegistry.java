@@ -0,0 +1,166 @@
+package com.hct.elasticsearch.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hct.elasticsearch.config.properties.QueryConfigurationProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.client.methods.HttpGet;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.script.Script;
+import org.elasticsearch.script.TemplateScript;
+import org.elasticsearch.script.mustache.MustacheScriptEngine;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Client side copy of the stored search templates.
+ *
+ * Sources are fetched from _scripts once, replaced on upsert and refreshed in the background.
+ * Templates can also be compiled and rendered locally with the same mustache engine Elasticsearch uses,
+ * so a query can be sent inline without a stored script lookup on the cluster.
+ */
+@Component
+@Slf4j
+public class SearchTemplateRegistry {
+
+    private static final Map<String, String> COMPILE_OPTIONS =
+            Collections.singletonMap(Script.CONTENT_TYPE_OPTION, XContentType.JSON.mediaType());
+
+    private RestHighLevelClient elasticSearchClient;
+    private ObjectMapper objectMapper;
+    private final MustacheScriptEngine mustacheScriptEngine = new MustacheScriptEngine();
+    private final ConcurrentMap<String, CachedTemplate> templates = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService refresher;
+
+    @Autowired
+    SearchTemplateRegistry(RestHighLevelClient elasticSearchClient, ObjectMapper objectMapper,
+                           QueryConfigurationProperties queryConfigurationProperties) {
+        this.elasticSearchClient = elasticSearchClient;
+        this.objectMapper = objectMapper;
+        this.refresher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "search-template-refresh");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long refreshInterval = queryConfigurationProperties.getTemplateRefreshIntervalMillis();
+        if (refreshInterval > 0) {
+            refresher.scheduleWithFixedDelay(this::refresh, refreshInterval, refreshInterval, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public String getSource(String templateName) throws IOException {
+        return load(templateName).source;
+    }
+
+    /**
+     * Renders the template with the given parameters into a search request body.
+     */
+    public String render(String templateName, Map<String, Object> parameters) throws IOException {
+        return load(templateName).compiled(templateName)
+                .newInstance(parameters == null ? Collections.emptyMap() : parameters)
+                .execute();
+    }
+
+    public void put(String templateName, String source) {
+        templates.put(templateName, new CachedTemplate(source));
+    }
+
+    public void invalidate(String templateName) {
+        templates.remove(templateName);
+    }
+
+    public Set<String> getTemplateNames() {
+        return Collections.unmodifiableSet(templates.keySet());
+    }
+
+    void refresh() {
+        for (Map.Entry<String, CachedTemplate> entry : templates.entrySet()) {
+            String templateName = entry.getKey();
+            try {
+                String source = fetchSource(templateName);
+                if (!source.equals(entry.getValue().source)) {
+                    templates.replace(templateName, entry.getValue(), new CachedTemplate(source));
+                }
+            }
+            catch (ResponseException re) {
+                if (re.getResponse().getStatusLine().getStatusCode() == RestStatus.NOT_FOUND.getStatus()) {
+                    templates.remove(templateName, entry.getValue());
+                }
+                else {
+                    log.warn("refresh search template:" + templateName, re);
+                }
+            }
+            catch (Exception e) {
+                log.warn("refresh search template:" + templateName, e);
+            }
+        }
+    }
+
+    @PreDestroy
+    void close() {
+        refresher.shutdownNow();
+    }
+
+    private CachedTemplate load(String templateName) throws IOException {
+        CachedTemplate template = templates.get(templateName);
+        if (template == null) {
+            // fetched outside of any lock, a concurrent load of the same template just wins the race
+            template = new CachedTemplate(fetchSource(templateName));
+            CachedTemplate existing = templates.putIfAbsent(templateName, template);
+            if (existing != null) {
+                template = existing;
+            }
+        }
+        return template;
+    }
+
+    private String fetchSource(String templateName) throws IOException {
+
+        String endpoint = "_scripts/" + templateName;
+
+        Response response = elasticSearchClient.getLowLevelClient().performRequest(new Request(HttpGet.METHOD_NAME, endpoint));
+
+        if (response.getStatusLine().getStatusCode() != RestStatus.OK.getStatus()) {
+            throw new RuntimeException("errors to get template source. template name=" + templateName );
+        }
+
+        try (InputStream content = response.getEntity().getContent()) {
+            return objectMapper.readTree(content).path("script").path("source").asText();
+        }
+    }
+
+    private class CachedTemplate {
+
+        private final String source;
+        private volatile TemplateScript.Factory compiled;
+
+        CachedTemplate(String source) {
+            this.source = source;
+        }
+
+        TemplateScript.Factory compiled(String templateName) {
+            TemplateScript.Factory factory = compiled;
+            if (factory == null) {
+                factory = mustacheScriptEngine.compile(templateName, source, TemplateScript.CONTEXT, COMPILE_OPTIONS);
+                compiled = factory;
+            }
+            return factory;
+        }
+    }
+}
@@ -0,0 +1,164 @@
+package com.hct.elasticsearch.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.ActionListener;
+import org.elasticsearch.action.search.ClearScrollRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.search.SearchScrollRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.unit.TimeValue;
+import org.elasticsearch.index.query.QueryBuilder;
+import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.elasticsearch.search.slice.SliceBuilder;
+import org.elasticsearch.search.sort.FieldSortBuilder;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs one scroll per slice on its own thread and hands the pages over through a bounded queue,
+ * so at most two pages per slice are buffered whatever the size of the result.
+ * Hits of different slices are interleaved in no particular order. A single slice is a plain scroll.
+ */
+@Slf4j
+class SlicedScrollHitIterator extends PagedHitIterator {
+
+    private static final SearchHit[] END_OF_SLICE = new SearchHit[0];
+    private static final AtomicInteger ITERATOR_SEQUENCE = new AtomicInteger();
+
+    private final RestHighLevelClient elasticSearchClient;
+    private final RequestOptions requestOptions;
+    private final BlockingQueue<SearchHit[]> pages;
+    private final ExecutorService executor;
+    private final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+    private volatile boolean closed;
+    private int runningSlices;
+
+    SlicedScrollHitIterator(RestHighLevelClient elasticSearchClient, RequestOptions requestOptions, String index, QueryBuilder query,
+                            int slices, int pageSize, TimeValue keepAlive) {
+        this.elasticSearchClient = elasticSearchClient;
+        this.requestOptions = requestOptions;
+        this.pages = new ArrayBlockingQueue<>(slices * 2);
+        this.runningSlices = slices;
+
+        String threadPrefix = "sliced-scroll-" + ITERATOR_SEQUENCE.incrementAndGet() + "-";
+        AtomicInteger threadSequence = new AtomicInteger();
+        this.executor = Executors.newFixedThreadPool(slices, runnable -> {
+            Thread thread = new Thread(runnable, threadPrefix + threadSequence.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        for (int slice = 0; slice < slices; slice++) {
+            SearchSourceBuilder searchSourceBuilder = new SearchSourceBuilder()
+                    .query(query)
+                    .size(pageSize)
+                    .sort(FieldSortBuilder.DOC_FIELD_NAME);
+            // slicing requires at least two slices
+            if (slices > 1) {
+                searchSourceBuilder.slice(new SliceBuilder(slice, slices));
+            }
+            SearchRequest searchRequest = new SearchRequest(index).scroll(keepAlive).source(searchSourceBuilder);
+            executor.execute(() -> scrollSlice(searchRequest, keepAlive));
+        }
+    }
+
+    private void scrollSlice(SearchRequest searchRequest, TimeValue keepAlive) {
+        String scrollId = null;
+        try {
+            SearchResponse response = elasticSearchClient.search(searchRequest, requestOptions);
+            while (!closed) {
+                scrollId = response.getScrollId();
+                SearchHit[] hits = response.getHits().getHits();
+                if (hits.length == 0) {
+                    break;
+                }
+                pages.put(hits);
+                response = elasticSearchClient.scroll(new SearchScrollRequest(scrollId).scroll(keepAlive), requestOptions);
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        catch (Exception e) {
+            if (!closed) {
+                failure.compareAndSet(null, new RuntimeException("sliced scroll errors", e));
+            }
+        }
+        finally {
+            clearScroll(scrollId);
+            signalEndOfSlice();
+        }
+    }
+
+    private void signalEndOfSlice() {
+        if (closed) {
+            return;
+        }
+        try {
+            pages.put(END_OF_SLICE);
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void clearScroll(String scrollId) {
+        if (scrollId == null) {
+            return;
+        }
+        ClearScrollRequest clearScrollRequest = new ClearScrollRequest();
+        clearScrollRequest.addScrollId(scrollId);
+        // async so that an interrupted slice thread can still release its search context
+        elasticSearchClient.clearScrollAsync(clearScrollRequest, requestOptions, ActionListener.wrap(
+                response -> { },
+                e -> log.warn("clear scroll errors", e)));
+    }
+
+    @Override
+    protected SearchHit[] nextPage() {
+        try {
+            while (runningSlices > 0) {
+                SearchHit[] page = pages.take();
+                throwIfFailed();
+                if (page == END_OF_SLICE) {
+                    runningSlices--;
+                    continue;
+                }
+                return page;
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            close();
+            throw new RuntimeException("interrupted while waiting for scroll pages", ie);
+        }
+        throwIfFailed();
+        return END_OF_SLICE;
+    }
+
+    private void throwIfFailed() {
+        RuntimeException exception = failure.get();
+        if (exception != null) {
+            close();
+            throw exception;
+        }
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        executor.shutdownNow();
+        pages.clear();
+    }
+}
@@ -0,0 +1,62 @@
+package com.hct.elasticsearch.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.hct.elasticsearch.dto.ElasticSearchQueryResponse;
+import com.hct.elasticsearch.dto.RawSource;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Binds hit _source bytes straight to caller types, with one {@link ObjectReader} per type
+ * so the deserializer lookup is done once rather than on every hit.
+ */
+class TypedSourceReader {
+
+    private final ObjectMapper objectMapper;
+    private final int parallelThreshold;
+    private final Map<Class<?>, ObjectReader> readers = new ConcurrentHashMap<>();
+
+    /**
+     * @param parallelThreshold pages with at least this many hits are decoded in parallel, <= 0 never
+     */
+    TypedSourceReader(ObjectMapper objectMapper, int parallelThreshold) {
+        this.objectMapper = objectMapper;
+        this.parallelThreshold = parallelThreshold;
+    }
+
+    <T> List<T> read(List<ElasticSearchQueryResponse> hits, Class<T> type) {
+        ObjectReader reader = reader(type);
+        Stream<ElasticSearchQueryResponse> stream = parallelThreshold > 0 && hits.size() >= parallelThreshold
+                ? hits.parallelStream()
+                : hits.stream();
+        return stream.map(hit -> this.<T>read(hit, reader)).collect(Collectors.toList());
+    }
+
+    <T> T read(ElasticSearchQueryResponse hit, Class<T> type) {
+        return hit == null ? null : read(hit, reader(type));
+    }
+
+    ObjectReader reader(Class<?> type) {
+        return readers.computeIfAbsent(type, objectMapper::readerFor);
+    }
+
+    private <T> T read(ElasticSearchQueryResponse hit, ObjectReader reader) {
+        try {
+            RawSource rawSource = hit.getRawSource();
+            if (rawSource != null) {
+                return rawSource.as(reader);
+            }
+            // hits built by hand or without _source
+            return hit.getSource() == null ? null : reader.readValue(hit.getSource());
+        }
+        catch (IOException ioe) {
+            throw new RuntimeException("can not read source of index:" + hit.getIndex() + ", id:" + hit.getId(), ioe);
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.hct.elasticsearch.service;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.hct.elasticsearch.config.properties.UpdateCoalescerProperties;
+import lombok.Value;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.common.xcontent.XContentType;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Buffers partial updates and merges those of the same document, the way Elasticsearch merges a partial doc
+ * into the stored source, before sending one update action per document through the {@link BulkIngestor}.
+ *
+ * Futures complete once the merged update carrying them is acknowledged. A document with an update in flight
+ * keeps its newer updates buffered until that one is answered, so updates of a document are applied in order.
+ */
+@Slf4j
+public class UpdateCoalescer implements Closeable {
+
+    private final BulkIngestor bulkIngestor;
+    private final ObjectMapper objectMapper;
+    private final int maxBufferedDocuments;
+    private final int retryOnConflict;
+    private final long closeTimeoutMillis;
+    private final ScheduledExecutorService flusher;
+
+    private final Object lock = new Object();
+    private Map<Key, PendingUpdate> buffer = new LinkedHashMap<>();
+    private final Set<Key> inFlight = new HashSet<>();
+
+    private final AtomicLong submittedUpdates = new AtomicLong();
+    private final AtomicLong sentUpdates = new AtomicLong();
+
+    public UpdateCoalescer(BulkIngestor bulkIngestor, ObjectMapper objectMapper, UpdateCoalescerProperties properties) {
+        this.bulkIngestor = bulkIngestor;
+        this.objectMapper = objectMapper;
+        this.maxBufferedDocuments = properties.getMaxBufferedDocuments();
+        this.retryOnConflict = properties.getRetryOnConflict();
+        this.closeTimeoutMillis = properties.getCloseTimeoutMillis();
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "update-coalescer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, properties.getWindowMillis(), properties.getWindowMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    public CompletableFuture<Void> update(String index, String type, String id, String json) {
+        return update(index, type, id, null, json);
+    }
+
+    public CompletableFuture<Void> update(String index, String type, String id, String routing, String json) {
+        ObjectNode doc;
+        try {
+            JsonNode node = objectMapper.readTree(json);
+            if (!node.isObject()) {
+                throw new IllegalArgumentException("partial document must be a json object, index:" + index + ", id:" + id);
+            }
+            doc = (ObjectNode) node;
+        }
+        catch (IOException ioe) {
+            throw new RuntimeException("invalid partial document for index:" + index + ", id:" + id, ioe);
+        }
+
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        boolean full;
+        synchronized (lock) {
+            if (flusher.isShutdown()) {
+                throw new IllegalStateException("update coalescer closed");
+            }
+            Key key = new Key(index, type, id, routing);
+            PendingUpdate pending = buffer.get(key);
+            if (pending == null) {
+                buffer.put(key, new PendingUpdate(doc, future));
+            }
+            else {
+                merge(pending.doc, doc);
+                pending.futures.add(future);
+            }
+            full = buffer.size() >= maxBufferedDocuments;
+        }
+        submittedUpdates.incrementAndGet();
+        if (full) {
+            flush();
+        }
+        return future;
+    }
+
+    /**
+     * Sends every buffered document without an update in flight.
+     */
+    public void flush() {
+        Map<Key, PendingUpdate> ready = new LinkedHashMap<>();
+        synchronized (lock) {
+            for (Iterator<Map.Entry<Key, PendingUpdate>> entries = buffer.entrySet().iterator(); entries.hasNext(); ) {
+                Map.Entry<Key, PendingUpdate> entry = entries.next();
+                if (inFlight.add(entry.getKey())) {
+                    ready.put(entry.getKey(), entry.getValue());
+                    entries.remove();
+                }
+            }
+        }
+        if (ready.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<Key, PendingUpdate> entry : ready.entrySet()) {
+            send(entry.getKey(), entry.getValue());
+        }
+        bulkIngestor.flush();
+    }
+
+    public int getBufferedDocuments() {
+        synchronized (lock) {
+            return buffer.size();
+        }
+    }
+
+    /**
+     * @return updates accepted so far, compare with {@link #getSentUpdates()} to see the coalescing ratio
+     */
+    public long getSubmittedUpdates() {
+        return submittedUpdates.get();
+    }
+
+    public long getSentUpdates() {
+        return sentUpdates.get();
+    }
+
+    @Override
+    public void close() {
+        flusher.shutdownNow();
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(closeTimeoutMillis);
+        try {
+            // documents with an update in flight can only be sent once it is answered
+            while (getBufferedDocuments() > 0 && System.nanoTime() < deadline) {
+                flush();
+                Thread.sleep(10);
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            List<PendingUpdate> abandoned;
+            synchronized (lock) {
+                abandoned = new ArrayList<>(buffer.values());
+                buffer = new LinkedHashMap<>();
+            }
+            if (!abandoned.isEmpty()) {
+                log.warn("update coalescer closed with {} buffered documents", abandoned.size());
+            }
+            IllegalStateException closed = new IllegalStateException("update coalescer closed");
+            abandoned.forEach(pending -> pending.futures.forEach(future -> future.completeExceptionally(closed)));
+        }
+    }
+
+    private void send(Key key, PendingUpdate pending) {
+        CompletableFuture<BulkItemResponse> response;
+        try {
+            UpdateRequest updateRequest = new UpdateRequest(key.index, key.type, key.id)
+                    .routing(key.routing)
+                    .doc(objectMapper.writeValueAsBytes(pending.doc), XContentType.JSON)
+                    .retryOnConflict(retryOnConflict);
+            response = bulkIngestor.add(updateRequest);
+            sentUpdates.incrementAndGet();
+        }
+        catch (Exception e) {
+            response = new CompletableFuture<>();
+            response.completeExceptionally(e);
+        }
+        response.whenComplete((itemResponse, failure) -> {
+            synchronized (lock) {
+                inFlight.remove(key);
+            }
+            if (failure == null && itemResponse.isFailed()) {
+                failure = new RuntimeException("errors[" + itemResponse.status() + "] occur for updating index:" + key.index
+                        + ", type:" + key.type + ", id:" + key.id, itemResponse.getFailure().getCause());
+            }
+            for (CompletableFuture<Void> future : pending.futures) {
+                if (failure == null) {
+                    future.complete(null);
+                }
+                else {
+                    future.completeExceptionally(failure);
+                }
+            }
+        });
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        }
+        catch (Exception e) {
+            log.warn("update coalescer flush errors", e);
+        }
+    }
+
+    static void merge(ObjectNode target, JsonNode changes) {
+        Iterator<Map.Entry<String, JsonNode>> fields = changes.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            JsonNode current = target.get(field.getKey());
+            if (current != null && current.isObject() && field.getValue().isObject()) {
+                merge((ObjectNode) current, field.getValue());
+            }
+            else {
+                target.set(field.getKey(), field.getValue());
+            }
+        }
+    }
+
+    @Value
+    private static class Key {
+        private String index;
+        private String type;
+        private String id;
+        private String routing;
+    }
+
+    private static class PendingUpdate {
+
+        private final ObjectNode doc;
+        private final List<CompletableFuture<Void>> futures = new ArrayList<>(1);
+
+        PendingUpdate(ObjectNode doc, CompletableFuture<Void> future) {
+            this.doc = doc;
+            this.futures.add(future);
+        }
+    }
+}
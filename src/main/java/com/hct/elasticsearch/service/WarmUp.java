@@ -0,0 +1,204 @@
+package com.hct.elasticsearch.service;
+
+import com.hct.elasticsearch.config.properties.QueryConfigurationProperties;
+import com.hct.elasticsearch.config.properties.WarmUpProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.http.client.methods.HttpHead;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationListener;
+
+import java.io.Closeable;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Warms the service up once the application has started, before it is reported ready: opens pooled connections
+ * to every node (with their TLS handshakes), loads the stored templates, then runs the representative template
+ * queries enough times for the cluster to compile the templates and the JIT to compile the response mapping.
+ *
+ * Readiness goes through the warmUp health indicator, OUT_OF_SERVICE until the warm-up ends or times out, which
+ * turns /actuator/health into a 503 for the load balancer meanwhile. Failures are logged and do not hold the
+ * application back: a warm-up against a struggling cluster should not keep a healthy instance out of rotation.
+ */
+@Slf4j
+public class WarmUp implements HealthIndicator, ApplicationListener<ApplicationReadyEvent>, Closeable {
+
+    private final RestHighLevelClient elasticSearchClient;
+    private final ElasticSearchApiService elasticSearchApiService;
+    private final SearchTemplateRegistry searchTemplateRegistry;
+    private final QueryResultCache queryResultCache;
+    private final QueryConfigurationProperties queryConfigurationProperties;
+    private final WarmUpProperties properties;
+
+    private volatile String phase = "pending";
+    private volatile boolean done;
+    private volatile boolean started;
+    private volatile long deadline;
+    private volatile long tookMillis;
+    private final AtomicInteger failures = new AtomicInteger();
+    private volatile Thread thread;
+
+    public WarmUp(RestHighLevelClient elasticSearchClient, ElasticSearchApiService elasticSearchApiService,
+                  SearchTemplateRegistry searchTemplateRegistry, QueryResultCache queryResultCache,
+                  QueryConfigurationProperties queryConfigurationProperties, WarmUpProperties properties) {
+        this.elasticSearchClient = elasticSearchClient;
+        this.elasticSearchApiService = elasticSearchApiService;
+        this.searchTemplateRegistry = searchTemplateRegistry;
+        this.queryResultCache = queryResultCache;
+        this.queryConfigurationProperties = queryConfigurationProperties;
+        this.properties = properties;
+    }
+
+    @Override
+    public void onApplicationEvent(ApplicationReadyEvent event) {
+        if (thread != null) {
+            return;
+        }
+        thread = new Thread(this::run, "warm-up");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public Health health() {
+        if (done) {
+            return Health.up()
+                    .withDetail("tookMillis", tookMillis)
+                    .withDetail("failures", failures.get())
+                    .build();
+        }
+        if (isTimedOut()) {
+            return Health.up()
+                    .withDetail("phase", phase)
+                    .withDetail("timedOut", true)
+                    .withDetail("failures", failures.get())
+                    .build();
+        }
+        return Health.outOfService().withDetail("phase", phase).build();
+    }
+
+    public boolean isReady() {
+        return done || isTimedOut();
+    }
+
+    /**
+     * Runs the warm-up in the calling thread.
+     */
+    public void run() {
+        long start = System.nanoTime();
+        deadline = start + TimeUnit.MILLISECONDS.toNanos(properties.getTimeoutMillis());
+        started = true;
+        try {
+            phase = "connections";
+            openConnections();
+            phase = "templates";
+            loadTemplates();
+            phase = "queries";
+            runQueries();
+        }
+        catch (Exception e) {
+            failures.incrementAndGet();
+            log.warn("warm-up errors in phase:" + phase, e);
+        }
+        finally {
+            tookMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            phase = "done";
+            done = true;
+            log.info("warm-up done in {}ms with {} failures", tookMillis, failures.get());
+        }
+    }
+
+    @Override
+    public void close() {
+        Thread running = thread;
+        if (running != null) {
+            running.interrupt();
+        }
+    }
+
+    private void openConnections() throws InterruptedException {
+        RestClient restClient = elasticSearchClient.getLowLevelClient();
+        List<Node> nodes = restClient.getNodes();
+        // nodes are picked round-robin and a connection serves one request at a time,
+        // so concurrent requests open connectionsPerNode connections to each node
+        int requests = nodes.size() * properties.getConnectionsPerNode();
+        CountDownLatch completed = new CountDownLatch(requests);
+        for (int i = 0; i < requests; i++) {
+            restClient.performRequestAsync(new Request(HttpHead.METHOD_NAME, "/"), new ResponseListener() {
+                @Override
+                public void onSuccess(Response response) {
+                    completed.countDown();
+                }
+
+                @Override
+                public void onFailure(Exception exception) {
+                    failures.incrementAndGet();
+                    log.warn("warm-up connection errors: " + exception.getMessage());
+                    completed.countDown();
+                }
+            });
+        }
+        completed.await(remainingNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private void loadTemplates() {
+        Set<String> templates = new LinkedHashSet<>();
+        if (queryConfigurationProperties.getStoredTemplateId() != null) {
+            templates.add(queryConfigurationProperties.getStoredTemplateId());
+        }
+        templates.addAll(properties.getTemplates());
+        for (String template : templates) {
+            if (isTimedOut()) {
+                return;
+            }
+            try {
+                searchTemplateRegistry.getSource(template);
+            }
+            catch (Exception e) {
+                failures.incrementAndGet();
+                log.warn("warm-up of template:" + template + " errors", e);
+            }
+        }
+    }
+
+    private void runQueries() {
+        for (int i = 0; i < properties.getQueryIterations(); i++) {
+            for (WarmUpProperties.Query query : properties.getQueries()) {
+                if (isTimedOut() || Thread.currentThread().isInterrupted()) {
+                    return;
+                }
+                String index = query.getIndex() != null ? query.getIndex() : queryConfigurationProperties.getDefaultIndex();
+                String templateId = query.getTemplateId() != null ? query.getTemplateId() : queryConfigurationProperties.getStoredTemplateId();
+                // every iteration has to reach the cluster and go through the response mapping
+                queryResultCache.invalidate(index);
+                try {
+                    elasticSearchApiService.query(index, templateId, query.getParameters());
+                }
+                catch (Exception e) {
+                    failures.incrementAndGet();
+                    log.warn("warm-up query of template:" + templateId + " errors: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private boolean isTimedOut() {
+        return started && System.nanoTime() - deadline > 0;
+    }
+
+    private long remainingNanos() {
+        return Math.max(0, deadline - System.nanoTime());
+    }
+}
@@ -0,0 +1,102 @@
+package com.hct.elasticsearch.web;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.hct.elasticsearch.dto.ElasticSearchQueryResponse;
+import org.apache.lucene.util.BytesRef;
+import org.elasticsearch.common.bytes.BytesArray;
+import org.elasticsearch.common.bytes.BytesReference;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+/**
+ * Writes hits as one json object per line, in the shape of the Elasticsearch hits.
+ *
+ * The _source bytes are copied to the response as they came from Elasticsearch, less any line breaks, and the hits are pulled
+ * from the stream while the response is written, so only the page being consumed is held in memory.
+ */
+class NdjsonHitWriter {
+
+    private static final byte[] SOURCE_FIELD = ",\"_source\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] END_OF_HIT = "}\n".getBytes(StandardCharsets.UTF_8);
+
+    private final JsonFactory jsonFactory;
+    private final int flushEveryHits;
+
+    NdjsonHitWriter(JsonFactory jsonFactory, int flushEveryHits) {
+        this.jsonFactory = jsonFactory;
+        this.flushEveryHits = flushEveryHits;
+    }
+
+    /**
+     * Writes every hit then closes the stream, which also happens when the client goes away:
+     * the failed write ends the paging and the stream releases its scroll contexts.
+     *
+     * @return the number of hits written
+     */
+    long write(Stream<ElasticSearchQueryResponse> hits, OutputStream out) throws IOException {
+        long written = 0;
+        try (Stream<ElasticSearchQueryResponse> closing = hits) {
+            Iterator<ElasticSearchQueryResponse> iterator = closing.iterator();
+            while (iterator.hasNext()) {
+                writeHit(iterator.next(), out);
+                written++;
+                // the first hit goes out at once, so the time to first byte does not depend on the result size
+                if (written == 1 || written % flushEveryHits == 0) {
+                    out.flush();
+                }
+            }
+        }
+        out.flush();
+        return written;
+    }
+
+    private void writeHit(ElasticSearchQueryResponse hit, OutputStream out) throws IOException {
+        // the generator leaves the object open, _source is appended as raw bytes
+        try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+            generator.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+            generator.writeStartObject();
+            generator.writeStringField("_index", hit.getIndex());
+            generator.writeStringField("_type", hit.getType());
+            generator.writeStringField("_id", hit.getId());
+            if (hit.getScore() != null) {
+                generator.writeNumberField("_score", hit.getScore());
+            }
+            if (hit.getFields() != null) {
+                generator.writeObjectField("fields", hit.getFields());
+            }
+        }
+        if (hit.getRawSource() != null || hit.getSource() != null) {
+            out.write(SOURCE_FIELD);
+            writeSingleLine(hit.getRawSource() != null ? hit.getRawSource().bytes() : new BytesArray(hit.getSource()), out);
+        }
+        out.write(END_OF_HIT);
+    }
+
+    /**
+     * A line break in json is whitespace between tokens, strings hold it escaped, so a pretty printed
+     * source is framed by dropping those bytes without re-encoding the rest.
+     */
+    private static void writeSingleLine(BytesReference source, OutputStream out) throws IOException {
+        if (source.indexOf((byte) '\n', 0) < 0 && source.indexOf((byte) '\r', 0) < 0) {
+            source.writeTo(out);
+            return;
+        }
+        BytesRef bytes = source.toBytesRef();
+        int end = bytes.offset + bytes.length;
+        int from = bytes.offset;
+        for (int i = bytes.offset; i < end; i++) {
+            if (bytes.bytes[i] == '\n' || bytes.bytes[i] == '\r') {
+                out.write(bytes.bytes, from, i - from);
+                from = i + 1;
+            }
+        }
+        out.write(bytes.bytes, from, end - from);
+    }
+}
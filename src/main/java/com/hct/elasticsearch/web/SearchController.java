@@ -0,0 +1,95 @@
+package com.hct.elasticsearch.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hct.elasticsearch.config.properties.WebStreamingProperties;
+import com.hct.elasticsearch.dto.ElasticSearchQueryResponse;
+import com.hct.elasticsearch.service.ElasticSearchApiService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+
+/**
+ * Template queries and whole index exports as NDJSON, one hit per line.
+ */
+@RestController
+@RequestMapping("/indices/{index}")
+@Slf4j
+public class SearchController {
+
+    static final String NDJSON = "application/x-ndjson";
+
+    private ElasticSearchApiService elasticSearchApiService;
+    private NdjsonHitWriter ndjsonHitWriter;
+    private int maxSlices;
+
+    @Autowired
+    SearchController(ElasticSearchApiService elasticSearchApiService, ObjectMapper objectMapper,
+                     WebStreamingProperties webStreamingProperties) {
+        this.elasticSearchApiService = elasticSearchApiService;
+        this.ndjsonHitWriter = new NdjsonHitWriter(objectMapper.getFactory(), webStreamingProperties.getFlushEveryHits());
+        this.maxSlices = webStreamingProperties.getMaxSlices();
+    }
+
+    /**
+     * Runs a stored template with the request body as its parameters. The query runs before the response
+     * is started, so its failures still get an error status.
+     */
+    @PostMapping(path = "/templates/{templateId}", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> query(@PathVariable String index, @PathVariable String templateId,
+                                                       @RequestBody(required = false) Map<String, Object> parameters) {
+        List<ElasticSearchQueryResponse> hits = elasticSearchApiService.query(index, templateId, parameters);
+        return ndjson(index, hits::stream);
+    }
+
+    /**
+     * Every document of the index, paged in from Elasticsearch while the response is written.
+     * More than one slice exports in parallel scrolls and gives up the document order, slices above
+     * web.streaming.max-slices are cut down to it.
+     */
+    @GetMapping(path = "/export", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> export(@PathVariable String index,
+                                                        @RequestParam(defaultValue = "1") int slices) {
+        if (slices < 1) {
+            return ResponseEntity.badRequest().build();
+        }
+        int boundedSlices = Math.min(slices, maxSlices);
+        return ndjson(index, () -> elasticSearchApiService.streamSearchAll(index, boundedSlices));
+    }
+
+    @GetMapping(path = "/matches", produces = NDJSON)
+    public ResponseEntity<StreamingResponseBody> matches(@PathVariable String index, @RequestParam String field,
+                                                         @RequestParam String value) {
+        return ndjson(index, () -> elasticSearchApiService.streamMatches(index, field, value));
+    }
+
+    private ResponseEntity<StreamingResponseBody> ndjson(String index, Supplier<Stream<ElasticSearchQueryResponse>> hits) {
+        StreamingResponseBody body = out -> {
+            long start = System.nanoTime();
+            try {
+                long written = ndjsonHitWriter.write(hits.get(), out);
+                log.debug("streamed {} hits of index:{} in {}ms", written, index, (System.nanoTime() - start) / 1_000_000);
+            }
+            catch (IOException ioe) {
+                // mostly the client closing the connection, the stream is already closed by the writer
+                log.info("streaming of index:" + index + " stopped: " + ioe.getMessage());
+                throw ioe;
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.parseMediaType(NDJSON)).body(body);
+    }
+}
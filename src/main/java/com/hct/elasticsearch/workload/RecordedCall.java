@@ -0,0 +1,24 @@
+package com.hct.elasticsearch.workload;
+
+import lombok.AllArgsConstructor;
+import lombok.Builder;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * One request sent to Elasticsearch, as written by {@link WorkloadRecorder}.
+ */
+@Data
+@Builder
+@NoArgsConstructor
+@AllArgsConstructor
+public class RecordedCall {
+
+    // since the recorder was created
+    private long offsetMicros;
+    private String method;
+    // path and query string
+    private String endpoint;
+    private String contentType;
+    private String body;
+}
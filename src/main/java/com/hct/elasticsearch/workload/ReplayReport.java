@@ -0,0 +1,20 @@
+package com.hct.elasticsearch.workload;
+
+import lombok.Builder;
+import lombok.Data;
+
+@Data
+@Builder
+public class ReplayReport {
+
+    private long calls;
+    private long errors;
+    private long elapsedMillis;
+    private double throughputPerSecond;
+    // latencies are measured from the time a call was scheduled to be sent
+    private long p50Micros;
+    private long p90Micros;
+    private long p99Micros;
+    private long p999Micros;
+    private long maxMicros;
+}
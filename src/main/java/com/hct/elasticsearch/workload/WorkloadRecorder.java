@@ -0,0 +1,72 @@
+package com.hct.elasticsearch.workload;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.util.EntityUtils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Http client interceptor appending every request sent to Elasticsearch to an ndjson file of {@link RecordedCall}s,
+ * to be replayed later by {@link WorkloadReplayer}.
+ */
+public class WorkloadRecorder implements HttpRequestInterceptor, AutoCloseable {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private final Writer writer;
+    private final long startNanos = System.nanoTime();
+
+    public WorkloadRecorder(Path file) throws IOException {
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void process(HttpRequest request, HttpContext context) throws IOException {
+        URI uri = URI.create(request.getRequestLine().getUri());
+        RecordedCall.RecordedCallBuilder call = RecordedCall.builder()
+                .offsetMicros(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - startNanos))
+                .method(request.getRequestLine().getMethod())
+                .endpoint(uri.getRawQuery() == null ? uri.getRawPath() : uri.getRawPath() + "?" + uri.getRawQuery());
+
+        if (request instanceof HttpEntityEnclosingRequest) {
+            HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+            // only repeatable entities can be read without taking the body away from the request
+            if (entity != null && entity.isRepeatable()) {
+                call.body(EntityUtils.toString(entity, StandardCharsets.UTF_8));
+                if (entity.getContentType() != null) {
+                    call.contentType(entity.getContentType().getValue());
+                }
+            }
+        }
+
+        String line = OBJECT_MAPPER.writeValueAsString(call.build());
+        synchronized (writer) {
+            writer.write(line);
+            writer.write('\n');
+        }
+    }
+
+    public void flush() throws IOException {
+        synchronized (writer) {
+            writer.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writer) {
+            writer.close();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.hct.elasticsearch.workload;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.extern.slf4j.Slf4j;
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.apache.http.HttpHost;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestClient;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives recorded calls against a cluster, or a {@link com.hct.elasticsearch.fake.FakeElasticSearchServer},
+ * and reports throughput and latency percentiles.
+ *
+ * Usage: WorkloadReplayer &lt;url&gt; &lt;record file&gt; &lt;calls per second, 0 for unthrottled&gt; &lt;threads&gt; &lt;calls&gt;
+ */
+@Slf4j
+public class WorkloadReplayer {
+
+    private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+    private RestClient restClient;
+    private List<RecordedCall> calls;
+
+    public WorkloadReplayer(RestClient restClient, List<RecordedCall> calls) {
+        if (calls.isEmpty()) {
+            throw new IllegalArgumentException("nothing to replay");
+        }
+        this.restClient = restClient;
+        this.calls = calls;
+    }
+
+    public static List<RecordedCall> load(Path file) throws IOException {
+        List<RecordedCall> calls = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    calls.add(OBJECT_MAPPER.readValue(line, RecordedCall.class));
+                }
+            }
+        }
+        return calls;
+    }
+
+    /**
+     * Sends totalCalls requests from the given number of threads, cycling over the recorded calls in order.
+     * With a positive rate the calls are scheduled at fixed intervals and latency is measured from the scheduled
+     * time, so a cluster falling behind shows up as latency instead of silently lowering the rate.
+     * Without a rate every thread sends its next call as soon as the previous one is answered.
+     */
+    public ReplayReport replay(int threads, double ratePerSecond, long totalCalls) throws InterruptedException {
+        Histogram latencies = new ConcurrentHistogram(3);
+        AtomicLong sequence = new AtomicLong();
+        AtomicLong errors = new AtomicLong();
+        AtomicInteger threadSequence = new AtomicInteger();
+        ExecutorService executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "workload-replay-" + threadSequence.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+
+        long startNanos = System.nanoTime();
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                long next;
+                while ((next = sequence.getAndIncrement()) < totalCalls && !Thread.currentThread().isInterrupted()) {
+                    long scheduledNanos = ratePerSecond > 0
+                            ? startNanos + (long) (next * TimeUnit.SECONDS.toNanos(1) / ratePerSecond)
+                            : System.nanoTime();
+                    waitUntil(scheduledNanos);
+                    try {
+                        restClient.performRequest(toRequest(calls.get((int) (next % calls.size()))));
+                    }
+                    catch (ResponseException re) {
+                        errors.incrementAndGet();
+                    }
+                    catch (Exception e) {
+                        errors.incrementAndGet();
+                        log.debug("replay errors", e);
+                    }
+                    latencies.recordValue(Math.max(0, TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - scheduledNanos)));
+                }
+            });
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        long elapsedNanos = System.nanoTime() - startNanos;
+        long completed = latencies.getTotalCount();
+        return ReplayReport.builder()
+                .calls(completed)
+                .errors(errors.get())
+                .elapsedMillis(TimeUnit.NANOSECONDS.toMillis(elapsedNanos))
+                .throughputPerSecond(completed * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos)
+                .p50Micros(latencies.getValueAtPercentile(50))
+                .p90Micros(latencies.getValueAtPercentile(90))
+                .p99Micros(latencies.getValueAtPercentile(99))
+                .p999Micros(latencies.getValueAtPercentile(99.9))
+                .maxMicros(latencies.getMaxValue())
+                .build();
+    }
+
+    private static void waitUntil(long nanos) {
+        long remaining;
+        while ((remaining = nanos - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted()) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private static Request toRequest(RecordedCall call) throws IOException {
+        String endpoint = call.getEndpoint();
+        int separator = endpoint.indexOf('?');
+        Request request = new Request(call.getMethod(), separator < 0 ? endpoint : endpoint.substring(0, separator));
+        if (separator >= 0) {
+            for (String parameter : endpoint.substring(separator + 1).split("&")) {
+                int equals = parameter.indexOf('=');
+                request.addParameter(URLDecoder.decode(equals < 0 ? parameter : parameter.substring(0, equals), "UTF-8"),
+                        equals < 0 ? "" : URLDecoder.decode(parameter.substring(equals + 1), "UTF-8"));
+            }
+        }
+        if (call.getBody() != null) {
+            request.setEntity(new StringEntity(call.getBody(),
+                    call.getContentType() == null ? ContentType.APPLICATION_JSON : ContentType.parse(call.getContentType())));
+        }
+        return request;
+    }
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 5) {
+            System.err.println("usage: WorkloadReplayer <url> <record file> <calls per second, 0 for unthrottled> <threads> <calls>");
+            System.exit(1);
+        }
+        int threads = Integer.parseInt(args[3]);
+        try (RestClient restClient = RestClient.builder(HttpHost.create(args[0]))
+                .setHttpClientConfigCallback(builder -> builder.setMaxConnTotal(threads).setMaxConnPerRoute(threads))
+                .build()) {
+            ReplayReport report = new WorkloadReplayer(restClient, load(Paths.get(args[1])))
+                    .replay(threads, Double.parseDouble(args[2]), Long.parseLong(args[4]));
+            log.info("replay report: " + report);
+        }
+    }
+}
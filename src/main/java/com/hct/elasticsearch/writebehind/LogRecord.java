@@ -0,0 +1,98 @@
+package com.hct.elasticsearch.writebehind;
+
+import lombok.Value;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+
+/**
+ * One write of the log. On disk: body length, crc32 of the body, then the body made of the operation
+ * and the length prefixed utf-8 index, type, id, routing and json, a null routing having a -1 length.
+ * A zero length marks the end of the written part.
+ */
+@Value
+class LogRecord {
+
+    static final int HEADER_BYTES = 8;
+
+    enum Operation { INDEX, UPDATE }
+
+    private Operation operation;
+    private String index;
+    private String type;
+    private String id;
+    private String routing;
+    private String json;
+
+    byte[] encode() {
+        byte[][] fields = {
+                index.getBytes(StandardCharsets.UTF_8),
+                type.getBytes(StandardCharsets.UTF_8),
+                id.getBytes(StandardCharsets.UTF_8),
+                routing == null ? null : routing.getBytes(StandardCharsets.UTF_8),
+                json.getBytes(StandardCharsets.UTF_8)
+        };
+        int bodyBytes = 1;
+        for (byte[] field : fields) {
+            bodyBytes += 4 + (field == null ? 0 : field.length);
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + bodyBytes);
+        buffer.position(HEADER_BYTES);
+        buffer.put((byte) operation.ordinal());
+        for (byte[] field : fields) {
+            if (field == null) {
+                buffer.putInt(-1);
+                continue;
+            }
+            buffer.putInt(field.length);
+            buffer.put(field);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(buffer.array(), HEADER_BYTES, bodyBytes);
+        buffer.putInt(0, bodyBytes);
+        buffer.putInt(4, (int) crc.getValue());
+        return buffer.array();
+    }
+
+    /**
+     * @return the record at the buffer position, or null at the end of the written part or on a torn write
+     */
+    static LogRecord decode(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_BYTES) {
+            return null;
+        }
+        int start = buffer.position();
+        int bodyBytes = buffer.getInt(start);
+        if (bodyBytes <= 0 || bodyBytes > buffer.remaining() - HEADER_BYTES) {
+            return null;
+        }
+        byte[] body = new byte[bodyBytes];
+        ByteBuffer view = buffer.duplicate();
+        view.position(start + HEADER_BYTES);
+        view.get(body);
+        CRC32 crc = new CRC32();
+        crc.update(body, 0, bodyBytes);
+        if ((int) crc.getValue() != buffer.getInt(start + 4)) {
+            return null;
+        }
+
+        ByteBuffer fields = ByteBuffer.wrap(body);
+        int operation = fields.get();
+        if (operation < 0 || operation >= Operation.values().length) {
+            return null;
+        }
+        buffer.position(start + HEADER_BYTES + bodyBytes);
+        return new LogRecord(Operation.values()[operation], string(fields), string(fields), string(fields), string(fields), string(fields));
+    }
+
+    private static String string(ByteBuffer fields) {
+        int length = fields.getInt();
+        if (length < 0) {
+            return null;
+        }
+        String value = new String(fields.array(), fields.position(), length, StandardCharsets.UTF_8);
+        fields.position(fields.position() + length);
+        return value;
+    }
+}
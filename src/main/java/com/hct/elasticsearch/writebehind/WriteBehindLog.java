@@ -0,0 +1,631 @@
+package com.hct.elasticsearch.writebehind;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.hct.elasticsearch.config.properties.WriteBehindProperties;
+import lombok.extern.slf4j.Slf4j;
+import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ExceptionsHelper;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequest;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.ResponseException;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.rest.RestStatus;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Local write-behind log: writes are appended to memory-mapped segment files and acknowledged once forced to disk,
+ * while a drainer thread replays them to Elasticsearch in bulks, in log order.
+ *
+ * Positions in the log are longs made of the segment number and the offset in the segment. Appends wait for a
+ * single committer thread, so every force covers all the appends made meanwhile (group commit). The checkpoint
+ * file holds the position of the first write not yet acknowledged by Elasticsearch; on restart the log is read
+ * from there, the tail of the last segment is checked record by record and a torn write ends it.
+ *
+ * Writes are replayed at least once: a bulk is retried from its first rejected item, re-applying the items after
+ * it, which keeps the per document order since index and partial update replays converge to the same source.
+ */
+@Slf4j
+public class WriteBehindLog implements Closeable {
+
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final String CHECKPOINT = "checkpoint";
+    private static final int UPDATE_RETRY_ON_CONFLICT = 3;
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final RestHighLevelClient elasticSearchClient;
+    private final WriteBehindProperties properties;
+    private final Path directory;
+    private final int segmentBytes;
+
+    private final Object lock = new Object();
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+    private final Set<Segment> dirty = new HashSet<>();
+    private Segment active;
+    // position after the last appended record
+    private long appended;
+    // everything before this position is on disk
+    private long durable;
+    // everything before this position is acknowledged by Elasticsearch
+    private long checkpoint;
+    private boolean closing;
+    private boolean stopped;
+
+    private final AtomicLong appendedRecords = new AtomicLong();
+    private final AtomicLong drainedRecords = new AtomicLong();
+    private final AtomicLong rejectedRecords = new AtomicLong();
+    private volatile Consumer<Set<String>> drainListener = indices -> { };
+    private Thread committer;
+    private Thread drainer;
+
+    private WriteBehindLog(RestHighLevelClient elasticSearchClient, WriteBehindProperties properties) {
+        this.elasticSearchClient = elasticSearchClient;
+        this.properties = properties;
+        this.directory = Paths.get(properties.getDirectory());
+        this.segmentBytes = properties.getSegmentBytes();
+    }
+
+    /**
+     * Opens the log, recovering whatever a previous run left undrained, and starts draining it.
+     */
+    public static WriteBehindLog open(RestHighLevelClient elasticSearchClient, WriteBehindProperties properties) throws IOException {
+        WriteBehindLog writeBehindLog = new WriteBehindLog(elasticSearchClient, properties);
+        writeBehindLog.recover();
+        writeBehindLog.start();
+        return writeBehindLog;
+    }
+
+    public void index(String index, String type, String id, String json) throws IOException {
+        index(index, type, id, null, json);
+    }
+
+    public void index(String index, String type, String id, String routing, String json) throws IOException {
+        validate(json);
+        awaitDurable(append(new LogRecord(LogRecord.Operation.INDEX, index, type, id, routing, json)));
+    }
+
+    public void update(String index, String type, String id, String json) throws IOException {
+        update(index, type, id, null, json);
+    }
+
+    public void update(String index, String type, String id, String routing, String json) throws IOException {
+        validate(json);
+        awaitDurable(append(new LogRecord(LogRecord.Operation.UPDATE, index, type, id, routing, json)));
+    }
+
+    /**
+     * @param listener called by the drainer with the indices of every acknowledged bulk
+     */
+    public void onDrained(Consumer<Set<String>> listener) {
+        this.drainListener = listener;
+    }
+
+    /**
+     * @return true when every durable write has been acknowledged by Elasticsearch
+     */
+    public boolean isDrained() {
+        synchronized (lock) {
+            return checkpoint == durable;
+        }
+    }
+
+    public long getAppendedRecords() {
+        return appendedRecords.get();
+    }
+
+    public long getDrainedRecords() {
+        return drainedRecords.get();
+    }
+
+    /**
+     * @return records Elasticsearch refused for good, e.g. mapping errors or updates of missing documents
+     */
+    public long getRejectedRecords() {
+        return rejectedRecords.get();
+    }
+
+    /**
+     * Stops accepting writes and gives the drainer up to closeTimeoutMillis to catch up,
+     * what is left is drained after the next start.
+     */
+    @Override
+    public void close() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(properties.getCloseTimeoutMillis());
+        try {
+            synchronized (lock) {
+                closing = true;
+                lock.notifyAll();
+                while (checkpoint != appended && System.nanoTime() < deadline) {
+                    TimeUnit.NANOSECONDS.timedWait(lock, deadline - System.nanoTime());
+                }
+                if (checkpoint != appended) {
+                    log.warn("write-behind log closed before draining, it is resumed from the checkpoint on the next start");
+                }
+                stopped = true;
+                lock.notifyAll();
+            }
+            drainer.interrupt();
+            committer.join(1000);
+            drainer.join(1000);
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+        finally {
+            synchronized (lock) {
+                for (Segment segment : segments.values()) {
+                    segment.close();
+                }
+                segments.clear();
+            }
+        }
+    }
+
+    /**
+     * A write is acknowledged before Elasticsearch sees it, so a document it would refuse as malformed
+     * is refused here instead of being dropped by the drainer.
+     */
+    private static void validate(String json) {
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IllegalArgumentException("document is not a json object");
+            }
+            parser.skipChildren();
+            if (parser.nextToken() != null) {
+                throw new IllegalArgumentException("document has content after its json object");
+            }
+        }
+        catch (IOException ioe) {
+            throw new IllegalArgumentException("document is not well-formed json: " + ioe.getMessage(), ioe);
+        }
+    }
+
+    private long append(LogRecord record) throws IOException {
+        byte[] bytes = record.encode();
+        if (bytes.length > segmentBytes) {
+            throw new IllegalArgumentException("write of " + bytes.length + " bytes is larger than a log segment, index:"
+                    + record.getIndex() + ", id:" + record.getId());
+        }
+        synchronized (lock) {
+            if (closing) {
+                throw new IllegalStateException("write-behind log closed");
+            }
+            int offset = offset(appended);
+            if (offset + bytes.length > segmentBytes) {
+                // the zero filled rest of the segment tells readers to move on to the next one
+                Segment next = openSegment(active.id + 1);
+                segments.put(next.id, next);
+                active = next;
+                offset = 0;
+            }
+            ByteBuffer view = active.buffer.duplicate();
+            view.position(offset);
+            view.put(bytes);
+            dirty.add(active);
+            appended = position(active.id, offset + bytes.length);
+            appendedRecords.incrementAndGet();
+            lock.notifyAll();
+            return appended;
+        }
+    }
+
+    private void awaitDurable(long position) throws IOException {
+        synchronized (lock) {
+            try {
+                while (durable < position) {
+                    if (stopped) {
+                        throw new IllegalStateException("write-behind log closed");
+                    }
+                    lock.wait();
+                }
+            }
+            catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted while waiting for the write-behind log", ie);
+            }
+        }
+    }
+
+    private void commitLoop() {
+        try {
+            while (true) {
+                long target;
+                List<Segment> toForce;
+                synchronized (lock) {
+                    while (appended == durable && !closing) {
+                        lock.wait();
+                    }
+                    if (appended == durable) {
+                        return;
+                    }
+                    target = appended;
+                    toForce = new ArrayList<>(dirty);
+                    dirty.clear();
+                }
+                for (Segment segment : toForce) {
+                    segment.buffer.force();
+                }
+                synchronized (lock) {
+                    durable = target;
+                    lock.notifyAll();
+                }
+            }
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drainLoop() {
+        long backoff = properties.getDrainRetryInitialMillis();
+        // records before this position are sent one per bulk, to find the one failing the whole bulk
+        long isolateUntil = -1;
+        while (true) {
+            long from;
+            long to;
+            synchronized (lock) {
+                while (checkpoint == durable && !stopped) {
+                    try {
+                        lock.wait();
+                    }
+                    catch (InterruptedException ie) {
+                        if (stopped) {
+                            return;
+                        }
+                    }
+                }
+                if (stopped) {
+                    return;
+                }
+                from = checkpoint;
+                to = durable;
+            }
+
+            List<LogRecord> batch = new ArrayList<>();
+            List<Long> ends = new ArrayList<>();
+            read(from, to, from < isolateUntil ? 1 : properties.getDrainBatchSize(), batch, ends);
+            int done;
+            boolean isolating = false;
+            try {
+                done = batch.isEmpty() ? 0 : send(batch);
+            }
+            catch (Exception e) {
+                if (!isRefused(e)) {
+                    log.warn("write-behind drain failed, retrying in " + backoff + "ms: " + e.getMessage());
+                    done = 0;
+                }
+                else if (batch.size() > 1) {
+                    log.warn("write-behind bulk refused, sending its records one by one: " + e.getMessage());
+                    isolateUntil = ends.get(ends.size() - 1);
+                    isolating = true;
+                    done = 0;
+                }
+                else {
+                    // a bulk of this record alone is refused, e.g. too large for http.max_content_length
+                    log.error("write-behind record dropped, index:" + batch.get(0).getIndex() + ", id:" + batch.get(0).getId()
+                            + ": " + e.getMessage());
+                    rejectedRecords.incrementAndGet();
+                    done = 1;
+                }
+            }
+
+            if (done > 0) {
+                checkpoint(ends.get(done - 1));
+                drainedRecords.addAndGet(done);
+                drainListener.accept(batch.subList(0, done).stream().map(LogRecord::getIndex).collect(Collectors.toSet()));
+            }
+            // an empty batch is an unreadable record, which a retry right away would not read either
+            if ((done < batch.size() && !isolating) || batch.isEmpty()) {
+                if (!sleep(backoff)) {
+                    return;
+                }
+                backoff = Math.min(properties.getDrainRetryMaxMillis(), backoff * 2);
+            }
+            else {
+                backoff = properties.getDrainRetryInitialMillis();
+            }
+        }
+    }
+
+    /**
+     * Reads up to maxRecords records, and no more than drainBatchBytes of them unless the first one is larger.
+     */
+    private void read(long from, long to, int maxRecords, List<LogRecord> batch, List<Long> ends) {
+        long position = from;
+        long bytes = 0;
+        while (position < to && batch.size() < maxRecords) {
+            Segment segment;
+            synchronized (lock) {
+                segment = segments.get(segment(position));
+            }
+            ByteBuffer view = segment.buffer.duplicate();
+            view.position(offset(position));
+            LogRecord record = LogRecord.decode(view);
+            if (record == null) {
+                if (segment(position) == segment(to)) {
+                    log.error("unreadable write-behind record below the durable position " + position);
+                    return;
+                }
+                position = position(segment(position) + 1, 0);
+                continue;
+            }
+            int recordBytes = view.position() - offset(position);
+            if (!batch.isEmpty() && bytes + recordBytes > properties.getDrainBatchBytes()) {
+                return;
+            }
+            bytes += recordBytes;
+            position = position(segment.id, view.position());
+            batch.add(record);
+            ends.add(position);
+        }
+    }
+
+    /**
+     * @return how many records of the batch, from its start, are done with
+     */
+    private int send(List<LogRecord> batch) throws IOException {
+        BulkRequest bulkRequest = new BulkRequest();
+        for (LogRecord record : batch) {
+            if (record.getOperation() == LogRecord.Operation.INDEX) {
+                bulkRequest.add(new IndexRequest(record.getIndex(), record.getType(), record.getId())
+                        .routing(record.getRouting())
+                        .source(record.getJson(), XContentType.JSON));
+            }
+            else {
+                bulkRequest.add(new UpdateRequest(record.getIndex(), record.getType(), record.getId())
+                        .routing(record.getRouting())
+                        .doc(record.getJson(), XContentType.JSON)
+                        .retryOnConflict(UPDATE_RETRY_ON_CONFLICT));
+            }
+        }
+        BulkResponse bulkResponse = elasticSearchClient.bulk(bulkRequest, RequestOptions.DEFAULT);
+        BulkItemResponse[] items = bulkResponse.getItems();
+        int rejected = 0;
+        for (int i = 0; i < items.length; i++) {
+            if (!items[i].isFailed()) {
+                continue;
+            }
+            if (isRetryable(items[i].status())) {
+                rejectedRecords.addAndGet(rejected);
+                return i;
+            }
+            rejected++;
+            log.error("write-behind record dropped, index:" + items[i].getIndex() + ", id:" + items[i].getId()
+                    + ": " + items[i].getFailureMessage());
+        }
+        rejectedRecords.addAndGet(rejected);
+        return items.length;
+    }
+
+    private static boolean isRetryable(RestStatus status) {
+        return status == RestStatus.TOO_MANY_REQUESTS || status.getStatus() >= 500;
+    }
+
+    /**
+     * @return true when Elasticsearch refused the whole bulk for what it holds, e.g. 400 or 413,
+     * false for anything that may pass later
+     */
+    private static boolean isRefused(Exception failure) {
+        if (failure instanceof ResponseException) {
+            return isRefused(RestStatus.fromCode(((ResponseException) failure).getResponse().getStatusLine().getStatusCode()));
+        }
+        Throwable cause = ExceptionsHelper.unwrapCause(failure);
+        if (cause instanceof ElasticsearchException) {
+            return isRefused(((ElasticsearchException) cause).status());
+        }
+        // the sync client rethrows a refused request as an exception caused by the original one
+        if (failure.getCause() instanceof ResponseException) {
+            return isRefused((Exception) failure.getCause());
+        }
+        return false;
+    }
+
+    private static boolean isRefused(RestStatus status) {
+        // credentials and permissions are not about the records, they are waited for like an unavailable cluster
+        return status != null && status.getStatus() >= 400 && status.getStatus() < 500 && !isRetryable(status)
+                && status != RestStatus.UNAUTHORIZED && status != RestStatus.FORBIDDEN && status != RestStatus.REQUEST_TIMEOUT;
+    }
+
+    private void checkpoint(long position) {
+        try {
+            Path temporary = directory.resolve(CHECKPOINT + ".tmp");
+            try (FileChannel channel = FileChannel.open(temporary,
+                    StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                channel.write(ByteBuffer.allocate(8).putLong(0, position));
+                channel.force(true);
+            }
+            Files.move(temporary, directory.resolve(CHECKPOINT), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        }
+        catch (IOException ioe) {
+            // a stale checkpoint only means replaying a few acknowledged writes after a restart
+            log.warn("write-behind checkpoint errors", ioe);
+        }
+
+        List<Segment> drained = new ArrayList<>();
+        synchronized (lock) {
+            checkpoint = position;
+            while (segments.firstKey() < segment(position)) {
+                drained.add(segments.pollFirstEntry().getValue());
+            }
+            lock.notifyAll();
+        }
+        for (Segment segment : drained) {
+            segment.close();
+            try {
+                Files.deleteIfExists(segment.path);
+            }
+            catch (IOException ioe) {
+                log.warn("can not delete drained write-behind segment " + segment.path, ioe);
+            }
+        }
+    }
+
+    private void recover() throws IOException {
+        Files.createDirectories(directory);
+        Path checkpointFile = directory.resolve(CHECKPOINT);
+        List<Long> ids;
+        try (Stream<Path> files = Files.list(directory)) {
+            ids = files.map(path -> path.getFileName().toString())
+                    .filter(name -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX))
+                    .map(name -> Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())))
+                    .sorted()
+                    .collect(Collectors.toList());
+        }
+        if (Files.exists(checkpointFile)) {
+            checkpoint = ByteBuffer.wrap(Files.readAllBytes(checkpointFile)).getLong();
+        }
+        else {
+            checkpoint = position(ids.isEmpty() ? 0 : ids.get(0), 0);
+        }
+
+        for (long id : ids) {
+            if (id < segment(checkpoint)) {
+                Files.deleteIfExists(segmentPath(id));
+            }
+            else {
+                segments.put(id, openSegment(id));
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.put(segment(checkpoint), openSegment(segment(checkpoint)));
+        }
+        active = segments.lastEntry().getValue();
+
+        // the end of the log is the first record of the last segment that does not read back whole
+        ByteBuffer view = active.buffer.duplicate();
+        view.position(active.id == segment(checkpoint) ? offset(checkpoint) : 0);
+        long recovered = 0;
+        while (LogRecord.decode(view) != null) {
+            recovered++;
+        }
+        int end = view.position();
+        // clear whatever a torn write left behind, so that it can not be read after newer records
+        byte[] zeros = new byte[8192];
+        for (int offset = end; offset < segmentBytes; offset += zeros.length) {
+            view.position(offset);
+            view.put(zeros, 0, Math.min(zeros.length, segmentBytes - offset));
+        }
+        active.buffer.force();
+        appended = position(active.id, end);
+        durable = appended;
+        if (appended != checkpoint) {
+            log.info("write-behind log recovered with undrained writes, {} in its last segment", recovered);
+        }
+    }
+
+    private void start() {
+        committer = new Thread(this::commitLoop, "write-behind-committer");
+        committer.setDaemon(true);
+        committer.start();
+        drainer = new Thread(this::drainLoop, "write-behind-drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+    }
+
+    /**
+     * A new segment is forced with its size and its directory entry before anything is appended to it:
+     * forcing the mapped buffer only covers the data, a crash could otherwise lose the file with acknowledged writes.
+     */
+    private Segment openSegment(long id) throws IOException {
+        Path path = segmentPath(id);
+        boolean created = !Files.exists(path);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            if (created) {
+                channel.force(true);
+                forceDirectory();
+            }
+            return new Segment(id, path, channel, buffer);
+        }
+        catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private void forceDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private Path segmentPath(long id) {
+        return directory.resolve(String.format("%s%020d%s", SEGMENT_PREFIX, id, SEGMENT_SUFFIX));
+    }
+
+    private boolean sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+            return true;
+        }
+        catch (InterruptedException ie) {
+            synchronized (lock) {
+                return !stopped;
+            }
+        }
+    }
+
+    private static long position(long segment, int offset) {
+        return (segment << 32) | offset;
+    }
+
+    private static long segment(long position) {
+        return position >>> 32;
+    }
+
+    private static int offset(long position) {
+        return (int) position;
+    }
+
+    private static class Segment {
+
+        private final long id;
+        private final Path path;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+
+        Segment(long id, Path path, FileChannel channel, MappedByteBuffer buffer) {
+            this.id = id;
+            this.path = path;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        void close() {
+            try {
+                channel.close();
+            }
+            catch (IOException ioe) {
+                log.warn("can not close write-behind segment " + path, ioe);
+            }
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.hct.elasticsearch.fake;
+
+import com.hct.elasticsearch.config.properties.FakeElasticSearchProperties;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.action.admin.indices.get.GetIndexRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.MultiSearchRequest;
+import org.elasticsearch.action.search.MultiSearchResponse;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.action.search.SearchResponse;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.action.update.UpdateResponse;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.query.QueryBuilders;
+import org.elasticsearch.rest.RestStatus;
+import org.elasticsearch.script.ScriptType;
+import org.elasticsearch.script.mustache.SearchTemplateRequest;
+import org.elasticsearch.script.mustache.SearchTemplateResponse;
+import org.elasticsearch.search.builder.SearchSourceBuilder;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class FakeElasticSearchServerTest {
+
+    private FakeElasticSearchServer server;
+    private RestHighLevelClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = FakeElasticSearchServer.start(FakeElasticSearchProperties.builder().threads(2).build());
+        client = new RestHighLevelClient(RestClient.builder(server.getHttpHost()));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void index_thenGetAndSearch_returnsTheDocument() throws Exception {
+        index("1", "{\"my_zip\":\"12345\",\"my_city\":\"San Francisco\"}");
+        index("2", "{\"my_zip\":\"54321\",\"my_city\":\"Oakland\"}");
+
+        GetResponse getResponse = client.get(new GetRequest("es_test", "doc", "1"), RequestOptions.DEFAULT);
+        assertThat(getResponse.isExists()).isTrue();
+        assertThat(getResponse.getSourceAsMap()).containsEntry("my_zip", "12345");
+
+        SearchResponse searchResponse = client.search(new SearchRequest("es_test")
+                .source(new SearchSourceBuilder().query(QueryBuilders.matchQuery("my_city", "san"))), RequestOptions.DEFAULT);
+        assertThat(searchResponse.getHits().getTotalHits()).isEqualTo(1);
+        assertThat(searchResponse.getHits().getAt(0).getId()).isEqualTo("1");
+    }
+
+    @Test
+    public void update_givenAPartialDocument_mergesIt() throws Exception {
+        index("1", "{\"my_zip\":\"12345\",\"my_city\":\"San Francisco\"}");
+
+        UpdateResponse updateResponse = client.update(new UpdateRequest("es_test", "doc", "1")
+                .doc("{\"my_zip\":\"94105\"}", XContentType.JSON), RequestOptions.DEFAULT);
+
+        assertThat(updateResponse.status()).isEqualTo(RestStatus.OK);
+        assertThat(client.get(new GetRequest("es_test", "doc", "1"), RequestOptions.DEFAULT).getSourceAsMap())
+                .containsEntry("my_zip", "94105")
+                .containsEntry("my_city", "San Francisco");
+    }
+
+    @Test
+    public void searchTemplate_givenAStoredScript_rendersAndSearches() throws Exception {
+        index("1", "{\"my_zip\":\"12345\"}");
+        index("2", "{\"my_zip\":\"54321\"}");
+        Request putScript = new Request("POST", "/_scripts/by_zip");
+        putScript.setJsonEntity("{\"script\":{\"lang\":\"mustache\",\"source\":{\"query\":{\"term\":{\"my_zip\":\"{{zip}}\"}}}}}");
+        client.getLowLevelClient().performRequest(putScript);
+
+        SearchTemplateRequest request = new SearchTemplateRequest(new SearchRequest("es_test"));
+        request.setScriptType(ScriptType.STORED);
+        request.setScript("by_zip");
+        request.setScriptParams(Collections.singletonMap("zip", "54321"));
+        SearchTemplateResponse response = client.searchTemplate(request, RequestOptions.DEFAULT);
+
+        assertThat(response.getResponse().getHits().getTotalHits()).isEqualTo(1);
+        assertThat(response.getResponse().getHits().getAt(0).getId()).isEqualTo("2");
+    }
+
+    @Test
+    public void msearch_givenAMissingIndex_failsOnlyThatItem() throws Exception {
+        index("1", "{\"my_zip\":\"12345\"}");
+
+        MultiSearchRequest request = new MultiSearchRequest()
+                .add(new SearchRequest("es_test"))
+                .add(new SearchRequest("missing"));
+        MultiSearchResponse response = client.msearch(request, RequestOptions.DEFAULT);
+
+        assertThat(response.getResponses()[0].isFailure()).isFalse();
+        assertThat(response.getResponses()[0].getResponse().getHits().getTotalHits()).isEqualTo(1);
+        assertThat(response.getResponses()[1].isFailure()).isTrue();
+    }
+
+    @Test
+    public void exists_givenAMissingIndex_returnsFalse() throws Exception {
+        GetIndexRequest request = new GetIndexRequest();
+        request.indices("missing");
+        assertThat(client.indices().exists(request, RequestOptions.DEFAULT)).isFalse();
+    }
+
+    @Test
+    public void errorRate_givenOne_failsEveryCall() throws Exception {
+        client.close();
+        server.close();
+        server = FakeElasticSearchServer.start(FakeElasticSearchProperties.builder().errorRate(1.0).errorStatus(429).build());
+        client = new RestHighLevelClient(RestClient.builder(server.getHttpHost()));
+
+        assertThatThrownBy(() -> client.search(new SearchRequest("es_test"), RequestOptions.DEFAULT))
+                .isInstanceOfSatisfying(ElasticsearchStatusException.class,
+                        ese -> assertThat(ese.status()).isEqualTo(RestStatus.TOO_MANY_REQUESTS));
+    }
+
+    private void index(String id, String json) throws Exception {
+        client.index(new IndexRequest("es_test", "doc", id).source(json, XContentType.JSON), RequestOptions.DEFAULT);
+    }
+}
@@ -0,0 +1,63 @@
+package com.hct.elasticsearch.metrics;
+
+import com.hct.elasticsearch.config.properties.ElasticSearchMetricsProperties;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ElasticSearchMetricsTest {
+
+    private SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private ElasticSearchMetrics metrics = new ElasticSearchMetrics(meterRegistry, new ElasticSearchMetricsProperties());
+
+    @Test
+    public void record_givenHits_recordsLatencyAndHitCount() {
+        List<String> result = metrics.record("search", "es_test", null, () -> Arrays.asList("a", "b"));
+
+        assertThat(result).hasSize(2);
+        assertThat(meterRegistry.get(ElasticSearchMetrics.REQUESTS).tag("operation", "search").timer().count()).isEqualTo(1);
+        assertThat(meterRegistry.get(ElasticSearchMetrics.HITS).tag("operation", "search").summary().totalAmount()).isEqualTo(2);
+    }
+
+    @Test
+    public void record_givenFailure_countsErrorByStatus() {
+        assertThatThrownBy(() -> metrics.record("get", "es_test", () -> "1", () -> {
+            throw new ElasticsearchStatusException("missing", RestStatus.NOT_FOUND);
+        })).isInstanceOf(ElasticsearchStatusException.class);
+
+        assertThat(meterRegistry.get(ElasticSearchMetrics.ERRORS).tags("operation", "get", "status", "NOT_FOUND").counter().count()).isEqualTo(1);
+        assertThat(meterRegistry.get(ElasticSearchMetrics.REQUESTS).tag("operation", "get").timer().count()).isEqualTo(1);
+    }
+
+    @Test
+    public void record_givenAFastCall_neitherBuildsTheDetailNorRegistersTheTimerAgain() {
+        metrics.record("search", "es_test", () -> {
+            throw new AssertionError("detail built for a fast call");
+        }, () -> "ok");
+        metrics.record("search", "es_test", null, () -> "ok");
+
+        assertThat(metrics.timer("search")).isSameAs(meterRegistry.get(ElasticSearchMetrics.REQUESTS).tag("operation", "search").timer());
+        assertThat(metrics.timer("search").count()).isEqualTo(2);
+    }
+
+    @Test
+    public void recordAsync_givenFailedFuture_countsErrorOnCompletion() {
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> recorded = metrics.recordAsync("search", "es_test", null, () -> future);
+        assertThat(meterRegistry.find(ElasticSearchMetrics.ERRORS).counter()).isNull();
+
+        future.completeExceptionally(new RuntimeException("search errors", new IOException("connection reset")));
+
+        assertThat(recorded).isCompletedExceptionally();
+        assertThat(meterRegistry.get(ElasticSearchMetrics.ERRORS).tags("operation", "search", "status", "IO_ERROR").counter().count()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,137 @@
+package com.hct.elasticsearch.service;
+
+import com.hct.elasticsearch.config.properties.AdmissionControlProperties;
+import com.hct.elasticsearch.config.properties.ElasticSearchMetricsProperties;
+import com.hct.elasticsearch.metrics.ElasticSearchMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class AdmissionControllerTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    public void call_givenRejectedExecutions_decreasesTheLimit() {
+        AdmissionController admissionController = admissionController(AdmissionControlProperties.builder().initialLimit(10));
+
+        for (int i = 0; i < 2; i++) {
+            assertThatThrownBy(() -> admissionController.call(AdmissionController.WRITE, () -> {
+                throw new ElasticsearchStatusException("es_rejected_execution_exception", RestStatus.TOO_MANY_REQUESTS);
+            })).isInstanceOf(ElasticsearchStatusException.class);
+        }
+
+        assertThat(admissionController.getLimit(AdmissionController.WRITE)).isEqualTo(8);
+        assertThat(admissionController.getLimit(AdmissionController.SEARCH)).isEqualTo(10);
+        assertThat(meterRegistry.get(ElasticSearchMetrics.ADMISSION).tag("type", "write").tag("state", "limit").gauge().value()).isEqualTo(8);
+    }
+
+    @Test
+    public void call_givenSuccessesUsingTheLimit_increasesIt() throws Exception {
+        AdmissionController admissionController = admissionController(AdmissionControlProperties.builder().initialLimit(1));
+
+        for (int i = 0; i < 10; i++) {
+            admissionController.call(AdmissionController.SEARCH, () -> "ok");
+        }
+
+        // a single caller only ever uses one slot, the limit stops growing once that is half of it
+        assertThat(admissionController.getLimit(AdmissionController.SEARCH)).isEqualTo(2);
+    }
+
+    @Test
+    public void call_givenAFullLimitAndQueue_shedsAtOnce() throws Exception {
+        AdmissionController admissionController = admissionController(AdmissionControlProperties.builder().initialLimit(1).maxQueued(0));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> holder = hold(admissionController, started, release);
+        started.await(5, SECONDS);
+
+        assertThatThrownBy(() -> admissionController.call(AdmissionController.WRITE, () -> "ok"))
+                .isInstanceOf(AdmissionRejectedException.class);
+
+        release.countDown();
+        assertThat(holder.get(5, SECONDS)).isEqualTo("held");
+    }
+
+    @Test
+    public void call_givenAFullLimit_queuesUntilASlotFreesUp() throws Exception {
+        AdmissionController admissionController = admissionController(AdmissionControlProperties.builder().initialLimit(1).maxWaitMillis(5000));
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CompletableFuture<String> holder = hold(admissionController, started, release);
+        started.await(5, SECONDS);
+
+        CompletableFuture<String> queued = CompletableFuture.supplyAsync(() -> {
+            try {
+                return admissionController.call(AdmissionController.WRITE, () -> "queued");
+            }
+            catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertThat(queued).isNotDone();
+
+        release.countDown();
+        assertThat(queued.get(5, SECONDS)).isEqualTo("queued");
+        assertThat(holder.get(5, SECONDS)).isEqualTo("held");
+    }
+
+    @Test
+    public void callAsync_holdsTheSlotUntilTheFutureCompletes() throws Exception {
+        AdmissionController admissionController = admissionController(AdmissionControlProperties.builder().initialLimit(1).maxQueued(0));
+        CompletableFuture<String> response = new CompletableFuture<>();
+        CompletableFuture<String> admitted = admissionController.callAsync(AdmissionController.SEARCH, () -> response, value -> false);
+
+        assertThat(admissionController.callAsync(AdmissionController.SEARCH, () -> response, value -> false))
+                .isCompletedExceptionally();
+
+        response.complete("ok");
+        assertThat(admitted.get(5, SECONDS)).isEqualTo("ok");
+        assertThat(admissionController.callAsync(AdmissionController.SEARCH, () -> CompletableFuture.completedFuture("again"), value -> false)
+                .get(5, SECONDS)).isEqualTo("again");
+    }
+
+    @Test
+    public void callAsync_givenAnOverloadedResponse_decreasesTheLimit() throws Exception {
+        AdmissionController admissionController = admissionController(AdmissionControlProperties.builder().initialLimit(10));
+
+        admissionController.callAsync(AdmissionController.SEARCH, () -> CompletableFuture.completedFuture("partially rejected"),
+                value -> value.contains("rejected")).get(5, SECONDS);
+
+        assertThat(admissionController.getLimit(AdmissionController.SEARCH)).isEqualTo(9);
+    }
+
+    private static CompletableFuture<String> hold(AdmissionController admissionController, CountDownLatch started, CountDownLatch release) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                return admissionController.call(AdmissionController.WRITE, () -> {
+                    started.countDown();
+                    try {
+                        release.await(5, SECONDS);
+                    }
+                    catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                    }
+                    return "held";
+                });
+            }
+            catch (Exception e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    private AdmissionController admissionController(AdmissionControlProperties.AdmissionControlPropertiesBuilder properties) {
+        return new AdmissionController(properties.build(),
+                new ElasticSearchMetrics(meterRegistry, ElasticSearchMetricsProperties.builder().build()));
+    }
+}
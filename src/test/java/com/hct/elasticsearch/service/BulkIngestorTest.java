@@ -0,0 +1,60 @@
+package com.hct.elasticsearch.service;
+
+import com.hct.elasticsearch.config.properties.BulkIngestorProperties;
+import com.hct.elasticsearch.config.properties.FakeElasticSearchProperties;
+import com.hct.elasticsearch.fake.FakeElasticSearchServer;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class BulkIngestorTest {
+
+    private FakeElasticSearchServer server;
+    private RestHighLevelClient client;
+    private BulkIngestor bulkIngestor;
+
+    @Before
+    public void setUp() throws Exception {
+        // every request rejected, so every item goes through all its retries
+        server = FakeElasticSearchServer.start(FakeElasticSearchProperties.builder()
+                .errorRate(1.0)
+                .errorStatus(429)
+                .build());
+        client = new RestHighLevelClient(RestClient.builder(server.getHttpHost()));
+        bulkIngestor = new BulkIngestor(client, BulkIngestorProperties.builder()
+                .flushIntervalMillis(0)
+                .maxRetries(3)
+                .initialBackoffMillis(1)
+                .build());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        bulkIngestor.close();
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void add_givenRejectionsAndNoFlushInterval_stillSendsTheRetries() throws Exception {
+        CompletableFuture<BulkItemResponse> future = bulkIngestor.add(new IndexRequest("es_test", "doc", "1")
+                .source("{\"counter\":1}", XContentType.JSON));
+        bulkIngestor.flush();
+
+        CompletableFuture<Void> completed = future.handle((response, failure) -> null);
+        completed.get(5, SECONDS);
+
+        assertThat(future).isCompletedExceptionally();
+        assertThat(bulkIngestor.getPendingActions()).isZero();
+    }
+}
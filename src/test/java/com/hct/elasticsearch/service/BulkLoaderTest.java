@@ -0,0 +1,179 @@
+package com.hct.elasticsearch.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hct.elasticsearch.config.properties.BulkIngestorProperties;
+import com.hct.elasticsearch.config.properties.BulkLoadProperties;
+import com.hct.elasticsearch.config.properties.FakeElasticSearchProperties;
+import com.hct.elasticsearch.config.properties.IndexMetadataCacheProperties;
+import com.hct.elasticsearch.config.properties.QueryCacheProperties;
+import com.hct.elasticsearch.config.properties.RoutingProperties;
+import com.hct.elasticsearch.dto.BulkIngestResult;
+import com.hct.elasticsearch.dto.ElasticSearchQueryResponse;
+import com.hct.elasticsearch.fake.FakeElasticSearchServer;
+import org.elasticsearch.action.admin.indices.create.CreateIndexRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsRequest;
+import org.elasticsearch.action.admin.indices.settings.get.GetSettingsResponse;
+import org.elasticsearch.action.admin.indices.settings.put.UpdateSettingsRequest;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.settings.Settings;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Optional;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class BulkLoaderTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeElasticSearchServer server;
+    private RestHighLevelClient client;
+    private BulkIngestor bulkIngestor;
+    private QueryResultCache queryResultCache;
+
+    @Before
+    public void setUp() throws Exception {
+        server = FakeElasticSearchServer.start(FakeElasticSearchProperties.builder().build());
+        client = new RestHighLevelClient(RestClient.builder(server.getHttpHost()));
+        bulkIngestor = new BulkIngestor(client, BulkIngestorProperties.builder().flushIntervalMillis(0).build());
+        queryResultCache = new QueryResultCache(QueryCacheProperties.builder().build(), new ObjectMapper());
+        client.indices().create(new CreateIndexRequest("es_test"), RequestOptions.DEFAULT);
+        client.indices().putSettings(new UpdateSettingsRequest("es_test").settings(Settings.builder()
+                .put(BulkLoader.REFRESH_INTERVAL, "5s")
+                .put(BulkLoader.NUMBER_OF_REPLICAS, 2)), RequestOptions.DEFAULT);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        queryResultCache.close();
+        bulkIngestor.close();
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void open_turnsRefreshAndReplicasOffUntilClosed() throws Exception {
+        BulkLoader bulkLoader = bulkLoader();
+
+        try (BulkLoadSession session = bulkLoader.open("es_test", true)) {
+            assertThat(setting(BulkLoader.REFRESH_INTERVAL)).isEqualTo("-1");
+            assertThat(setting(BulkLoader.NUMBER_OF_REPLICAS)).isEqualTo("0");
+            for (int i = 0; i < 100; i++) {
+                session.add("doc", String.valueOf(i), "{\"counter\":" + i + "}");
+            }
+            assertThat(session.await().getSucceeded()).isEqualTo(100);
+            assertThatThrownBy(() -> bulkLoader.open("es_test", false)).isInstanceOf(IllegalStateException.class);
+        }
+
+        assertThat(setting(BulkLoader.REFRESH_INTERVAL)).isEqualTo("5s");
+        assertThat(setting(BulkLoader.NUMBER_OF_REPLICAS)).isEqualTo("2");
+        assertThat(server.count("es_test")).isEqualTo(100);
+        assertThat(folder.getRoot().list()).isEmpty();
+    }
+
+    @Test
+    public void load_givenAFailingStream_stillRestoresTheSettings() throws Exception {
+        Stream<ElasticSearchQueryResponse> documents = IntStream.range(0, 10).mapToObj(i -> {
+            if (i == 5) {
+                throw new IllegalArgumentException("broken source");
+            }
+            return ElasticSearchQueryResponse.builder().type("doc").id(String.valueOf(i)).source("{\"counter\":" + i + "}").build();
+        });
+
+        assertThatThrownBy(() -> bulkLoader().load("es_test", documents, false)).hasMessage("broken source");
+
+        assertThat(setting(BulkLoader.REFRESH_INTERVAL)).isEqualTo("5s");
+        assertThat(setting(BulkLoader.NUMBER_OF_REPLICAS)).isEqualTo("2");
+    }
+
+    @Test
+    public void restoreAbandoned_givenALoadCutShort_restoresTheSettingsOnTheNextStart() throws Exception {
+        // never closed, as if the process died during the load
+        bulkLoader().open("es_test", false);
+        assertThat(setting(BulkLoader.REFRESH_INTERVAL)).isEqualTo("-1");
+
+        bulkLoader();
+
+        assertThat(setting(BulkLoader.REFRESH_INTERVAL)).isEqualTo("5s");
+        assertThat(setting(BulkLoader.NUMBER_OF_REPLICAS)).isEqualTo("2");
+        assertThat(folder.getRoot().list()).isEmpty();
+    }
+
+    @Test
+    public void load_givenDocuments_indexesThemAll() throws Exception {
+        BulkIngestResult result = bulkLoader().load("es_test", IntStream.range(0, 50).mapToObj(i -> ElasticSearchQueryResponse.builder()
+                .type("doc").id(String.valueOf(i)).source("{\"counter\":" + i + "}").build()), true);
+
+        assertThat(result.getSucceeded()).isEqualTo(50);
+        assertThat(result.getFailed()).isZero();
+        assertThat(server.count("es_test")).isEqualTo(50);
+    }
+
+    @Test
+    public void add_givenARoutingStrategy_routesTheDocumentsLikeTheService() throws Exception {
+        RoutingStrategy routingStrategy = new FieldRoutingStrategy(new JsonFactory(), RoutingProperties.builder().build());
+
+        try (BulkLoadSession session = bulkLoader(routingStrategy).open("es_test", false)) {
+            session.add("doc", "acme:1", "{\"tenant_id\":\"acme\"}");
+            assertThat(session.await().getSucceeded()).isEqualTo(1);
+        }
+
+        assertThat(client.get(new GetRequest("es_test", "doc", "acme:1").routing("acme"), RequestOptions.DEFAULT).isExists()).isTrue();
+        assertThat(client.get(new GetRequest("es_test", "doc", "acme:1"), RequestOptions.DEFAULT).isExists()).isFalse();
+    }
+
+    @Test
+    public void open_givenAPattern_restoresEachIndexToItsOwnSettings() throws Exception {
+        client.indices().create(new CreateIndexRequest("es_test_2"), RequestOptions.DEFAULT);
+        client.indices().putSettings(new UpdateSettingsRequest("es_test_2").settings(Settings.builder()
+                .put(BulkLoader.REFRESH_INTERVAL, "30s")), RequestOptions.DEFAULT);
+
+        try (BulkLoadSession ignored = bulkLoader().open("es_test*", false)) {
+            assertThat(setting("es_test", BulkLoader.REFRESH_INTERVAL)).isEqualTo("-1");
+            assertThat(setting("es_test_2", BulkLoader.REFRESH_INTERVAL)).isEqualTo("-1");
+        }
+
+        assertThat(setting("es_test", BulkLoader.REFRESH_INTERVAL)).isEqualTo("5s");
+        assertThat(setting("es_test", BulkLoader.NUMBER_OF_REPLICAS)).isEqualTo("2");
+        assertThat(setting("es_test_2", BulkLoader.REFRESH_INTERVAL)).isEqualTo("30s");
+        assertThat(setting("es_test_2", BulkLoader.NUMBER_OF_REPLICAS)).isEqualTo("0");
+    }
+
+    @Test
+    public void open_givenNoMatchingIndex_touchesNothing() {
+        assertThatThrownBy(() -> bulkLoader().open("missing*", false)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(folder.getRoot().list()).isEmpty();
+    }
+
+    private BulkLoader bulkLoader() {
+        return bulkLoader(null);
+    }
+
+    private BulkLoader bulkLoader(RoutingStrategy routingStrategy) {
+        return new BulkLoader(client, new ObjectMapper(), bulkIngestor,
+                BulkLoadProperties.builder().directory(folder.getRoot().getPath()).build(),
+                queryResultCache, new IndexMetadataCache(client, IndexMetadataCacheProperties.builder().build()),
+                Optional.ofNullable(routingStrategy));
+    }
+
+    private String setting(String name) throws Exception {
+        return setting("es_test", name);
+    }
+
+    private String setting(String index, String name) throws Exception {
+        GetSettingsResponse response = client.indices().getSettings(new GetSettingsRequest().indices(index), RequestOptions.DEFAULT);
+        return response.getSetting(index, name);
+    }
+}
@@ -4,7 +4,10 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.hct.elasticsearch.config.properties.QueryConfigurationProperties;
+import com.hct.elasticsearch.dto.BulkIngestResult;
 import com.hct.elasticsearch.dto.ElasticSearchQueryResponse;
+import com.hct.elasticsearch.dto.IndexMetadata;
+import com.hct.elasticsearch.dto.MultiMatchResult;
 import org.elasticsearch.ElasticsearchStatusException;
 import org.elasticsearch.action.index.IndexRequest;
 import org.junit.Before;
@@ -17,8 +20,11 @@ import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.test.context.junit4.SpringRunner;
 
+import java.io.ByteArrayOutputStream;
 import java.time.Instant;
 import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -35,6 +41,8 @@ public class ElasticSearchApiServiceTest {
     private QueryConfigurationProperties queryConfigurationProperties;
     @Autowired
     private ObjectMapper objectMapper;
+    @Autowired
+    private SearchTemplateRegistry searchTemplateRegistry;
 
     @Rule
     public ExpectedException expectedException = ExpectedException.none();
@@ -79,6 +87,41 @@ public class ElasticSearchApiServiceTest {
         assertThat(responses.isEmpty()).isTrue();
     }
 
+    @Test
+    public void streamSearchAll_givenDefaultIndex_streamsTheSampleDocument() {
+        try (Stream<ElasticSearchQueryResponse> responses = elasticSearchApiService.streamSearchAll(queryConfigurationProperties.getDefaultIndex())) {
+            assertThat(responses.anyMatch(t -> testId.equals(t.getId()))).isTrue();
+        }
+    }
+
+    @Test
+    public void streamSearchAll_givenSlices_streamsEveryDocumentOnce() {
+        List<ElasticSearchQueryResponse> pagedResponses;
+        try (Stream<ElasticSearchQueryResponse> responses = elasticSearchApiService.streamSearchAll(queryConfigurationProperties.getDefaultIndex())) {
+            pagedResponses = responses.collect(Collectors.toList());
+        }
+        try (Stream<ElasticSearchQueryResponse> responses = elasticSearchApiService.streamSearchAll(queryConfigurationProperties.getDefaultIndex(), 2)) {
+            assertThat(responses.map(ElasticSearchQueryResponse::getId).collect(Collectors.toList()))
+                    .hasSameSizeAs(pagedResponses)
+                    .doesNotHaveDuplicates();
+        }
+    }
+
+    @Test
+    public void querySearchAll_givenANotExistingIndexTwice_returnsAnEmptyListFromTheMetadataCache() {
+        String index = UUID.randomUUID().toString();
+        assertThat(elasticSearchApiService.querySearchAll(index)).isEmpty();
+        assertThat(elasticSearchApiService.querySearchAll(index)).isEmpty();
+        assertThat(elasticSearchApiService.getIndexMetadata(index).isExists()).isFalse();
+    }
+
+    @Test
+    public void getIndexMetadata_givenDefaultIndex_returnsItsMappings() {
+        IndexMetadata metadata = elasticSearchApiService.getIndexMetadata(queryConfigurationProperties.getDefaultIndex());
+        assertThat(metadata.isExists()).isTrue();
+        assertThat(metadata.getMappings()).containsKey(queryConfigurationProperties.getDefaultType());
+    }
+
     @Test
     public void getDocumentById_givenAnIndexAndDocumentId_returnADocument() {
         ElasticSearchQueryResponse document = elasticSearchApiService.getDocumentById(
@@ -88,12 +131,37 @@ public class ElasticSearchApiServiceTest {
         assertThat(document.getSource()).isNotEmpty();
     }
 
+    @Test
+    public void getDocumentById_givenAnExistingDocument_passesTheRawSourceThrough() throws Exception {
+        ElasticSearchQueryResponse document = elasticSearchApiService.getDocumentById(
+                queryConfigurationProperties.getDefaultIndex(),
+                queryConfigurationProperties.getDefaultType(),
+                testId);
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        document.writeSourceTo(out);
+        assertThat(document.getRawSource()).isNotNull();
+        assertThat(out.toString("UTF-8")).isEqualTo(document.getSource());
+        assertThat(document.getRawSource().asJsonNode(objectMapper)).isEqualTo(objectMapper.readTree(document.getSource()));
+    }
+
     @Test
     public void getDocumentById_givenAnNotExistingIndexOrDocumentId_returnsNull() {
         ElasticSearchQueryResponse document = elasticSearchApiService.getDocumentById(UUID.randomUUID().toString(), sample.getType(), UUID.randomUUID().toString());
         assertThat(document).isNull();
     }
 
+    @Test
+    public void getDocumentsByIds_givenExistingAndMissingIds_returnsThemInOrderWithNullForTheMissing() {
+        List<ElasticSearchQueryResponse> documents = elasticSearchApiService.getDocumentsByIds(
+                sample.getIndex(), sample.getType(), Arrays.asList(UUID.randomUUID().toString(), sample.getId()));
+
+        assertThat(documents).hasSize(2);
+        assertThat(documents.get(0)).isNull();
+        assertThat(documents.get(1).getId()).isEqualTo(sample.getId());
+        assertThat(documents.get(1).getSource()).isEqualTo(sample.getSource());
+    }
+
     @Test
     public void updateDocument_givenAnExistingDocumentId_thenUpdateTheDocument() throws Exception {
         refreshSample();
@@ -170,6 +238,57 @@ public class ElasticSearchApiServiceTest {
 
     }
 
+    @Test
+    public void saveDocuments_givenValidDocuments_shouldSaveAllOfThem() throws Exception {
+        long testUid = Instant.now().toEpochMilli();
+        List<ElasticSearchQueryResponse> documents = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            documents.add(ElasticSearchQueryResponse.builder()
+                    .index(queryConfigurationProperties.getDefaultIndex())
+                    .type(queryConfigurationProperties.getDefaultType())
+                    .id(testUid + "_" + i)
+                    .source("{\"bulk_test_uid\": " + testUid + "}")
+                    .build());
+        }
+
+        BulkIngestResult result = elasticSearchApiService.saveDocuments(documents);
+        assertThat(result.getSucceeded()).isEqualTo(10);
+        assertThat(result.hasFailures()).isFalse();
+        assertThat(elasticSearchApiService.getDocumentById(
+                queryConfigurationProperties.getDefaultIndex(),
+                queryConfigurationProperties.getDefaultType(),
+                testUid + "_9")).isNotNull();
+    }
+
+    @Test
+    public void saveDocuments_givenAnInvalidDocument_reportsTheFailedItem() throws Exception {
+        String id = "" + Instant.now().toEpochMilli();
+        BulkIngestResult result = elasticSearchApiService.saveDocuments(Collections.singletonList(
+                ElasticSearchQueryResponse.builder()
+                        .index(queryConfigurationProperties.getDefaultIndex())
+                        .type(queryConfigurationProperties.getDefaultType())
+                        .id(id)
+                        .source("{\"my_zip\": }")
+                        .build()));
+        assertThat(result.getFailed()).isEqualTo(1);
+        assertThat(result.getFailures().get(0).getId()).isEqualTo(id);
+    }
+
+    @Test
+    public void saveDocument_givenARouting_isReadAndSearchedWithIt() throws Exception {
+
+        String newId = "routed-" + Instant.now().toEpochMilli();
+        String routing = "tenant-" + newId;
+        elasticSearchApiService.saveDocument(sample.getIndex(), sample.getType(), newId, routing, "{\"routed_test_uid\": \"" + newId + "\"}");
+
+        assertThat(elasticSearchApiService.getDocumentById(sample.getIndex(), sample.getType(), newId, routing).getSource())
+                .contains(newId);
+        await().atMost(5, SECONDS).untilAsserted(() ->
+                assertThat(elasticSearchApiService.queryMatches(sample.getIndex(), "routed_test_uid", newId, routing))
+                        .extracting(ElasticSearchQueryResponse::getId)
+                        .containsExactly(newId));
+    }
+
     @Test
     public void queryMatches_givenParameters_returnMatchedResponses() throws Exception {
 
@@ -218,6 +337,39 @@ public class ElasticSearchApiServiceTest {
 
     }
 
+    @Test
+    public void queryMultiMatches_givenDeduplicate_returnsADocumentMatchedByTwoFieldsOnce() throws Exception {
+        refreshSample();
+
+        JsonNode jsonNode = objectMapper.readTree(sample.getSource());
+        long testUid = Instant.now().toEpochMilli();
+        ((ObjectNode) jsonNode).put("query_dedup1_test_uid", testUid);
+        ((ObjectNode) jsonNode).put("query_dedup2_test_uid", testUid);
+        elasticSearchApiService.updateDocument(sample.getIndex(), sample.getType(), sample.getId(), jsonNode.toString());
+
+        Map<String, Object> parameters = new HashMap<>();
+        parameters.put("query_dedup1_test_uid", testUid);
+        parameters.put("query_dedup2_test_uid", testUid);
+
+        await().atMost(5, SECONDS).untilAsserted(() -> {
+            MultiMatchResult result = elasticSearchApiService.queryMultiMatches(queryConfigurationProperties.getDefaultIndex(), parameters, true);
+            assertThat(result.hasErrors()).isFalse();
+            assertThat(result.getHits()).extracting(ElasticSearchQueryResponse::getId).containsOnlyOnce(sample.getId());
+        });
+    }
+
+    @Test
+    public void queryMultiMatches_givenAFailingSubQuery_returnsThePartialResultsAndTheError() {
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("query_partial_test_uid", 1);
+        // an unparsable value on the date field fails that sub-query on every shard
+        parameters.put("test_created", "not a date");
+
+        MultiMatchResult result = elasticSearchApiService.queryMultiMatches(queryConfigurationProperties.getDefaultIndex(), parameters, false);
+        assertThat(result.getErrors()).containsOnlyKeys("test_created");
+        assertThat(result.getHits()).isNotNull();
+    }
+
     @Test
     public void upsertTemplate_givenATemplateNameAndSource_shouldStoreAsAsAScript() throws Exception {
         String source = "{\n" +
@@ -235,6 +387,19 @@ public class ElasticSearchApiServiceTest {
         assertThat(updatedSource).isEqualTo(source);
     }
 
+    @Test
+    public void render_givenAnUpsertedTemplate_rendersTheQueryLocally() throws Exception {
+        String source = "{ \"query\": { \"match\": { \"test_template_render_uid\": {{my_query_uid}} } } }";
+        elasticSearchApiService.upsertTemplate("test_template_render_uid", source);
+
+        Map<String, Object> params = new HashMap<>();
+        params.put("my_query_uid", 42);
+        String rendered = searchTemplateRegistry.render("test_template_render_uid", params);
+
+        assertThat(objectMapper.readTree(rendered).path("query").path("match").path("test_template_render_uid").asInt()).isEqualTo(42);
+        assertThat(elasticSearchApiService.getTemplateSource("test_template_render_uid")).isEqualTo(source);
+    }
+
     @Test
     public void query_givenAQueryScript_returnMatchedResponse() throws Exception {
         ElasticSearchQueryResponse sample = elasticSearchApiService.querySearchAll(queryConfigurationProperties.getDefaultIndex()).get(0);
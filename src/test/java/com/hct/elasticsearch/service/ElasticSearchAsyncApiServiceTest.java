@@ -0,0 +1,65 @@
+package com.hct.elasticsearch.service;
+
+import com.hct.elasticsearch.config.properties.QueryConfigurationProperties;
+import com.hct.elasticsearch.dto.ElasticSearchQueryResponse;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.junit4.SpringRunner;
+
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+@RunWith(SpringRunner.class)
+@SpringBootTest
+@ActiveProfiles("test")
+public class ElasticSearchAsyncApiServiceTest {
+
+    @Autowired
+    private ElasticSearchAsyncApiService elasticSearchAsyncApiService;
+    @Autowired
+    private QueryConfigurationProperties queryConfigurationProperties;
+
+    @Test
+    public void hasIndex_givenNotExistingIndex_completesWithFalse() throws Exception {
+        assertThat(elasticSearchAsyncApiService.hasIndex(UUID.randomUUID().toString()).get(5, SECONDS)).isFalse();
+    }
+
+    @Test
+    public void getDocumentById_givenAnNotExistingIndex_completesWithNull() throws Exception {
+        ElasticSearchQueryResponse document = elasticSearchAsyncApiService.getDocumentById(
+                UUID.randomUUID().toString(),
+                queryConfigurationProperties.getDefaultType(),
+                UUID.randomUUID().toString()).get(5, SECONDS);
+        assertThat(document).isNull();
+    }
+
+    @Test
+    public void saveDocument_thenGetDocumentById_composesWithoutBlocking() throws Exception {
+        String id = "" + Instant.now().toEpochMilli();
+        String json = "{\"my_zip\": \"12345\"}";
+
+        CompletableFuture<ElasticSearchQueryResponse> document = elasticSearchAsyncApiService
+                .saveDocument(queryConfigurationProperties.getDefaultIndex(), queryConfigurationProperties.getDefaultType(), id, json)
+                .thenCompose(saved -> elasticSearchAsyncApiService.getDocumentById(saved.getIndex(), saved.getType(), saved.getId()));
+
+        assertThat(document.get(5, SECONDS).getSource()).contains("12345");
+    }
+
+    @Test
+    public void allOf_givenSeveralQueries_returnsResultsInOrder() throws Exception {
+        List<CompletableFuture<List<ElasticSearchQueryResponse>>> futures = Arrays.asList(
+                elasticSearchAsyncApiService.querySearchAll(queryConfigurationProperties.getDefaultIndex()),
+                elasticSearchAsyncApiService.querySearchAll(UUID.randomUUID().toString()));
+
+        List<List<ElasticSearchQueryResponse>> results = ElasticSearchAsyncApiService.allOf(futures).get(5, SECONDS);
+        assertThat(results.get(0)).isNotEmpty();
+        assertThat(results.get(1)).isEmpty();
+    }
+}
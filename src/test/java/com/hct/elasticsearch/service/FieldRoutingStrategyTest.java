@@ -0,0 +1,69 @@
+package com.hct.elasticsearch.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.hct.elasticsearch.config.properties.RoutingProperties;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class FieldRoutingStrategyTest {
+
+    private final FieldRoutingStrategy routingStrategy = new FieldRoutingStrategy(new JsonFactory(), RoutingProperties.builder()
+            .idSeparator(":")
+            .indices(Arrays.asList("es_test"))
+            .build());
+
+    @Test
+    public void routeDocument_givenAnId_routesByItsPrefix() {
+        assertThat(routingStrategy.routeDocument("es_test", "doc", "acme:1", "{\"counter\":1}")).isEqualTo("acme");
+        assertThat(routingStrategy.routeDocument("es_test", "doc", "acme:1", null)).isEqualTo("acme");
+        assertThat(routingStrategy.routeDocument("es_test", "doc", "1", null)).isNull();
+    }
+
+    @Test
+    public void routeDocument_givenTheTopLevelFieldMatchingTheIdPrefix_acceptsIt() {
+        String json = "{\"nested\":{\"tenant_id\":\"inner\"},\"tags\":[\"tenant_id\"],\"tenant_id\":42,\"my_zip\":\"12345\"}";
+
+        assertThat(routingStrategy.routeDocument("es_test", "doc", "42:1", json)).isEqualTo("42");
+    }
+
+    @Test
+    public void routeDocument_givenTheTopLevelFieldContradictingTheId_rejectsTheDocument() {
+        assertThatThrownBy(() -> routingStrategy.routeDocument("es_test", "doc", "acme:1", "{\"tenant_id\":\"other\"}"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> routingStrategy.routeDocument("es_test", "doc", "1", "{\"tenant_id\":\"acme\"}"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void newDocumentId_givenTheField_prefixesTheIdWithIt() {
+        String json = "{\"tenant_id\":\"acme\"}";
+        String id = routingStrategy.newDocumentId("es_test", json);
+
+        assertThat(id).startsWith("acme:");
+        assertThat(routingStrategy.routeDocument("es_test", "doc", id, json)).isEqualTo("acme");
+        assertThat(routingStrategy.newDocumentId("es_test", "{\"counter\":1}")).isNull();
+    }
+
+    @Test
+    public void constructor_givenNoIdSeparator_refusesToRoute() {
+        assertThatThrownBy(() -> new FieldRoutingStrategy(new JsonFactory(), RoutingProperties.builder().idSeparator("").build()))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void routeSearch_givenTheParameter_returnsItsValue() {
+        assertThat(routingStrategy.routeSearch("es_test", Collections.singletonMap("tenant_id", "acme"))).isEqualTo("acme");
+        assertThat(routingStrategy.routeSearch("es_test", Collections.singletonMap("my_zip", "12345"))).isNull();
+    }
+
+    @Test
+    public void route_givenAnIndexNotListed_returnsNull() {
+        assertThat(routingStrategy.routeDocument("other", "doc", "acme:1", "{\"tenant_id\":\"acme\"}")).isNull();
+        assertThat(routingStrategy.routeSearch("other", Collections.singletonMap("tenant_id", "acme"))).isNull();
+    }
+}
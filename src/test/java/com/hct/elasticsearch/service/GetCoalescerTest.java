@@ -0,0 +1,84 @@
+package com.hct.elasticsearch.service;
+
+import com.hct.elasticsearch.config.properties.FakeElasticSearchProperties;
+import com.hct.elasticsearch.config.properties.GetCoalescerProperties;
+import com.hct.elasticsearch.fake.FakeElasticSearchServer;
+import org.elasticsearch.action.get.MultiGetItemResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class GetCoalescerTest {
+
+    private FakeElasticSearchServer server;
+    private RestHighLevelClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = FakeElasticSearchServer.start(FakeElasticSearchProperties.builder().build());
+        client = new RestHighLevelClient(RestClient.builder(server.getHttpHost()));
+        for (int i = 0; i < 10; i++) {
+            client.index(new IndexRequest("es_test", "doc", String.valueOf(i)).source("{\"counter\":" + i + "}", XContentType.JSON), RequestOptions.DEFAULT);
+        }
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void get_givenGetsWithinTheWindow_sendsThemInOneMultiGet() throws Exception {
+        try (GetCoalescer getCoalescer = new GetCoalescer(client, GetCoalescerProperties.builder().windowMillis(50).build())) {
+            List<CompletableFuture<MultiGetItemResponse>> futures = new ArrayList<>();
+            for (int i = 0; i < 10; i++) {
+                futures.add(getCoalescer.get("es_test", "doc", String.valueOf(i), null));
+            }
+            futures.add(getCoalescer.get("es_test", "doc", "3", null));
+
+            for (int i = 0; i < 10; i++) {
+                assertThat(futures.get(i).get(5, SECONDS).getResponse().getSourceAsMap()).containsEntry("counter", i);
+            }
+            assertThat(futures.get(10).get(5, SECONDS).getResponse().getSourceAsMap()).containsEntry("counter", 3);
+            assertThat(getCoalescer.getSubmittedGets()).isEqualTo(11);
+            assertThat(getCoalescer.getSentBatches()).isEqualTo(1);
+        }
+    }
+
+    @Test
+    public void get_givenAFullBatch_sendsItAtOnce() throws Exception {
+        try (GetCoalescer getCoalescer = new GetCoalescer(client, GetCoalescerProperties.builder().windowMillis(60000).maxBatchSize(2).build())) {
+            CompletableFuture<MultiGetItemResponse> first = getCoalescer.get("es_test", "doc", "1", null);
+            CompletableFuture<MultiGetItemResponse> second = getCoalescer.get("es_test", "doc", "2", null);
+
+            assertThat(first.get(5, SECONDS).getResponse().isExists()).isTrue();
+            assertThat(second.get(5, SECONDS).getResponse().isExists()).isTrue();
+        }
+    }
+
+    @Test
+    public void get_givenMissingDocumentsAndIndices_completesEachWithItsOwnItem() throws Exception {
+        try (GetCoalescer getCoalescer = new GetCoalescer(client, GetCoalescerProperties.builder().windowMillis(50).build())) {
+            CompletableFuture<MultiGetItemResponse> found = getCoalescer.get("es_test", "doc", "1", null);
+            CompletableFuture<MultiGetItemResponse> missingDocument = getCoalescer.get("es_test", "doc", "missing", null);
+            CompletableFuture<MultiGetItemResponse> missingIndex = getCoalescer.get("missing_index", "doc", "1", null);
+
+            assertThat(found.get(5, SECONDS).getResponse().isExists()).isTrue();
+            assertThat(missingDocument.get(5, SECONDS).getResponse().isExists()).isFalse();
+            assertThat(missingIndex.get(5, SECONDS).isFailed()).isTrue();
+        }
+    }
+}
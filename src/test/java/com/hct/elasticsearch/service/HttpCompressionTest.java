@@ -0,0 +1,119 @@
+package com.hct.elasticsearch.service;
+
+import com.hct.elasticsearch.config.properties.BulkIngestorProperties;
+import com.hct.elasticsearch.config.properties.ElasticSearchMetricsProperties;
+import com.hct.elasticsearch.config.properties.FakeElasticSearchProperties;
+import com.hct.elasticsearch.config.properties.HttpCompressionProperties;
+import com.hct.elasticsearch.fake.FakeElasticSearchServer;
+import com.hct.elasticsearch.metrics.ElasticSearchMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.get.GetResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.update.UpdateRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class HttpCompressionTest {
+
+    private static final String SOURCE = "{\"my_zip\":\"12345\",\"text\":\"" + repeat("lorem ipsum ", 200) + "\"}";
+
+    private FakeElasticSearchServer server;
+    private SimpleMeterRegistry meterRegistry;
+    private HttpCompression httpCompression;
+    private RestHighLevelClient client;
+
+    @Before
+    public void setUp() throws Exception {
+        server = FakeElasticSearchServer.start(FakeElasticSearchProperties.builder().threads(2).build());
+        meterRegistry = new SimpleMeterRegistry();
+        httpCompression = new HttpCompression(
+                HttpCompressionProperties.builder().requestsEnabled(true).minRequestBytes(1024).responsesEnabled(true).build(),
+                new ElasticSearchMetrics(meterRegistry, ElasticSearchMetricsProperties.builder().build()));
+        client = new RestHighLevelClient(RestClient.builder(server.getHttpHost()));
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void compress_givenALargeEntity_gzipsIt() throws Exception {
+        HttpEntity compressed = httpCompression.compress(new StringEntity(SOURCE, ContentType.APPLICATION_JSON));
+
+        assertThat(compressed.getContentEncoding().getValue()).isEqualTo("gzip");
+        assertThat(compressed.getContentLength()).isLessThan(SOURCE.length() / 4);
+        assertThat(IOUtils.toString(new GZIPInputStream(compressed.getContent()), StandardCharsets.UTF_8)).isEqualTo(SOURCE);
+    }
+
+    @Test
+    public void compress_givenASmallEntity_leavesItAlone() throws Exception {
+        StringEntity entity = new StringEntity("{\"my_zip\":\"12345\"}", ContentType.APPLICATION_JSON);
+
+        assertThat(httpCompression.compress(entity)).isSameAs(entity);
+    }
+
+    @Test
+    public void bulk_givenALargeBulk_sendsItGzipped() throws Exception {
+        try (BulkIngestor bulkIngestor = new BulkIngestor(client, BulkIngestorProperties.builder().flushIntervalMillis(0).build(), httpCompression)) {
+            bulkIngestor.add(new IndexRequest("es_test", "doc", "1").source(SOURCE, XContentType.JSON));
+            bulkIngestor.add(new IndexRequest("es_test", "doc", "2").source("{\n  \"my_zip\" : \"67890\"\n}", XContentType.JSON));
+            bulkIngestor.flush();
+            BulkItemResponse update = bulkIngestor.add(new UpdateRequest("es_test", "doc", "2")
+                    .doc("{\"counter\":1}", XContentType.JSON).retryOnConflict(2)).get(5, SECONDS);
+            bulkIngestor.flush();
+
+            assertThat(update.isFailed()).isFalse();
+        }
+
+        assertThat(server.count("es_test")).isEqualTo(2);
+        assertThat(meterRegistry.get(ElasticSearchMetrics.COMPRESSION_RATIO).tag("direction", "request").summary().count()).isGreaterThan(0);
+    }
+
+    @Test
+    public void get_givenAGzippedResponse_inflatesIt() throws Exception {
+        client.index(new IndexRequest("es_test", "doc", "1").source(SOURCE, XContentType.JSON), RequestOptions.DEFAULT);
+
+        // through the client's own buffering consumer, which the options only wrap
+        GetResponse getResponse = client.get(new GetRequest("es_test", "doc", "1"), httpCompression.requestOptions());
+
+        assertThat(getResponse.getSourceAsString()).isEqualTo(SOURCE);
+        assertThat(meterRegistry.get(ElasticSearchMetrics.COMPRESSION_RATIO).tag("direction", "response").summary().mean()).isGreaterThan(4);
+    }
+
+    @Test
+    public void get_givenTheDefaultOptions_receivesAPlainResponse() throws Exception {
+        client.index(new IndexRequest("es_test", "doc", "1").source(SOURCE, XContentType.JSON), RequestOptions.DEFAULT);
+
+        GetResponse getResponse = client.get(new GetRequest("es_test", "doc", "1"), RequestOptions.DEFAULT);
+
+        assertThat(getResponse.getSourceAsString()).isEqualTo(SOURCE);
+        assertThat(meterRegistry.find(ElasticSearchMetrics.COMPRESSION_RATIO).tag("direction", "response").summary()).isNull();
+    }
+
+    private static String repeat(String value, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+}
@@ -0,0 +1,98 @@
+package com.hct.elasticsearch.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hct.elasticsearch.config.properties.QueryCacheProperties;
+import com.hct.elasticsearch.dto.ElasticSearchQueryResponse;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class QueryResultCacheTest {
+
+    private QueryResultCache cache = new QueryResultCache(QueryCacheProperties.builder()
+            .enabled(true)
+            .indexRefreshIntervalMillis(0)
+            .build(), new ObjectMapper());
+
+    private final AtomicInteger loads = new AtomicInteger();
+
+    @After
+    public void tearDown() {
+        cache.close();
+    }
+
+    @Test
+    public void get_givenTheSameParametersInAnotherOrder_hitsTheCache() {
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("a", 1);
+        parameters.put("b", 2);
+        Map<String, Object> reordered = new LinkedHashMap<>();
+        reordered.put("b", 2);
+        reordered.put("a", 1);
+
+        cache.get("es_test", "template", "t", parameters, this::load);
+        cache.get("es_test", "template", "t", reordered, this::load);
+
+        assertThat(loads.get()).isEqualTo(1);
+        assertThat(cache.getStats().hitCount()).isEqualTo(1);
+        assertThat(cache.getStats().missCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void invalidate_givenAWrittenIndex_dropsOnlyItsEntries() {
+        cache.get("es_test", "match", "field", "value", this::load);
+        cache.get("other", "match", "field", "value", this::load);
+
+        cache.invalidate("es_test");
+        cache.get("es_test", "match", "field", "value", this::load);
+        cache.get("other", "match", "field", "value", this::load);
+
+        assertThat(loads.get()).isEqualTo(3);
+    }
+
+    @Test
+    public void get_givenACallerChangingItsResult_servesTheOthersTheOriginal() {
+        cache.get("es_test", "match", "field", "value", this::load).get(0).setSource("{\"changed\":true}");
+        cache.get("es_test", "match", "field", "value", this::load).get(0).setSource("{\"changed\":true}");
+
+        assertThat(cache.get("es_test", "match", "field", "value", this::load))
+                .extracting(ElasticSearchQueryResponse::getSource)
+                .containsExactly("{}");
+        assertThat(loads.get()).isEqualTo(1);
+    }
+
+    @Test
+    public void invalidate_duringALoad_doesNotKeepTheStaleResult() {
+        cache.get("es_test", "match", "field", "value", () -> {
+            cache.invalidate("es_test");
+            return load();
+        });
+
+        assertThat(cache.getSize()).isZero();
+        cache.get("es_test", "match", "field", "value", this::load);
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    @Test
+    public void get_givenADisabledCache_alwaysLoads() {
+        cache.close();
+        cache = new QueryResultCache(QueryCacheProperties.builder().enabled(false).build(), new ObjectMapper());
+
+        cache.get("es_test", "match", "field", "value", this::load);
+        cache.get("es_test", "match", "field", "value", this::load);
+
+        assertThat(loads.get()).isEqualTo(2);
+    }
+
+    private List<ElasticSearchQueryResponse> load() {
+        loads.incrementAndGet();
+        return Collections.singletonList(ElasticSearchQueryResponse.builder().id("1").source("{}").build());
+    }
+}
@@ -0,0 +1,129 @@
+package com.hct.elasticsearch.service;
+
+import com.hct.elasticsearch.config.properties.ElasticSearchMetricsProperties;
+import com.hct.elasticsearch.config.properties.ReadResilienceProperties;
+import com.hct.elasticsearch.metrics.ElasticSearchMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elasticsearch.ElasticsearchStatusException;
+import org.elasticsearch.rest.RestStatus;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class ReadResilienceTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private ReadResilience readResilience;
+
+    @After
+    public void tearDown() {
+        readResilience.close();
+    }
+
+    @Test
+    public void call_givenAnUnavailableCluster_retriesThenSucceeds() throws Exception {
+        readResilience = resilience(ReadResilienceProperties.builder().hedgingEnabled(false).retryBaseDelayMillis(1));
+        AtomicInteger calls = new AtomicInteger();
+
+        String result = readResilience.call("get", "es_test", () -> {
+            if (calls.incrementAndGet() < 3) {
+                throw new ElasticsearchStatusException("busy", RestStatus.SERVICE_UNAVAILABLE);
+            }
+            return "ok";
+        });
+
+        assertThat(result).isEqualTo("ok");
+        assertThat(calls.get()).isEqualTo(3);
+        assertThat(meterRegistry.get(ElasticSearchMetrics.RESILIENCE).tag("event", "retry").counter().count()).isEqualTo(2);
+    }
+
+    @Test
+    public void call_givenABadRequest_doesNotRetry() {
+        readResilience = resilience(ReadResilienceProperties.builder().hedgingEnabled(false));
+        AtomicInteger calls = new AtomicInteger();
+
+        assertThatThrownBy(() -> readResilience.call("get", "es_test", () -> {
+            calls.incrementAndGet();
+            throw new ElasticsearchStatusException("bad", RestStatus.BAD_REQUEST);
+        })).isInstanceOf(ElasticsearchStatusException.class);
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(readResilience.getBreakerState("es_test")).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void call_givenAFailingIndex_opensItsBreakerOnly() {
+        readResilience = resilience(ReadResilienceProperties.builder().hedgingEnabled(false).maxRetries(0)
+                .breakerWindowSize(4).breakerOpenMillis(60000));
+        AtomicInteger calls = new AtomicInteger();
+        for (int i = 0; i < 4; i++) {
+            assertThatThrownBy(() -> readResilience.call("get", "es_test", () -> {
+                calls.incrementAndGet();
+                throw new ElasticsearchStatusException("down", RestStatus.BAD_GATEWAY);
+            })).isInstanceOf(ElasticsearchStatusException.class);
+        }
+
+        assertThatThrownBy(() -> readResilience.call("get", "es_test", () -> calls.incrementAndGet()))
+                .isInstanceOf(CircuitOpenException.class);
+        assertThat(calls.get()).isEqualTo(4);
+        assertThat(readResilience.getBreakerState("es_test")).isEqualTo(CircuitBreaker.State.OPEN);
+        assertThat(readResilience.getBreakerState("other")).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void call_givenAProbeEndingInAnError_letsTheNextProbeThrough() throws Exception {
+        readResilience = resilience(ReadResilienceProperties.builder().hedgingEnabled(false).maxRetries(0)
+                .breakerWindowSize(1).breakerOpenMillis(1));
+        assertThatThrownBy(() -> readResilience.call("get", "es_test", () -> {
+            throw new ElasticsearchStatusException("down", RestStatus.BAD_GATEWAY);
+        })).isInstanceOf(ElasticsearchStatusException.class);
+        Thread.sleep(5);
+
+        assertThatThrownBy(() -> readResilience.call("get", "es_test", () -> {
+            throw new StackOverflowError();
+        })).isInstanceOf(StackOverflowError.class);
+
+        assertThat(readResilience.call("get", "es_test", () -> "ok")).isEqualTo("ok");
+        assertThat(readResilience.getBreakerState("es_test")).isEqualTo(CircuitBreaker.State.CLOSED);
+    }
+
+    @Test
+    public void call_givenASlowRequest_hedgesAndTakesTheFirstAnswer() throws Exception {
+        readResilience = resilience(ReadResilienceProperties.builder().hedgeMinSamples(10).hedgeWindowMillis(100).hedgeMinDelayMillis(1));
+        for (int i = 0; i < 20; i++) {
+            readResilience.call("get", "es_test", () -> "warm");
+        }
+        Thread.sleep(150);
+        AtomicInteger calls = new AtomicInteger();
+
+        long start = System.nanoTime();
+        String result = readResilience.call("get", "es_test", () -> {
+            if (calls.incrementAndGet() == 1) {
+                sleep(5000);
+                return "slow";
+            }
+            return "hedged";
+        });
+
+        assertThat(result).isEqualTo("hedged");
+        assertThat(System.nanoTime() - start).isLessThan(2_000_000_000L);
+        assertThat(meterRegistry.get(ElasticSearchMetrics.RESILIENCE).tag("event", "hedge_won").counter().count()).isEqualTo(1);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        }
+        catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private ReadResilience resilience(ReadResilienceProperties.ReadResiliencePropertiesBuilder properties) {
+        return new ReadResilience(properties.build(),
+                new ElasticSearchMetrics(meterRegistry, ElasticSearchMetricsProperties.builder().build()));
+    }
+}
@@ -0,0 +1,102 @@
+package com.hct.elasticsearch.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hct.elasticsearch.config.properties.BulkIngestorProperties;
+import com.hct.elasticsearch.config.properties.ElasticSearchMetricsProperties;
+import com.hct.elasticsearch.config.properties.FakeElasticSearchProperties;
+import com.hct.elasticsearch.config.properties.IndexMetadataCacheProperties;
+import com.hct.elasticsearch.config.properties.QueryCacheProperties;
+import com.hct.elasticsearch.config.properties.QueryConfigurationProperties;
+import com.hct.elasticsearch.config.properties.RoutingProperties;
+import com.hct.elasticsearch.dto.ElasticSearchQueryResponse;
+import com.hct.elasticsearch.fake.FakeElasticSearchServer;
+import com.hct.elasticsearch.metrics.ElasticSearchMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * The fake only finds a document with the routing it was written with, so a get or an update routed
+ * differently from the write misses it the way it would on an index with many shards.
+ */
+public class RoutedElasticSearchApiServiceTest {
+
+    private static final String INDEX = "es_test";
+    private static final String TYPE = "doc";
+
+    private FakeElasticSearchServer server;
+    private RestHighLevelClient client;
+    private BulkIngestor bulkIngestor;
+    private SearchTemplateRegistry searchTemplateRegistry;
+    private QueryResultCache queryResultCache;
+    private ElasticSearchApiService service;
+
+    @Before
+    public void setUp() throws Exception {
+        server = FakeElasticSearchServer.start(FakeElasticSearchProperties.builder().build());
+        client = new RestHighLevelClient(RestClient.builder(server.getHttpHost()));
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        QueryConfigurationProperties queryConfigurationProperties = QueryConfigurationProperties.builder()
+                .defaultIndex(INDEX)
+                .defaultType(TYPE)
+                .templateRefreshIntervalMillis(0)
+                .build();
+        bulkIngestor = new BulkIngestor(client, BulkIngestorProperties.builder().flushIntervalMillis(0).build());
+        searchTemplateRegistry = new SearchTemplateRegistry(client, objectMapper, queryConfigurationProperties);
+        queryResultCache = new QueryResultCache(QueryCacheProperties.builder().build(), objectMapper);
+        service = new ElasticSearchApiService(client, objectMapper, bulkIngestor, queryConfigurationProperties,
+                searchTemplateRegistry, queryResultCache, new IndexMetadataCache(client, IndexMetadataCacheProperties.builder().build()),
+                new ElasticSearchMetrics(new SimpleMeterRegistry(), ElasticSearchMetricsProperties.builder().build()),
+                HttpCompression.disabled(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(),
+                Optional.of(new FieldRoutingStrategy(objectMapper.getFactory(), RoutingProperties.builder().build())),
+                Optional.empty());
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        searchTemplateRegistry.close();
+        queryResultCache.close();
+        bulkIngestor.close();
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void saveDocument_thenGetAndUpdate_routeAlike() throws Exception {
+        service.saveDocument(INDEX, TYPE, "acme:1", "{\"tenant_id\":\"acme\",\"my_zip\":\"12345\"}");
+
+        assertThat(service.getDocumentById(INDEX, TYPE, "acme:1").getSource()).contains("12345");
+
+        service.updateDocument(INDEX, TYPE, "acme:1", "{\"counter\":1}");
+
+        assertThat(service.getDocumentById(INDEX, TYPE, "acme:1").getSource()).contains("\"counter\":1");
+        assertThat(service.queryMatches(INDEX, "tenant_id", "acme")).extracting(ElasticSearchQueryResponse::getId)
+                .containsExactly("acme:1");
+        // without the routing the document is not where the get looks
+        assertThat(service.getDocumentById(INDEX, TYPE, "acme:1", (String) null)).isNull();
+    }
+
+    @Test
+    public void saveDocument_givenNoId_generatesOneCarryingTheRouting() throws Exception {
+        ElasticSearchQueryResponse saved = service.saveDocument(INDEX, TYPE, "{\"tenant_id\":\"acme\"}");
+
+        assertThat(saved.getId()).startsWith("acme:");
+        assertThat(service.getDocumentById(INDEX, TYPE, saved.getId())).isNotNull();
+    }
+
+    @Test
+    public void saveDocument_givenAFieldContradictingTheId_rejectsIt() {
+        assertThatThrownBy(() -> service.saveDocument(INDEX, TYPE, "other:1", "{\"tenant_id\":\"acme\"}"))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(server.count(INDEX)).isZero();
+    }
+}
@@ -0,0 +1,83 @@
+package com.hct.elasticsearch.service;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.hct.elasticsearch.dto.ElasticSearchQueryResponse;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class SearchHitStreamDecoderTest {
+
+    private final SearchHitStreamDecoder decoder = new SearchHitStreamDecoder(new JsonFactory());
+
+    @Test
+    public void decode_givenASearchResponse_returnsEveryHit() throws Exception {
+        String json = "{\"took\":1,\"timed_out\":false,\"_shards\":{\"total\":1,\"successful\":1,\"skipped\":0,\"failed\":0}," +
+                "\"hits\":{\"total\":2,\"max_score\":1.0,\"hits\":[" +
+                "{\"_index\":\"es_test\",\"_type\":\"doc\",\"_id\":\"1\",\"_score\":1.0,\"_source\":{\"my_zip\":\"12345\"}}," +
+                "{\"_index\":\"es_test\",\"_type\":\"doc\",\"_id\":\"2\",\"_score\":1.0,\"_source\":{\"tags\":[\"a\",\"b\"],\"nested\":{\"n\":1}}}" +
+                "]}}";
+
+        List<ElasticSearchQueryResponse> hits = decode(json);
+
+        assertThat(hits).hasSize(2);
+        assertThat(hits.get(0).getId()).isEqualTo("1");
+        assertThat(hits.get(0).getIndex()).isEqualTo("es_test");
+        assertThat(hits.get(0).getType()).isEqualTo("doc");
+        assertThat(hits.get(0).getSource()).isEqualTo("{\"my_zip\":\"12345\"}");
+        assertThat(hits.get(1).getSource()).isEqualTo("{\"tags\":[\"a\",\"b\"],\"nested\":{\"n\":1}}");
+    }
+
+    @Test
+    public void decode_givenASource_keepsItsBytesAsStored() throws Exception {
+        String source = "{ \"price\": 1.10, \"precise\": 0.123456789012345678901234, \"name\": \"caf\u00e9\" }";
+        String json = "{\"hits\":{\"total\":1,\"hits\":[" +
+                "{\"_index\":\"es_test\",\"_type\":\"doc\",\"_id\":\"1\",\"_source\":" + source + "}" +
+                "]}}";
+
+        List<ElasticSearchQueryResponse> hits = decode(json);
+
+        assertThat(hits.get(0).getSource()).isEqualTo(source);
+    }
+
+    @Test
+    public void decode_givenASourceWithMetadataFieldNames_keepsTheHitMetadata() throws Exception {
+        String json = "{\"hits\":{\"total\":1,\"hits\":[" +
+                "{\"_source\":{\"_id\":\"inner\",\"_index\":\"other\"},\"_index\":\"es_test\",\"_type\":\"doc\",\"_id\":\"outer\"}" +
+                "]}}";
+
+        List<ElasticSearchQueryResponse> hits = decode(json);
+
+        assertThat(hits).hasSize(1);
+        assertThat(hits.get(0).getId()).isEqualTo("outer");
+        assertThat(hits.get(0).getIndex()).isEqualTo("es_test");
+    }
+
+    @Test
+    public void decode_givenDocValueFieldsAndNoSource_returnsTheFields() throws Exception {
+        String json = "{\"hits\":{\"total\":1,\"hits\":[" +
+                "{\"_index\":\"es_test\",\"_type\":\"doc\",\"_id\":\"1\",\"fields\":{\"my_zip\":[\"12345\"],\"counter\":[3,4]}}" +
+                "]}}";
+
+        List<ElasticSearchQueryResponse> hits = decode(json);
+
+        assertThat(hits).hasSize(1);
+        assertThat(hits.get(0).getSource()).isNull();
+        assertThat(hits.get(0).getFields()).containsOnlyKeys("my_zip", "counter");
+        assertThat(hits.get(0).getFields().get("my_zip")).containsExactly("12345");
+        assertThat(hits.get(0).getFields().get("counter")).containsExactly(3, 4);
+    }
+
+    @Test
+    public void decode_givenNoHits_returnsAnEmptyList() throws Exception {
+        assertThat(decode("{\"hits\":{\"total\":0,\"max_score\":null,\"hits\":[]}}")).isEmpty();
+    }
+
+    private List<ElasticSearchQueryResponse> decode(String json) throws Exception {
+        return decoder.decode(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+}
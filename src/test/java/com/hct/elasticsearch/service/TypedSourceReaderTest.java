@@ -0,0 +1,77 @@
+package com.hct.elasticsearch.service;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hct.elasticsearch.dto.ElasticSearchQueryResponse;
+import com.hct.elasticsearch.dto.RawSource;
+import lombok.Data;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class TypedSourceReaderTest {
+
+    private final TypedSourceReader reader = new TypedSourceReader(new ObjectMapper(), 4);
+
+    @Test
+    public void read_givenALargePage_bindsEveryHitInOrder() {
+        List<ElasticSearchQueryResponse> hits = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            hits.add(hit(String.valueOf(i), "{\"my_zip\":\"" + i + "\",\"counter\":" + i + "}"));
+        }
+
+        List<Address> addresses = reader.read(hits, Address.class);
+
+        assertThat(addresses).hasSize(100);
+        for (int i = 0; i < 100; i++) {
+            assertThat(addresses.get(i).getMyZip()).isEqualTo(String.valueOf(i));
+            assertThat(addresses.get(i).getCounter()).isEqualTo(i);
+        }
+        assertThat(hits.get(0).getRawSource()).isNotNull();
+    }
+
+    @Test
+    public void read_givenAStringSource_bindsIt() {
+        ElasticSearchQueryResponse hit = ElasticSearchQueryResponse.builder().id("1").source("{\"my_zip\":\"12345\"}").build();
+
+        assertThat(reader.read(hit, Address.class).getMyZip()).isEqualTo("12345");
+    }
+
+    @Test
+    public void read_givenNoSource_returnsNull() {
+        assertThat(reader.read(ElasticSearchQueryResponse.builder().id("1").build(), Address.class)).isNull();
+        assertThat(reader.read((ElasticSearchQueryResponse) null, Address.class)).isNull();
+    }
+
+    @Test
+    public void read_givenAnInvalidSource_namesTheHit() {
+        ElasticSearchQueryResponse hit = hit("bad", "{\"counter\":\"not a number\"}");
+
+        assertThatThrownBy(() -> reader.read(hit, Address.class)).hasMessageContaining("id:bad");
+    }
+
+    @Test
+    public void reader_isCachedPerType() {
+        assertThat(reader.reader(Address.class)).isSameAs(reader.reader(Address.class));
+    }
+
+    private static ElasticSearchQueryResponse hit(String id, String source) {
+        return ElasticSearchQueryResponse.builder()
+                .id(id)
+                .index("es_test")
+                .rawSource(RawSource.of(source.getBytes(StandardCharsets.UTF_8)))
+                .build();
+    }
+
+    @Data
+    static class Address {
+        @JsonProperty("my_zip")
+        private String myZip;
+        private int counter;
+    }
+}
@@ -0,0 +1,74 @@
+package com.hct.elasticsearch.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hct.elasticsearch.config.properties.BulkIngestorProperties;
+import com.hct.elasticsearch.config.properties.FakeElasticSearchProperties;
+import com.hct.elasticsearch.config.properties.UpdateCoalescerProperties;
+import com.hct.elasticsearch.fake.FakeElasticSearchServer;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+import static java.util.concurrent.TimeUnit.SECONDS;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class UpdateCoalescerTest {
+
+    private FakeElasticSearchServer server;
+    private RestHighLevelClient client;
+    private BulkIngestor bulkIngestor;
+    private UpdateCoalescer updateCoalescer;
+
+    @Before
+    public void setUp() throws Exception {
+        server = FakeElasticSearchServer.start(FakeElasticSearchProperties.builder().threads(2).build());
+        client = new RestHighLevelClient(RestClient.builder(server.getHttpHost()));
+        bulkIngestor = new BulkIngestor(client, BulkIngestorProperties.builder().flushIntervalMillis(0).build());
+        updateCoalescer = new UpdateCoalescer(bulkIngestor, new ObjectMapper(), UpdateCoalescerProperties.builder()
+                .windowMillis(50)
+                .build());
+        client.index(new IndexRequest("es_test", "doc", "1").source("{\"my_zip\":\"12345\",\"counter\":0}", XContentType.JSON), RequestOptions.DEFAULT);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        updateCoalescer.close();
+        bulkIngestor.close();
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void update_givenABurstOnOneDocument_sendsFewMergedUpdatesInOrder() throws Exception {
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 1; i <= 100; i++) {
+            futures.add(updateCoalescer.update("es_test", "doc", "1", "{\"counter\":" + i + ",\"nested\":{\"f" + (i % 3) + "\":" + i + "}}"));
+        }
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).get(5, SECONDS);
+
+        Map<String, Object> source = client.get(new GetRequest("es_test", "doc", "1"), RequestOptions.DEFAULT).getSourceAsMap();
+        assertThat(source).containsEntry("counter", 100).containsEntry("my_zip", "12345");
+        assertThat((Map<String, Object>) source.get("nested")).containsEntry("f0", 99).containsEntry("f1", 100).containsEntry("f2", 98);
+        assertThat(updateCoalescer.getSubmittedUpdates()).isEqualTo(100);
+        assertThat(updateCoalescer.getSentUpdates()).isLessThan(10);
+    }
+
+    @Test
+    public void update_givenAMissingDocument_failsItsFutures() {
+        CompletableFuture<Void> future = updateCoalescer.update("es_test", "doc", "missing", "{\"counter\":1}");
+
+        assertThatThrownBy(() -> future.get(5, SECONDS)).hasMessageContaining("errors[NOT_FOUND]");
+    }
+}
@@ -0,0 +1,116 @@
+package com.hct.elasticsearch.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hct.elasticsearch.config.properties.BulkIngestorProperties;
+import com.hct.elasticsearch.config.properties.ElasticSearchMetricsProperties;
+import com.hct.elasticsearch.config.properties.FakeElasticSearchProperties;
+import com.hct.elasticsearch.config.properties.IndexMetadataCacheProperties;
+import com.hct.elasticsearch.config.properties.QueryCacheProperties;
+import com.hct.elasticsearch.config.properties.QueryConfigurationProperties;
+import com.hct.elasticsearch.config.properties.WarmUpProperties;
+import com.hct.elasticsearch.fake.FakeElasticSearchServer;
+import com.hct.elasticsearch.metrics.ElasticSearchMetrics;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.Status;
+
+import java.util.Collections;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WarmUpTest {
+
+    private static final String INDEX = "es_test";
+    private static final String TEMPLATE = "warm_up_template";
+
+    private FakeElasticSearchServer server;
+    private RestHighLevelClient client;
+    private BulkIngestor bulkIngestor;
+    private QueryConfigurationProperties queryConfigurationProperties;
+    private SearchTemplateRegistry searchTemplateRegistry;
+    private QueryResultCache queryResultCache;
+    private ElasticSearchApiService service;
+
+    @Before
+    public void setUp() throws Exception {
+        server = FakeElasticSearchServer.start(FakeElasticSearchProperties.builder().build());
+        client = new RestHighLevelClient(RestClient.builder(server.getHttpHost()));
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        queryConfigurationProperties = QueryConfigurationProperties.builder()
+                .defaultIndex(INDEX)
+                .defaultType("doc")
+                .storedTemplateId(TEMPLATE)
+                .templateRefreshIntervalMillis(0)
+                .build();
+        bulkIngestor = new BulkIngestor(client, BulkIngestorProperties.builder().build());
+        searchTemplateRegistry = new SearchTemplateRegistry(client, objectMapper, queryConfigurationProperties);
+        queryResultCache = new QueryResultCache(QueryCacheProperties.builder().build(), objectMapper);
+        service = new ElasticSearchApiService(client, objectMapper, bulkIngestor, queryConfigurationProperties,
+                searchTemplateRegistry, queryResultCache, new IndexMetadataCache(client, IndexMetadataCacheProperties.builder().build()),
+                new ElasticSearchMetrics(new SimpleMeterRegistry(), ElasticSearchMetricsProperties.builder().build()),
+                HttpCompression.disabled(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty(), Optional.empty());
+
+        service.saveDocument(INDEX, "doc", "1", "{\"my_zip\":\"10001\"}");
+        service.upsertTemplate(TEMPLATE, "{\"query\":{\"match\":{\"my_zip\":\"{{my_zip}}\"}}}");
+        // loaded again by the warm-up, as after a restart
+        searchTemplateRegistry.invalidate(TEMPLATE);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        searchTemplateRegistry.close();
+        queryResultCache.close();
+        bulkIngestor.close();
+        client.close();
+        server.close();
+    }
+
+    @Test
+    public void health_isOutOfServiceUntilTheWarmUpIsDone() {
+        WarmUp warmUp = warmUp(WarmUpProperties.builder()
+                .queries(Collections.singletonList(WarmUpProperties.Query.builder()
+                        .parameters(Collections.singletonMap("my_zip", "10001"))
+                        .build()))
+                .queryIterations(10)
+                .build());
+
+        assertThat(warmUp.health().getStatus()).isEqualTo(Status.OUT_OF_SERVICE);
+        assertThat(warmUp.isReady()).isFalse();
+
+        warmUp.run();
+
+        Health health = warmUp.health();
+        assertThat(health.getStatus()).isEqualTo(Status.UP);
+        assertThat(health.getDetails()).containsEntry("failures", 0);
+        assertThat(warmUp.isReady()).isTrue();
+        assertThat(searchTemplateRegistry.getTemplateNames()).contains(TEMPLATE);
+    }
+
+    @Test
+    public void run_givenAFailingQuery_stillEndsUp() {
+        WarmUp warmUp = warmUp(WarmUpProperties.builder()
+                .templates(Collections.singletonList("missing_template"))
+                .queries(Collections.singletonList(WarmUpProperties.Query.builder()
+                        .templateId("missing_template")
+                        .build()))
+                .queryIterations(2)
+                .build());
+
+        warmUp.run();
+
+        Health health = warmUp.health();
+        assertThat(health.getStatus()).isEqualTo(Status.UP);
+        assertThat((Integer) health.getDetails().get("failures")).isGreaterThan(0);
+    }
+
+    private WarmUp warmUp(WarmUpProperties properties) {
+        return new WarmUp(client, service, searchTemplateRegistry, queryResultCache, queryConfigurationProperties, properties);
+    }
+}
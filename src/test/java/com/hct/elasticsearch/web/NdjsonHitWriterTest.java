@@ -0,0 +1,102 @@
+package com.hct.elasticsearch.web;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.hct.elasticsearch.dto.ElasticSearchQueryResponse;
+import com.hct.elasticsearch.dto.RawSource;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class NdjsonHitWriterTest {
+
+    private final NdjsonHitWriter writer = new NdjsonHitWriter(new ObjectMapper().getFactory(), 2);
+
+    @Test
+    public void write_givenHits_writesOneLinePerHit() throws Exception {
+        ElasticSearchQueryResponse withRawSource = ElasticSearchQueryResponse.builder()
+                .index("es_test").type("doc").id("1").score(1.5f)
+                .rawSource(RawSource.of("{\"my_zip\":\"12345\"}".getBytes(StandardCharsets.UTF_8)))
+                .build();
+        ElasticSearchQueryResponse withFields = ElasticSearchQueryResponse.builder()
+                .index("es_test").type("doc").id("2")
+                .fields(Collections.singletonMap("my_zip", Collections.singletonList("67890")))
+                .build();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        long written = writer.write(Stream.of(withRawSource, withFields), out);
+
+        assertThat(written).isEqualTo(2);
+        assertThat(out.toString("UTF-8")).isEqualTo(
+                "{\"_index\":\"es_test\",\"_type\":\"doc\",\"_id\":\"1\",\"_score\":1.5,\"_source\":{\"my_zip\":\"12345\"}}\n" +
+                "{\"_index\":\"es_test\",\"_type\":\"doc\",\"_id\":\"2\",\"fields\":{\"my_zip\":[\"67890\"]}}\n");
+    }
+
+    @Test
+    public void write_givenAPrettyPrintedSource_keepsEachHitOnOneLine() throws Exception {
+        ElasticSearchQueryResponse pretty = ElasticSearchQueryResponse.builder()
+                .index("es_test").type("doc").id("1")
+                .rawSource(RawSource.of("{\r\n  \"price\" : 1.10,\n  \"text\" : \"a\\nb\"\n}".getBytes(StandardCharsets.UTF_8)))
+                .build();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        writer.write(Stream.of(pretty, hit("2")), out);
+
+        String[] lines = out.toString("UTF-8").split("\n");
+        assertThat(lines).hasSize(2);
+        assertThat(lines[0]).endsWith("\"_source\":{  \"price\" : 1.10,  \"text\" : \"a\\nb\"}}");
+    }
+
+    @Test
+    public void write_flushesTheFirstHitThenEveryFewHits() throws Exception {
+        AtomicInteger flushes = new AtomicInteger();
+        OutputStream out = new ByteArrayOutputStream() {
+            @Override
+            public void flush() {
+                flushes.incrementAndGet();
+            }
+        };
+
+        writer.write(Stream.generate(() -> hit("1")).limit(5), out);
+
+        // first hit, 2nd, 4th and the final flush
+        assertThat(flushes.get()).isEqualTo(4);
+    }
+
+    @Test
+    public void write_givenAClosedConnection_stopsPullingAndClosesTheStream() {
+        AtomicBoolean closed = new AtomicBoolean();
+        AtomicInteger pulled = new AtomicInteger();
+        Stream<ElasticSearchQueryResponse> hits = Stream.generate(() -> hit(String.valueOf(pulled.incrementAndGet())))
+                .onClose(() -> closed.set(true));
+        OutputStream out = new OutputStream() {
+            private int bytes;
+
+            @Override
+            public void write(int b) throws IOException {
+                if (++bytes > 200) {
+                    throw new IOException("Broken pipe");
+                }
+            }
+        };
+
+        assertThatThrownBy(() -> writer.write(hits, out)).hasMessage("Broken pipe");
+        assertThat(closed).isTrue();
+        assertThat(pulled.get()).isLessThan(10);
+    }
+
+    private static ElasticSearchQueryResponse hit(String id) {
+        return ElasticSearchQueryResponse.builder().index("es_test").type("doc").id(id)
+                .rawSource(RawSource.of("{\"my_zip\":\"12345\"}".getBytes(StandardCharsets.UTF_8)))
+                .build();
+    }
+}
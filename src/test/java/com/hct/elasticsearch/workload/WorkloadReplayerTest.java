@@ -0,0 +1,62 @@
+package com.hct.elasticsearch.workload;
+
+import com.hct.elasticsearch.config.properties.FakeElasticSearchProperties;
+import com.hct.elasticsearch.fake.FakeElasticSearchServer;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.action.search.SearchRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+public class WorkloadReplayerTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    private FakeElasticSearchServer server;
+
+    @Before
+    public void setUp() throws Exception {
+        server = FakeElasticSearchServer.start(FakeElasticSearchProperties.builder().threads(4).build());
+    }
+
+    @After
+    public void tearDown() {
+        server.close();
+    }
+
+    @Test
+    public void replay_givenARecordedWorkload_sendsEveryCallAgain() throws Exception {
+        Path file = temporaryFolder.newFile("workload.ndjson").toPath();
+        try (WorkloadRecorder recorder = new WorkloadRecorder(file);
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(server.getHttpHost())
+                     .setHttpClientConfigCallback(builder -> builder.addInterceptorFirst(recorder)))) {
+            client.index(new IndexRequest("es_test", "doc", "1").source("{\"my_zip\":\"12345\"}", XContentType.JSON), RequestOptions.DEFAULT);
+            client.search(new SearchRequest("es_test"), RequestOptions.DEFAULT);
+        }
+
+        List<RecordedCall> calls = WorkloadReplayer.load(file);
+        assertThat(calls).extracting(RecordedCall::getMethod).containsExactly("PUT", "POST");
+        assertThat(calls.get(0).getBody()).contains("12345");
+
+        try (RestClient restClient = RestClient.builder(server.getHttpHost()).build()) {
+            ReplayReport report = new WorkloadReplayer(restClient, calls).replay(4, 0, 20);
+
+            assertThat(report.getCalls()).isEqualTo(20);
+            assertThat(report.getErrors()).isZero();
+            assertThat(report.getP99Micros()).isLessThanOrEqualTo(report.getMaxMicros());
+        }
+        assertThat(server.count("es_test")).isEqualTo(1);
+    }
+}
@@ -0,0 +1,138 @@
+package com.hct.elasticsearch.writebehind;
+
+import com.hct.elasticsearch.config.properties.FakeElasticSearchProperties;
+import com.hct.elasticsearch.config.properties.WriteBehindProperties;
+import com.hct.elasticsearch.fake.FakeElasticSearchServer;
+import org.elasticsearch.action.get.GetRequest;
+import org.elasticsearch.client.RequestOptions;
+import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestHighLevelClient;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+public class WriteBehindLogTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void index_givenWritesAcrossSegments_drainsThemInOrder() throws Exception {
+        try (FakeElasticSearchServer server = FakeElasticSearchServer.start(FakeElasticSearchProperties.builder().build());
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(server.getHttpHost()));
+             WriteBehindLog writeBehindLog = WriteBehindLog.open(client, properties().drainBatchSize(7).build())) {
+
+            writeBehindLog.index("es_test", "doc", "1", "{\"counter\":0,\"my_zip\":\"12345\"}");
+            for (int i = 1; i <= 100; i++) {
+                writeBehindLog.update("es_test", "doc", "1", "{\"counter\":" + i + "}");
+                writeBehindLog.index("es_test", "doc", "other-" + i, "{\"counter\":" + i + "}");
+            }
+            awaitDrained(writeBehindLog);
+
+            Map<String, Object> source = client.get(new GetRequest("es_test", "doc", "1"), RequestOptions.DEFAULT).getSourceAsMap();
+            assertThat(source).containsEntry("counter", 100).containsEntry("my_zip", "12345");
+            assertThat(server.count("es_test")).isEqualTo(101);
+            assertThat(writeBehindLog.getDrainedRecords()).isEqualTo(201);
+            // drained segments are deleted, only the active one is left
+            assertThat(folder.getRoot().listFiles((dir, name) -> name.endsWith(".log"))).hasSize(1);
+        }
+    }
+
+    @Test
+    public void index_givenASmallBatchByteLimit_stillDrainsEveryWrite() throws Exception {
+        try (FakeElasticSearchServer server = FakeElasticSearchServer.start(FakeElasticSearchProperties.builder().build());
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(server.getHttpHost()));
+             WriteBehindLog writeBehindLog = WriteBehindLog.open(client, properties().drainBatchBytes(100).build())) {
+
+            for (int i = 1; i <= 20; i++) {
+                writeBehindLog.index("es_test", "doc", String.valueOf(i), "{\"counter\":" + i + "}");
+            }
+            awaitDrained(writeBehindLog);
+
+            assertThat(server.count("es_test")).isEqualTo(20);
+            assertThat(writeBehindLog.getDrainedRecords()).isEqualTo(20);
+        }
+    }
+
+    @Test
+    public void index_givenMalformedJson_refusesItBeforeTheAck() throws Exception {
+        try (FakeElasticSearchServer server = FakeElasticSearchServer.start(FakeElasticSearchProperties.builder().build());
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(server.getHttpHost()));
+             WriteBehindLog writeBehindLog = WriteBehindLog.open(client, properties().build())) {
+
+            assertThatThrownBy(() -> writeBehindLog.index("es_test", "doc", "1", "{\"counter\":"))
+                    .isInstanceOf(IllegalArgumentException.class);
+            assertThatThrownBy(() -> writeBehindLog.update("es_test", "doc", "1", "{\"counter\":1} {}"))
+                    .isInstanceOf(IllegalArgumentException.class);
+            assertThat(writeBehindLog.getAppendedRecords()).isZero();
+        }
+    }
+
+    @Test
+    public void open_givenWritesLeftByAPreviousRun_drainsThem() throws Exception {
+        try (FakeElasticSearchServer failing = FakeElasticSearchServer.start(FakeElasticSearchProperties.builder().errorRate(1.0).build());
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(failing.getHttpHost()))) {
+            WriteBehindLog writeBehindLog = WriteBehindLog.open(client, properties().closeTimeoutMillis(100).build());
+            for (int i = 0; i < 10; i++) {
+                writeBehindLog.index("es_test", "doc", String.valueOf(i), "{\"counter\":" + i + "}");
+            }
+            writeBehindLog.close();
+
+            assertThat(writeBehindLog.getAppendedRecords()).isEqualTo(10);
+            assertThat(writeBehindLog.getDrainedRecords()).isZero();
+        }
+
+        try (FakeElasticSearchServer server = FakeElasticSearchServer.start(FakeElasticSearchProperties.builder().build());
+             RestHighLevelClient client = new RestHighLevelClient(RestClient.builder(server.getHttpHost()));
+             WriteBehindLog writeBehindLog = WriteBehindLog.open(client, properties().build())) {
+            awaitDrained(writeBehindLog);
+
+            assertThat(server.count("es_test")).isEqualTo(10);
+            assertThat(writeBehindLog.getDrainedRecords()).isEqualTo(10);
+        }
+    }
+
+    @Test
+    public void decode_givenAnEncodedRecord_readsItBack() {
+        LogRecord routed = new LogRecord(LogRecord.Operation.UPDATE, "es_test", "doc", "1", "tenant-1", "{\"counter\":1}");
+        LogRecord unrouted = new LogRecord(LogRecord.Operation.INDEX, "es_test", "doc", "2", null, "{\"counter\":2}");
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        buffer.put(routed.encode()).put(unrouted.encode()).flip();
+
+        assertThat(LogRecord.decode(buffer)).isEqualTo(routed);
+        assertThat(LogRecord.decode(buffer)).isEqualTo(unrouted);
+        assertThat(LogRecord.decode(buffer)).isNull();
+    }
+
+    @Test
+    public void decode_givenATornWrite_returnsNull() {
+        byte[] bytes = new LogRecord(LogRecord.Operation.INDEX, "es_test", "doc", "1", null, "{\"counter\":1}").encode();
+        bytes[bytes.length - 1] = 0;
+
+        assertThat(LogRecord.decode(ByteBuffer.wrap(bytes))).isNull();
+    }
+
+    private WriteBehindProperties.WriteBehindPropertiesBuilder properties() {
+        return WriteBehindProperties.builder()
+                .enabled(true)
+                .directory(folder.getRoot().getPath())
+                .segmentBytes(4096)
+                .drainRetryInitialMillis(10)
+                .drainRetryMaxMillis(50);
+    }
+
+    private static void awaitDrained(WriteBehindLog writeBehindLog) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (!writeBehindLog.isDrained() && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(writeBehindLog.isDrained()).isTrue();
+    }
+}